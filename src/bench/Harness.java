@@ -0,0 +1,127 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A small, dependency-free microbenchmark harness. Each benchmark is run in
+ * batches on the calling thread: first for the warmup time, so the JIT has
+ * settled, then for the measurement time, and the average time and heap
+ * allocation per operation over the measured batches is reported.
+ *
+ * Allocation is read from the JVM's per-thread allocation counter, so it
+ * counts every byte the benchmark allocates, whether or not it survives.
+ * Operations' results are folded into a sink, so the JIT can't throw away
+ * the work that produced them.
+ */
+public class Harness {
+	/**
+	 * One operation of a benchmark, set up ahead of time.
+	 */
+	public interface Operation {
+		/**
+		 * @return Anything derived from the work done, for the sink.
+		 */
+		Object run() throws Exception;
+	}
+
+	public static final class Result {
+		private final double nanosPerOp;
+		private final double bytesPerOp;
+		private final long operations;
+
+		private Result(double nanosPerOp, double bytesPerOp, long operations) {
+			this.nanosPerOp = nanosPerOp;
+			this.bytesPerOp = bytesPerOp;
+			this.operations = operations;
+		}
+
+		public double getNanosPerOp() {
+			return nanosPerOp;
+		}
+
+		/**
+		 * @return Bytes allocated per operation, or -1 if this JVM can't
+		 *         count allocations.
+		 */
+		public double getBytesPerOp() {
+			return bytesPerOp;
+		}
+
+		public long getOperations() {
+			return operations;
+		}
+	}
+
+	private final long warmupNanos;
+	private final long measureNanos;
+	private volatile int sink;
+
+	public Harness(long warmupMillis, long measureMillis) {
+		this.warmupNanos = warmupMillis * 1000000L;
+		this.measureNanos = measureMillis * 1000000L;
+	}
+
+	public Result measure(Operation operation) throws Exception {
+		run(operation, warmupNanos);
+
+		com.sun.management.ThreadMXBean allocation = allocationCounter();
+		long thread = Thread.currentThread().getId();
+		long bytesBefore = allocation == null ? 0 : allocation
+				.getThreadAllocatedBytes(thread);
+		long started = System.nanoTime();
+
+		long operations = run(operation, measureNanos);
+
+		long elapsed = System.nanoTime() - started;
+		double bytesPerOp = -1;
+		if (allocation != null) {
+			bytesPerOp = (double) (allocation.getThreadAllocatedBytes(thread) - bytesBefore)
+					/ operations;
+		}
+
+		return new Result((double) elapsed / operations, bytesPerOp,
+				operations);
+	}
+
+	/**
+	 * Run operation in growing batches until at least nanos have passed, so
+	 * that reading the clock doesn't dominate fast operations.
+	 *
+	 * @return How many operations were run.
+	 */
+	private long run(Operation operation, long nanos) throws Exception {
+		long deadline = System.nanoTime() + nanos;
+		long operations = 0;
+		int batch = 1;
+		int folded = 0;
+		do {
+			for (int i = 0; i < batch; i++) {
+				Object result = operation.run();
+				folded += result == null ? 0 : System.identityHashCode(result);
+			}
+			operations += batch;
+			if (batch < 1 << 20) {
+				batch <<= 1;
+			}
+		} while (System.nanoTime() < deadline);
+		sink += folded;
+
+		return operations;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		if (!allocation.isThreadAllocatedMemorySupported()) {
+			return null;
+		}
+		allocation.setThreadAllocatedMemoryEnabled(true);
+
+		return allocation;
+	}
+}
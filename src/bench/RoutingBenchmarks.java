@@ -0,0 +1,295 @@
+package bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import client.Client;
+import client.DistanceVectorEngine;
+import client.Log;
+
+/**
+ * Benchmarks for the routing, codec and forwarding hot paths, run with
+ * Harness over a grid of table sizes and neighbor counts:
+ *
+ * java bench.RoutingBenchmarks [-d 10,100,1000,10000] [-n 2,8,32]
+ * [-w warmupMillis] [-m measureMillis] [benchmark name filter]
+ *
+ * Each row is the average time and allocation for one operation:
+ *
+ * decode: getDVFromRouteUpdateMessage on a neighbor's DV.
+ *
+ * encode: createDVStringForRouteUpdate on a neighbor's DV.
+ *
+ * updateDV: updateDistanceVectorAndRoutingTableFromOtherDistanceVector with a
+ * neighbor's DV in which one destination's cost has changed since the last
+ * call; the neighbor alternates between two versions of its DV.
+ *
+ * poisonReverse: the same one-destination change, then
+ * poisonReversedDistanceVector for every neighbor, as sendRouteUpdates would.
+ *
+ * forward: processPacket on a __TRANSFER__ passing through an offline Client,
+ * i.e. parsing, the forwarding table lookup and building the forwarded
+ * packet.
+ */
+public class RoutingBenchmarks {
+	private static final String LOCAL = "10.255.0.1:4000";
+
+	private final int destinations;
+	private final int neighbors;
+	private final String[] neighborIds;
+	private final List<Map<String, Double>> dvs;
+
+	public RoutingBenchmarks(int destinations, int neighbors) {
+		this.destinations = destinations;
+		this.neighbors = neighbors;
+		this.neighborIds = new String[neighbors];
+		this.dvs = new ArrayList<Map<String, Double>>(neighbors);
+
+		for (int i = 0; i < neighbors; i++) {
+			neighborIds[i] = "10.254." + (i / 250) + "." + (i % 250 + 1)
+					+ ":4000";
+		}
+		for (int i = 0; i < neighbors; i++) {
+			dvs.add(neighborDV(i, 0));
+		}
+	}
+
+	/**
+	 * @param neighbor
+	 *            Index of the neighbor whose DV this is
+	 * @param skew
+	 *            Added to the cost of destination 0, to make a changed
+	 *            version of the DV.
+	 * @return What neighbor would advertise: itself at 0, us at its link
+	 *         cost, the other neighbors, and every destination.
+	 */
+	private Map<String, Double> neighborDV(int neighbor, double skew) {
+		Map<String, Double> dv = new TreeMap<String, Double>();
+		for (int i = 0; i < neighbors; i++) {
+			dv.put(neighborIds[i], i == neighbor ? 0.0 : 1.0 + neighbor + i);
+		}
+		dv.put(LOCAL, linkCost(neighbor));
+		for (int d = 0; d < destinations; d++) {
+			dv.put(destination(d), 1.0 + (d + neighbor) % 7
+					+ (d == 0 ? skew : 0));
+		}
+
+		return dv;
+	}
+
+	private static String destination(int d) {
+		return "10." + (d >> 16) + "." + ((d >> 8) & 255) + "." + (d & 255)
+				+ ":80";
+	}
+
+	private static double linkCost(int neighbor) {
+		return 1.0 + neighbor;
+	}
+
+	/**
+	 * @return An engine that has heard every neighbor's DV.
+	 */
+	private DistanceVectorEngine loadedEngine() {
+		DistanceVectorEngine engine = new DistanceVectorEngine(LOCAL);
+		Map<String, Double> links = new TreeMap<String, Double>();
+		for (int i = 0; i < neighbors; i++) {
+			links.put(neighborIds[i], linkCost(i));
+		}
+		engine.initialize(links);
+
+		for (int i = 0; i < neighbors; i++) {
+			engine.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+					neighborIds[i], neighborDV(i, 0));
+		}
+
+		return engine;
+	}
+
+	public Harness.Operation decode() {
+		final DistanceVectorEngine engine = new DistanceVectorEngine(LOCAL);
+		final String body = engine.createDVStringForRouteUpdate(dvs.get(0));
+
+		return new Harness.Operation() {
+			public Object run() {
+				return engine.getDVFromRouteUpdateMessage(body);
+			}
+		};
+	}
+
+	public Harness.Operation encode() {
+		final DistanceVectorEngine engine = new DistanceVectorEngine(LOCAL);
+		final Map<String, Double> dv = dvs.get(0);
+
+		return new Harness.Operation() {
+			public Object run() {
+				return engine.createDVStringForRouteUpdate(dv);
+			}
+		};
+	}
+
+	public Harness.Operation updateDV() {
+		final DistanceVectorEngine engine = loadedEngine();
+		final String sender = neighborIds[0];
+		final Map<String, Double> before = neighborDV(0, 0);
+		final Map<String, Double> after = neighborDV(0, 0.5);
+
+		return new Harness.Operation() {
+			private boolean flip = false;
+
+			public Object run() {
+				flip = !flip;
+				return engine
+						.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+								sender, flip ? after : before);
+			}
+		};
+	}
+
+	public Harness.Operation poisonReverse() {
+		final DistanceVectorEngine engine = loadedEngine();
+		final String sender = neighborIds[0];
+		final Map<String, Double> before = neighborDV(0, 0);
+		final Map<String, Double> after = neighborDV(0, 0.5);
+
+		return new Harness.Operation() {
+			private boolean flip = false;
+
+			public Object run() {
+				flip = !flip;
+				engine.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						sender, flip ? after : before);
+				Object last = null;
+				for (String neighbor : neighborIds) {
+					last = engine.poisonReversedDistanceVector(neighbor);
+				}
+
+				return last;
+			}
+		};
+	}
+
+	public Harness.Operation forward() throws IOException {
+		File config = File.createTempFile("bellhop-bench", ".config");
+		config.deleteOnExit();
+		Writer writer = new FileWriter(config);
+		try {
+			writer.write("4000 60\n");
+			for (int i = 0; i < neighbors; i++) {
+				writer.write(neighborIds[i] + " " + linkCost(i) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+
+		final Client client = new Client(config.getAbsolutePath(), true);
+		client.setOffline(true);
+		String local = client.getLocalClientID();
+		for (int i = 0; i < neighbors; i++) {
+			Map<String, Double> dv = neighborDV(i, 0);
+			dv.remove(LOCAL);
+			dv.put(local, linkCost(i));
+			client.processRouteUpdate(neighborIds[i],
+					new DistanceVectorEngine(local)
+							.createDVStringForRouteUpdate(dv));
+		}
+
+		// A __TRANSFER__ carries the original sender's header inside it
+		String recipient = destination(destinations - 1);
+		String header = "__TRANSFER__%" + recipient + "%" + local + "%"
+				+ neighborIds[0] + "%1#";
+		String chunk = new String(new char[1024]).replace('\0', 'x');
+		final byte[] packet = (header + header + chunk + "=" + neighborIds[0])
+				.getBytes();
+		client.processPacket(packet, packet.length);
+		if (client.getMetrics().getCount("dropped.transfer") != 0) {
+			throw new IllegalStateException("No route to " + recipient);
+		}
+
+		return new Harness.Operation() {
+			public Object run() throws IOException {
+				client.processPacket(packet, packet.length);
+				return packet;
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] destinationCounts = { 10, 100, 1000, 10000 };
+		int[] neighborCounts = { 2, 8, 32 };
+		long warmupMillis = 500;
+		long measureMillis = 1000;
+		String filter = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-d")) {
+				destinationCounts = parseInts(args[++i]);
+			} else if (args[i].equals("-n")) {
+				neighborCounts = parseInts(args[++i]);
+			} else if (args[i].equals("-w")) {
+				warmupMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-m")) {
+				measureMillis = Long.parseLong(args[++i]);
+			} else {
+				filter = args[i];
+			}
+		}
+
+		// Keep logging out of the numbers
+		Log.setLevel(Log.Level.ERROR);
+		Harness harness = new Harness(warmupMillis, measureMillis);
+		String[] names = { "decode", "encode", "updateDV", "poisonReverse",
+				"forward" };
+
+		System.out.println(String.format("%-14s %8s %6s %14s %14s",
+				"benchmark", "dests", "nbrs", "ns/op", "B/op"));
+		for (String name : names) {
+			if (filter != null && !name.contains(filter)) {
+				continue;
+			}
+			for (int destinations : destinationCounts) {
+				for (int neighbors : neighborCounts) {
+					RoutingBenchmarks benchmarks = new RoutingBenchmarks(
+							destinations, neighbors);
+					Harness.Result result = harness.measure(benchmarks
+							.operation(name));
+					System.out.println(String.format(
+							"%-14s %8d %6d %14.1f %14.1f", name,
+							destinations, neighbors, result.getNanosPerOp(),
+							result.getBytesPerOp()));
+				}
+			}
+		}
+	}
+
+	private Harness.Operation operation(String name) throws IOException {
+		if (name.equals("decode")) {
+			return decode();
+		} else if (name.equals("encode")) {
+			return encode();
+		} else if (name.equals("updateDV")) {
+			return updateDV();
+		} else if (name.equals("poisonReverse")) {
+			return poisonReverse();
+		} else if (name.equals("forward")) {
+			return forward();
+		}
+
+		throw new IllegalArgumentException("No such benchmark: " + name);
+	}
+
+	private static int[] parseInts(String list) {
+		String[] values = list.split(",");
+		int[] ints = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			ints[i] = Integer.parseInt(values[i].trim());
+		}
+
+		return ints;
+	}
+}
@@ -0,0 +1,297 @@
+package client;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The state every RoutingEngine keeps: the routing table, the index from next
+ * hops to the destinations routed through them, our direct link costs, and the
+ * published ForwardingTable. Subclasses only decide which routes to put in the
+ * table.
+ */
+public abstract class AbstractRoutingEngine implements RoutingEngine {
+	protected final String localClientID;
+	protected Map<String, Double> linkCosts = new TreeMap<String, Double>();
+	protected Map<String, RouteEntry> routingTable = new TreeMap<String, RouteEntry>();
+	private NodeIds nodeIds = new NodeIds();
+	private long routingTableVersion = 0;
+	private Map<String, Set<String>> destinationsByNextHop = new TreeMap<String, Set<String>>();
+	private volatile ForwardingTable forwardingTable = ForwardingTable.EMPTY;
+	private Set<String> changedDestinations = new HashSet<String>();
+	private boolean routingTableReplaced = false;
+	protected Clock clock = Clock.SYSTEM;
+
+	protected AbstractRoutingEngine(String localClientID) {
+		this.localClientID = localClientID;
+	}
+
+	/**
+	 * @param clock
+	 *            Where the engine reads the time from, e.g. for hold downs.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	public boolean hasLink(String ipPort) {
+		return linkCosts.containsKey(ipPort);
+	}
+
+	/**
+	 * Get the cost of our direct link to neighbor.
+	 *
+	 * @param neighbor
+	 * @return The link cost, or Double.POSITIVE_INFINITY if there is no such
+	 *         link.
+	 */
+	public double getLinkCost(String neighbor) {
+		Double linkCost = linkCosts.get(neighbor);
+		if (linkCost == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return linkCost;
+	}
+
+	/**
+	 * Called whenever destination's route changes, so that subclasses can
+	 * throw away anything they derived from it.
+	 *
+	 * @param destination
+	 */
+	protected void routeChanged(String destination) {
+	}
+
+	/**
+	 * Set the route to destination, and keep the next hop index in step with
+	 * it. An existing routing entry is updated in place. Every change to
+	 * routingTable must go through here.
+	 *
+	 * @param destination
+	 * @param nextHop
+	 * @param cost
+	 * @return True if the route changed.
+	 */
+	protected boolean putRoutingEntry(String destination, String nextHop,
+			double cost) {
+		int nextHopID = nodeIds.intern(nextHop);
+		RouteEntry routingEntry = routingTable.get(destination);
+
+		String oldNextHop = null;
+		if (routingEntry == null) {
+			routingTable.put(destination, new RouteEntry(nextHopID, cost,
+					routingTableVersion + 1));
+		} else {
+			int oldNextHopID = routingEntry.getNextHop();
+			if (!routingEntry.set(nextHopID, cost, routingTableVersion + 1)) {
+				return false;
+			}
+			if (oldNextHopID != nextHopID) {
+				oldNextHop = nodeIds.getName(oldNextHopID);
+			}
+		}
+		routingTableVersion++;
+		changedDestinations.add(destination);
+		routeChanged(destination);
+
+		if (routingEntry != null && oldNextHop == null) {
+			// Only the cost changed, so the index is still correct
+			return true;
+		}
+
+		if (oldNextHop != null) {
+			Set<String> oldDestinations = destinationsByNextHop.get(oldNextHop);
+			if (oldDestinations != null) {
+				oldDestinations.remove(destination);
+				if (oldDestinations.isEmpty()) {
+					destinationsByNextHop.remove(oldNextHop);
+				}
+			}
+		}
+
+		Set<String> destinations = destinationsByNextHop.get(nextHop);
+		if (destinations == null) {
+			destinations = new HashSet<String>();
+			destinationsByNextHop.put(nextHop, destinations);
+		}
+		destinations.add(destination);
+
+		return true;
+	}
+
+	/**
+	 * Set the loop-free backup next hop for destination, which must already
+	 * have a routing entry.
+	 *
+	 * @param destination
+	 * @param backupNextHop
+	 *            The backup, or null if destination has none.
+	 * @param backupCost
+	 *            The cost to destination through backupNextHop.
+	 * @return True if the backup changed.
+	 */
+	protected boolean putBackupNextHop(String destination,
+			String backupNextHop, double backupCost) {
+		RouteEntry routingEntry = routingTable.get(destination);
+		if (routingEntry == null) {
+			return false;
+		}
+
+		int backupID = RouteEntry.NO_BACKUP;
+		if (backupNextHop != null) {
+			backupID = nodeIds.intern(backupNextHop);
+		} else {
+			backupCost = Double.POSITIVE_INFINITY;
+		}
+		if (!routingEntry.setBackup(backupID, backupCost)) {
+			return false;
+		}
+
+		changedDestinations.add(destination);
+		return true;
+	}
+
+	/**
+	 * @param destination
+	 * @return The next hop towards destination in the routing table, or null
+	 *         if destination is not in it.
+	 */
+	public String getNextHop(String destination) {
+		RouteEntry routingEntry = routingTable.get(destination);
+		if (routingEntry == null) {
+			return null;
+		}
+
+		return nodeIds.getName(routingEntry.getNextHop());
+	}
+
+	/**
+	 * @param destination
+	 * @return The loop-free backup next hop towards destination in the
+	 *         routing table, or null if it has none.
+	 */
+	public String getBackupNextHop(String destination) {
+		RouteEntry routingEntry = routingTable.get(destination);
+		if (routingEntry == null
+				|| routingEntry.getBackupNextHop() == RouteEntry.NO_BACKUP) {
+			return null;
+		}
+
+		return nodeIds.getName(routingEntry.getBackupNextHop());
+	}
+
+	/**
+	 * Get set containing all destinations from RT with a next hop of nextHop.
+	 * The set is read from the next hop index, so this costs O(result) rather
+	 * than a scan of the routing table.
+	 */
+	public Set<String> getDestinationsByNextHop(String nextHop) {
+		Set<String> destinations = destinationsByNextHop.get(nextHop);
+
+		if (destinations == null) {
+			return new HashSet<String>();
+		}
+
+		/*
+		 * Hand back a copy, because callers routinely change routes (and
+		 * therefore the index) while iterating over the result.
+		 */
+		return new HashSet<String>(destinations);
+	}
+
+	/**
+	 * Add all nextHop clients
+	 *
+	 * @return Set<String> containing all clients that are used as a next hop
+	 */
+	public Set<String> getNextHopClients() {
+		return new HashSet<String>(destinationsByNextHop.keySet());
+	}
+
+	/**
+	 * If the routing table has changed since the last call, publish a new
+	 * immutable copy of it for readers that don't hold dvRTLock. Call this
+	 * once done changing routes.
+	 *
+	 * Only the routes that changed since the last call are copied; the new
+	 * table shares the rest with the last one published.
+	 */
+	protected void publishForwardingTable() {
+		if (routingTable == null) {
+			return;
+		}
+		if (changedDestinations.isEmpty() && !routingTableReplaced) {
+			return;
+		}
+
+		if (routingTableReplaced) {
+			forwardingTable = new ForwardingTable(routingTable, nodeIds);
+		} else {
+			forwardingTable = forwardingTable.withRoutes(routingTable,
+					changedDestinations, nodeIds);
+		}
+		changedDestinations.clear();
+		routingTableReplaced = false;
+	}
+
+	/**
+	 * Rebuild the next hop index from scratch. Only needed when the routing
+	 * table is replaced wholesale.
+	 */
+	private void rebuildNextHopIndex() {
+		destinationsByNextHop = new TreeMap<String, Set<String>>();
+		if (routingTable == null) {
+			return;
+		}
+
+		for (String destination : routingTable.keySet()) {
+			String nextHop = getNextHop(destination);
+			Set<String> destinations = destinationsByNextHop.get(nextHop);
+			if (destinations == null) {
+				destinations = new HashSet<String>();
+				destinationsByNextHop.put(nextHop, destinations);
+			}
+			destinations.add(destination);
+		}
+	}
+
+	public Map<String, RouteEntry> getRoutingTable() {
+		return routingTable;
+	}
+
+	public void setRoutingTable(Map<String, RouteEntry> routingTable) {
+		this.routingTable = routingTable;
+		rebuildNextHopIndex();
+		routingTableReplaced = true;
+		publishForwardingTable();
+	}
+
+	/**
+	 * @return The most recently published copy of the routing table. This
+	 *         never blocks on, or races with, route updates.
+	 */
+	public ForwardingTable getForwardingTable() {
+		return forwardingTable;
+	}
+
+	/**
+	 * Areas are off unless a subclass summarizes them.
+	 */
+	public int getAreaPrefixLength() {
+		return 0;
+	}
+
+	public long getRoutingTableVersion() {
+		return routingTableVersion;
+	}
+
+	public NodeIds getNodeIds() {
+		return nodeIds;
+	}
+}
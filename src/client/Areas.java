@@ -0,0 +1,57 @@
+package client;
+
+/**
+ * Areas for hierarchical routing. A node's area is given by the first
+ * prefixLength bits of its IPv4 address, and is written like a CIDR block,
+ * e.g. "10.1.0.0/16". Area names double as the destinations that border
+ * nodes advertise in place of the individual nodes in an area; they can't be
+ * mistaken for an IP:Port, because they contain a "/" and no ":".
+ */
+public final class Areas {
+	private Areas() {
+	}
+
+	/**
+	 * @param ipPort
+	 *            IP:Port of a node
+	 * @param prefixLength
+	 *            Number of leading address bits that name an area, 1 to 32
+	 * @return The name of ipPort's area, or null if ipPort doesn't have an
+	 *         IPv4 address.
+	 */
+	public static String areaOf(String ipPort, int prefixLength) {
+		String[] ipAndPort = ipPort.split(":");
+		String[] octets = ipAndPort[0].split("\\.");
+		if (octets.length != 4) {
+			return null;
+		}
+
+		int address = 0;
+		try {
+			for (String octet : octets) {
+				int value = Integer.parseInt(octet);
+				if (value < 0 || value > 255) {
+					return null;
+				}
+				address = (address << 8) | value;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+
+		int mask = prefixLength >= 32 ? -1 : ~(-1 >>> prefixLength);
+		int area = address & mask;
+
+		return ((area >>> 24) & 255) + "." + ((area >>> 16) & 255) + "."
+				+ ((area >>> 8) & 255) + "." + (area & 255) + "/"
+				+ prefixLength;
+	}
+
+	/**
+	 * @param destination
+	 * @return True if destination is an area summary rather than a node.
+	 */
+	public static boolean isSummary(String destination) {
+		return destination.indexOf('/') >= 0;
+	}
+}
@@ -0,0 +1,151 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary log of everything that drives a Client from outside: the
+ * datagrams it receives, and the commands typed at its console. A
+ * ReplayDriver can feed a log back into a Client to reproduce a run.
+ *
+ * A log is MAGIC and VERSION as ints, then one record per input:
+ *
+ * type (byte) | nanos since the log was started (long) | length (int) | data
+ *
+ * where type is PACKET or COMMAND, and a command's data is its UTF-8 text.
+ * Writing is thread safe, since packets and commands are captured on
+ * different threads. Records are buffered, so the log is only complete once
+ * it has been closed.
+ */
+public class CaptureLog implements Closeable {
+	public static final int MAGIC = 0x42484350; // "BHCP"
+	public static final int VERSION = 1;
+	public static final byte PACKET = 1;
+	public static final byte COMMAND = 2;
+
+	private final DataOutputStream out;
+	private final long startNanos = System.nanoTime();
+
+	public CaptureLog(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+	}
+
+	public synchronized void packet(byte[] data, int length)
+			throws IOException {
+		write(PACKET, data, length);
+	}
+
+	/**
+	 * Commands are rare, and are what a replay is usually built around, so
+	 * they are flushed straight away.
+	 */
+	public synchronized void command(String command) throws IOException {
+		byte[] data = command.getBytes(StandardCharsets.UTF_8);
+		write(COMMAND, data, data.length);
+		out.flush();
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	private void write(byte type, byte[] data, int length) throws IOException {
+		out.writeByte(type);
+		out.writeLong(System.nanoTime() - startNanos);
+		out.writeInt(length);
+		out.write(data, 0, length);
+	}
+
+	/**
+	 * Reads the records of a log back, in order.
+	 */
+	public static class Reader implements Closeable {
+		private final DataInputStream in;
+
+		/**
+		 * @throws IOException
+		 *             If in doesn't start with a capture log header.
+		 */
+		public Reader(InputStream in) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+			if (this.in.readInt() != MAGIC) {
+				throw new IOException("Not a BellHop capture log");
+			}
+			int version = this.in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported capture log version "
+						+ version);
+			}
+		}
+
+		/**
+		 * @return The next record, or null at the end of the log. A record
+		 *         cut short, as from a Client that was killed mid-write, is
+		 *         treated as the end of the log.
+		 */
+		public Record next() throws IOException {
+			try {
+				byte type = in.readByte();
+				long nanos = in.readLong();
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+
+				return new Record(type, nanos, data);
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	public static final class Record {
+		private final byte type;
+		private final long nanos;
+		private final byte[] data;
+
+		public Record(byte type, long nanos, byte[] data) {
+			this.type = type;
+			this.nanos = nanos;
+			this.data = data;
+		}
+
+		/**
+		 * @return PACKET or COMMAND
+		 */
+		public byte getType() {
+			return type;
+		}
+
+		/**
+		 * @return When the record was captured, in nanoseconds since the log
+		 *         was started.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return A COMMAND record's command.
+		 */
+		public String getCommand() {
+			return new String(data, StandardCharsets.UTF_8);
+		}
+	}
+}
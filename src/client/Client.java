@@ -7,20 +7,24 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.net.DatagramPacket;
+import java.io.OutputStream;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
-import java.util.TimerTask;
 import java.util.TreeMap;
-import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 
@@ -32,24 +36,41 @@ import java.util.Timer;
  *         Number> two tuple.
  */
 public class Client {
+	private static final String HELLO_HEADER = "__HELLO__%";
+
 	private String ipAddress;
 	private int readPort;
 	private String localClientID;
 	private byte[] chunk;
 	private String chunkName;
 	private int sequenceNumber;
-	private DatagramSocket socket = null;
 	private int timeout;
 	private Set<String> neighbors = new HashSet<String>();
-	private Map<String, Map<String, Double>> distanceVector = null;
 	private Object dvRTLock = new Object();
 	private boolean isTest = false;
-	private Map<String, String[]> routingTable = new TreeMap<String, String[]>();
+	private RoutingEngine routingEngine = null;
 	private Map<String, boolean[]> chunkTracker = null;
 	private Map<String, byte[]> chunksReceived = new TreeMap<String, byte[]>();
-	private Map<String, ClientDatagramSender> senders = new TreeMap<String, ClientDatagramSender>();
-	private Map<String, Timer> timeoutTimers = new TreeMap<String, Timer>();
-	private Timer updateTimer = new Timer("update");
+	private Transport transport;
+	private ScheduledExecutorService scheduler;
+	private Clock clock;
+	private Map<String, ScheduledFuture<?>> routeUpdates = new TreeMap<String, ScheduledFuture<?>>();
+	private ScheduledFuture<?> linkSweep = null;
+	private ScheduledFuture<?> helloTimer = null;
+	private ScheduledFuture<?> triggeredUpdate = null;
+	private long triggeredUpdateDelayMillis = ClientOptions
+			.getTriggeredUpdateDelayMillis();
+	private double updateJitter = ClientOptions.getUpdateJitter();
+	private Random random = null;
+	private FailureDetector failureDetector = null;
+	private long helloTimeoutMillis = 0;
+	// Link costs of neighbors taken down because they went quiet
+	private ConcurrentMap<String, Double> suspectedDown = new ConcurrentHashMap<String, Double>();
+	private byte[] hello = null;
+	private Metrics metrics = new Metrics();
+	private ConvergenceTracker convergence = new ConvergenceTracker();
+	private volatile boolean offline = false;
+	private volatile CaptureLog capture = null;
 
 	/**
 	 * Constructor for Client object that sets isTest to false.
@@ -58,7 +79,7 @@ public class Client {
 	 * @param configFile
 	 */
 	public Client(String configFile) {
-		this.constructBasicClient(configFile, false);
+		this(configFile, false);
 	}
 
 	/**
@@ -69,9 +90,96 @@ public class Client {
 	 * @param isTest
 	 */
 	public Client(String configFile, boolean isTest) {
+		this(configFile, isTest, createScheduler());
+	}
+
+	/**
+	 * Constructor for Client object that runs its timers on the given
+	 * scheduler, which may be shared with other Clients. Packets go over UDP,
+	 * with the faults named by ClientOptions.FAULTS injected, if any.
+	 * 
+	 * @param configFile
+	 * @param isTest
+	 * @param scheduler
+	 */
+	public Client(String configFile, boolean isTest,
+			ScheduledExecutorService scheduler) {
+		this(configFile, isTest, scheduler, createUdpTransport(scheduler));
+	}
+
+	/**
+	 * Constructor for Client object that sends and receives through the
+	 * given transport, e.g. an InMemoryTransport, rather than over UDP.
+	 * Nothing is received until start is called.
+	 * 
+	 * @param configFile
+	 * @param isTest
+	 * @param scheduler
+	 * @param transport
+	 */
+	public Client(String configFile, boolean isTest,
+			ScheduledExecutorService scheduler, Transport transport) {
+		this(configFile, isTest, scheduler, transport, Clock.SYSTEM);
+	}
+
+	/**
+	 * Constructor for Client object that reads the time from clock. With a
+	 * VirtualClock as both scheduler and clock, the Client's timers only
+	 * fire as the clock is advanced, e.g. in a simulation.
+	 * 
+	 * @param configFile
+	 * @param isTest
+	 * @param scheduler
+	 * @param transport
+	 * @param clock
+	 */
+	public Client(String configFile, boolean isTest,
+			ScheduledExecutorService scheduler, Transport transport,
+			Clock clock) {
+		this.scheduler = scheduler;
+		this.transport = transport;
+		this.clock = clock;
 		this.constructBasicClient(configFile, isTest);
 	}
 
+	/**
+	 * A single daemon thread that runs all of a Client's link timeouts and
+	 * periodic route updates, however many neighbors it has.
+	 */
+	private static ScheduledExecutorService createScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+				1, new ThreadFactory() {
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "bellhop-timers");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// Link timeouts are cancelled all the time; don't keep them queued
+		scheduler.setRemoveOnCancelPolicy(true);
+
+		return scheduler;
+	}
+
+	/**
+	 * @return A UdpTransport, wrapped in a FaultInjectingTransport if
+	 *         ClientOptions.FAULTS is set.
+	 */
+	private static Transport createUdpTransport(
+			ScheduledExecutorService scheduler) {
+		String faults = ClientOptions.getFaults();
+		if (faults == null) {
+			return new UdpTransport();
+		}
+
+		FaultInjectingTransport transport = new FaultInjectingTransport(
+				new UdpTransport(), scheduler, ClientOptions.getFaultSeed());
+		transport.setProfiles(faults);
+		Log.warn("Injecting faults into sent packets: {}", faults);
+
+		return transport;
+	}
+
 	/**
 	 * Read in values from a config file with the following format:
 	 * 
@@ -105,8 +213,7 @@ public class Client {
 						Double.parseDouble(ipPortWeight[1]));
 			}
 		} catch (IOException e) {
-			System.err.println("Error reading in config file");
-			e.printStackTrace();
+			Log.error("Error reading in config file", e);
 		}
 
 		this.neighbors = new HashSet<String>(neighborsWithWeights.keySet());
@@ -114,583 +221,886 @@ public class Client {
 		return neighborsWithWeights;
 	}
 
+	public static void main(String[] args) {
+		if (args.length != 1 || args[0] == null || args[0].equals("")) {
+			System.err.println("Usage: bfclient <config-file> ");
+			System.exit(1);
+		}
+
+		/*
+		 * Name of config file is the first and only arg
+		 */
+		String configFile = args[0].trim();
+
+		Client client = new Client(configFile);
+		client.getMetrics().register(client.getLocalClientID());
+
+		String captureFile = ClientOptions.getCaptureFile();
+		if (captureFile != null) {
+			try {
+				client.startCapture(new FileOutputStream(captureFile));
+				Log.info("Capturing input to {}", captureFile);
+			} catch (IOException e) {
+				Log.error("Could not start capturing to " + captureFile, e);
+			}
+		}
+
+		try {
+			client.start();
+		} catch (IOException e) {
+			Log.error("Could not listen on " + client.getLocalClientID()
+					+ ". Closing the application now.", e);
+			Log.flush();
+			System.exit(1);
+		}
+
+		Thread clientReaderThread = new Thread(new ClientReaderThread(client));
+		clientReaderThread.start();
+
+		Log.info("You are now listening on the following "
+				+ "IPAddress:Port channel: {}", client.getLocalClientID());
+	}
+
 	/**
-	 * Given a Map of <IPPort, weights> to neighbors (they are read in from the
-	 * initial config file), create the initial DV. By default, set all the
-	 * weights of your neighbors' DV entries to infinity.
-	 * 
-	 * @param neighbors
+	 * Start receiving packets through our transport. Each one is captured, if
+	 * we are capturing, and then handled by processPacket.
 	 * 
-	 * @return The newly created DV
+	 * @throws IOException
+	 *             If the transport can't listen as localClientID.
 	 */
-	public Map<String, Map<String, Double>> createDVFromNeighbors(
-			Map<String, Double> neighbors) {
-		this.distanceVector = new TreeMap<String, Map<String, Double>>();
-
-		for (String neighbor : neighbors.keySet()) {
-			ClientDatagramSender helper = new ClientDatagramSender(neighbor);
-			senders.put(neighbor, helper);
-			distanceVector.put(neighbor, new TreeMap<String, Double>());
-			distanceVector.get(neighbor).put(localClientID,
-					Double.POSITIVE_INFINITY);
-			for (String link : neighbors.keySet()) {
-				distanceVector.get(neighbor)
-						.put(link, Double.POSITIVE_INFINITY);
+	public void start() throws IOException {
+		transport.start(localClientID, new Transport.Receiver() {
+			public void receive(byte[] data, int length) throws IOException {
+				capturePacket(data, length);
+				processPacket(data, length);
 			}
+		});
+	}
+
+	/**
+	 * Record every packet we receive, and every console command, to out,
+	 * until stopCapture is called.
+	 */
+	public void startCapture(OutputStream out) throws IOException {
+		stopCapture();
+		capture = new CaptureLog(out);
+	}
+
+	/**
+	 * Finish off and close the capture log, if we are capturing.
+	 */
+	public void stopCapture() {
+		CaptureLog finished = capture;
+		capture = null;
+		if (finished == null) {
+			return;
 		}
 
-		distanceVector.put(localClientID, neighbors);
-		for (String neighbor : neighbors.keySet()) {
-			if ((distanceVector.get(localClientID).get(neighbor) != Double.POSITIVE_INFINITY)
-					&& !neighbor.equals(localClientID)) {
-				Timer timeoutTimer = new Timer(neighbor);
-				TimerTask eraseLink = new ShutdownOldLinkTask(this, neighbor);
-				timeoutTimer.schedule(eraseLink, (long) 3000 * this.timeout,
-						(long) 3000 * timeout);
-				timeoutTimers.put(neighbor, timeoutTimer);
+		try {
+			finished.close();
+		} catch (IOException e) {
+			Log.error("Error closing capture log", e);
+		}
+	}
 
-			}
+	/**
+	 * Record a received packet, if we are capturing. A capture that can't be
+	 * written to is stopped, rather than taking the Client down.
+	 */
+	public void capturePacket(byte[] data, int length) {
+		CaptureLog log = capture;
+		if (log == null) {
+			return;
+		}
 
-			TimerTask sendRouteUpdate = new SendNeighborRouteUpdateTask(this);
-			updateTimer.schedule(sendRouteUpdate, (long) 1000 * this.timeout,
-					(long) 1000 * this.timeout);
+		try {
+			log.packet(data, length);
+		} catch (IOException e) {
+			Log.error("Error writing capture log; capture stopped", e);
+			stopCapture();
+		}
+	}
 
+	/**
+	 * Record a console command, if we are capturing.
+	 */
+	public void captureCommand(String command) {
+		CaptureLog log = capture;
+		if (log == null || command == null) {
+			return;
 		}
-		distanceVector.get(localClientID).put(localClientID, 0.0);
-		ClientDatagramSender helper = new ClientDatagramSender(localClientID);
-		senders.put(localClientID, helper);
 
-		return this.distanceVector;
+		try {
+			log.command(command);
+		} catch (IOException e) {
+			Log.error("Error writing capture log; capture stopped", e);
+			stopCapture();
+		}
 	}
 
 	/**
-	 * Given another node's new Distance Vector, update our own DV and our
-	 * routing table.
+	 * While offline, nothing is sent to neighbors, and nothing is received
+	 * except through processPacket. Used when replaying a capture.
+	 */
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Handle one datagram that has arrived on our socket. This is everything
+	 * the receive loop in main does with a packet, so that packets can also
+	 * be fed in without a socket, e.g. when replaying a capture.
 	 * 
-	 * @param ipPort
-	 * @param other
+	 * @param data
+	 * @param length
+	 *            Number of bytes of data that make up the packet
+	 * @throws IOException
+	 *             If a completed chunk can't be saved.
 	 */
-	public void updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
-			String newDVSender, Map<String, Double> other) {
+	public void processPacket(byte[] data, int length) throws IOException {
+		String fullMessage = new String(data, 0, length);
 
-		synchronized (dvRTLock) {
-			addNewDVEntriesToOtherDVs(newDVSender, other);
+		String[] headerAndMessage = fullMessage.split("#");
 
-			if (newDVSender.equals(localClientID)) {
-				for (String neighbor : neighbors) {
-					distanceVector.get(neighbor).put(localClientID,
-							other.get(neighbor));
-				}
-				distanceVector.put(localClientID, other);
+		/*
+		 * Hellos arrive many times a second, and only tell us the
+		 * sender is alive, so deal with them before anything else.
+		 */
+		if (headerAndMessage[0].startsWith(HELLO_HEADER)) {
+			heardHello(headerAndMessage[0].substring(HELLO_HEADER.length()));
+			metrics.increment("received.hello");
+			return;
+		}
+
+		Log.debug("Received packet! Processing...");
+		long started = System.nanoTime();
+		String type = "unknown";
+		String from = null;
+		RoutingEvents.PacketReceived event = new RoutingEvents.PacketReceived();
+		event.begin();
+
+		String header = headerAndMessage[0];
+
+		String[] headerVals = header.split("%");
+		headerVals[0] = headerVals[0].toLowerCase();
+
+		if (headerVals[0].contains("routeupdate")) {
+			/*
+			 * If the received message if a __ROUTEUPDATE__ message,
+			 * update your Distance Vector and routing tables, and send
+			 * a route update to your neighbors.
+			 */
+			Log.debug("Received a __ROUTEUPDATE__ message");
+			type = "routeupdate";
+			String message = headerAndMessage[1];
+			String source = headerVals[2];
+			from = source;
+			heardFrom(source);
+
+			// Update routes, and only send a __ROUTEUPDATE__ message
+			// to neighbors if the routing engine asks us to
+			if (processRouteUpdate(source, message,
+					eventFrom(headerVals, 3))) {
+				scheduleTriggeredUpdate();
 			}
 
+		} else if (headerVals[0].contains("transfer")) {
+			Log.debug("Received a __TRANSFER__ message");
+			type = "transfer";
 			/*
-			 * Once we're here, we know that all of our distance vectors have
-			 * the same width. Now, we adjust our current distance vector to
-			 * account for the new distance vector's entries.
+			 * Otherwise, if message is a __TRANSFER__ message, then add
+			 * ourselves to the current path, and check if we are the
+			 * intended recipient. If we are the intended recipient,
+			 * perform chunk logic. Otherwise, forward the message on to
+			 * the intended recipient.
 			 */
-			updateLocalDVFromNewDV(newDVSender, other);
+
+			String intendedRecipient = headerVals[1];
+			String message = headerAndMessage[2];
+			int chunkSequence = Integer.parseInt(headerVals[4]);
+			from = headerVals[3];
+			heardFrom(from);
+
+			if (intendedRecipient.equals(localClientID)) {
+				Log.info("{}", message);
+				recordTransfer(RoutingEvents.TransferSegment.DELIVER,
+						intendedRecipient, null, chunkSequence, length);
+
+				/*
+				 * If we are the final recipient, the file contents are
+				 * for us. If this completes the chunk we're waiting for
+				 * (we have the other chunk sequence number), save the
+				 * concatenated chunks to an output file. Otherwise,
+				 * save current chunk if we don't have it yet, or ignore
+				 * the packet if we do.
+				 */
+				Log.info("Received __TRANSFER__ message as "
+						+ "intended recipient. Printing status "
+						+ "message.");
+				String chunkAndPath[] = message.split("=");
+				String chunk = chunkAndPath[0];
+
+				printStatusMessageFromTransfer(message);
+				String sender = updateChunkReceived(message,
+						chunkSequence - 1);
+				boolean[] chunkReceived = chunkTracker.get(sender);
+
+				if (chunkReceived[0] && chunkReceived[1]) {
+					Log.info("Both parts of the chunk from {} have "
+							+ "arrived! Saving to a file.", sender);
+					String fullChunk;
+					if (chunkSequence == 0) {
+						fullChunk = chunk;
+						fullChunk += chunksReceived.get(sender).toString();
+					} else {
+						fullChunk = chunksReceived.get(sender).toString();
+						fullChunk += chunk;
+					}
+
+					String chunkName = sender + "_chunk";
+					File chunkFile = new File(chunkName);
+					FileOutputStream fos = new FileOutputStream(chunkFile);
+					fos.write(fullChunk.getBytes());
+					fos.close();
+
+					Log.info("You have succesfully received and "
+							+ "saved chunk {}.", chunkName);
+				} else {
+					Log.info("Still waiting on the other chunk.");
+				}
+
+			} else {
+				forwardTransferMessage(intendedRecipient, message,
+						chunkSequence);
+			}
+		} else if (headerVals[0].contains("linkdown")) {
+			Log.debug("Received a __LINKDOWN__ message");
+			type = "linkdown";
+			String neighbor = headerVals[1];
+			from = neighbor;
+			String[] neighborArgs = neighbor.split(":");
+			Log.info("Linking down from {}", neighbor);
+			linkdown(neighborArgs[0], Integer.parseInt(neighborArgs[1]), true,
+					eventFrom(headerVals, 2));
+			if (getLinkCost(neighbor) == Double.POSITIVE_INFINITY) {
+				Log.info("You are now disconnected from {}", neighbor);
+			} else {
+				Log.warn("There was a problem linking down from {}",
+						neighbor);
+			}
+		} else if (headerVals[0].contains("linkup")) {
+			Log.debug("Received a __LINKUP__ message");
+			type = "linkup";
+			String neighbor = headerVals[1];
+			from = neighbor;
+			Double newWeight = Double.parseDouble(headerVals[2]);
+
+			String[] neighborArgs = neighbor.split(":");
+
+			Log.info("Trying to relink with {}", neighbor);
+			linkup(neighborArgs[0],
+					Integer.parseInt(neighborArgs[1]), newWeight, true,
+					eventFrom(headerVals, 3));
+			if (getLinkCost(neighbor) != Double.POSITIVE_INFINITY) {
+				Log.info("You have been reconnected to {}!", neighbor);
+			}
+		}
+
+		metrics.packetReceived(type, length, System.nanoTime() - started);
+		event.end();
+		if (event.shouldCommit()) {
+			event.type = type;
+			event.sender = from;
+			event.bytes = length;
+			event.commit();
 		}
 	}
 
 	/**
-	 * Update our local distance vector with another distance vector of the same
-	 * width.
+	 * Given a destination string parameter, create a header for the data that
+	 * will be sent in the Datagram.
+	 */
+	public String createTransferStringHeader(String intendedRecipient,
+			String destination, int chunkSequence) {
+		String retStr = "__TRANSFER__" + "%" + intendedRecipient + "%"
+				+ destination + "%" + localClientID + "%" + chunkSequence + "#";
+
+		return retStr;
+	}
+
+	/**
+	 * Given a destination string parameter, create a header for the data that
+	 * will be sent in the Datagram.
+	 */
+	public String createRouteUpdateStringHeader(String destination) {
+		String retStr = "__ROUTEUPDATE__" + "%" + destination + "%"
+				+ localClientID + eventField() + "#";
+
+		return retStr;
+	}
+
+	/**
+	 * @return "%" and the current topology event's id, to end a message
+	 *         header with, or "" if there hasn't been an event.
+	 */
+	private String eventField() {
+		String eventId = convergence.getCurrentEvent();
+		if (eventId == null) {
+			return "";
+		}
+
+		return "%" + eventId;
+	}
+
+	/**
+	 * @param headerVals
+	 *            A message header split on "%"
+	 * @param index
+	 *            Where the message type puts its topology event id
+	 * @return The event id, or null if the header doesn't have one.
+	 */
+	private static String eventFrom(String[] headerVals, int index) {
+		if (headerVals.length <= index || headerVals[index].equals("")) {
+			return null;
+		}
+
+		return headerVals[index];
+	}
+
+	/**
+	 * Read in values from the top line of a config file, with the following
+	 * format:
 	 * 
-	 * In this method, we assume that the width of all DVs is the same (in other
-	 * words, we assume that addNewDVEntriesToOtherDVs has been called).
+	 * localport timeout file_chunk_to_transfer file_sequence_number
 	 * 
-	 * @param newDVSender
-	 * @param newDV
+	 * @param reader
+	 *            BufferedReader reading from configFile given as argument in
+	 *            constructor.
+	 * 
+	 * @return Array of Strings representing: { Local Port, Timeout Value, Chunk
+	 *         to transfer, Sequence Number }
 	 */
-	public void updateLocalDVFromNewDV(String newDVSender,
-			Map<String, Double> newDV) {
+	public String[] getPortChunkSequence(BufferedReader reader)
+			throws IllegalArgumentException {
+		if (reader == null) {
+			throw new IllegalArgumentException();
+		}
+
+		String header = null;
+		try {
+			header = reader.readLine().trim();
+		} catch (IOException e) {
+			Log.error("error reading in config file", e);
+		}
+		if (header == null || header.equals("")) {
+			throw new IllegalArgumentException();
+		}
+
 		/*
-		 * Check to make sure that local DV have the same entries. Throw
-		 * exception if they don't.
+		 * If header is a non-empty string, split it into an array, and return
+		 * if array is properly formatted (size 4).
 		 */
-		if (!distanceVector.get(localClientID).keySet().equals(newDV.keySet())) {
-			System.err.println("You tried calling updatedLocalDVFromNewDV "
-					+ "with an invalid newDV map.");
+		String[] ret = header.split(" ");
+		if (ret.length != 4 && ret.length != 2) {
 			throw new IllegalArgumentException();
+		} else {
+			return ret;
 		}
+	}
+
+	/**
+	 * Create the senders for each neighbor, and the timers that take down a
+	 * link to a neighbor we stop hearing from and periodically send route
+	 * updates. Any timers set up for an earlier set of neighbors are
+	 * cancelled first, so calling this again replaces them.
+	 * 
+	 * @param neighbors
+	 */
+	private void setUpNeighbors(Map<String, Double> neighbors) {
+		cancelNeighborTimers();
 
 		/*
-		 * Iterate through each element of both DVs simultaneously. If any
-		 * weight is smaller in an entry for newDV (assuming that entry is not
-		 * newDVSender), check for whether new weight should be used.
+		 * A neighbor is suspected after 3 timeouts, and suspects are swept
+		 * for once per timeout. With hellos on, suspects are swept for once
+		 * per hello, and a neighbor that has been heard sending hellos is
+		 * suspected after missing helloMissCount of them in a row.
 		 */
-		Double localWeightToEntry;
-		Double localWeightToSender = distanceVector.get(localClientID).get(
-				newDVSender);
-		Double senderWeightToEntry;
-		Double weightToSenderToEntry;
-		for (String entry : distanceVector.get(localClientID).keySet()) {
-			localWeightToEntry = distanceVector.get(localClientID).get(entry);
-			senderWeightToEntry = newDV.get(entry);
-			weightToSenderToEntry = localWeightToSender + senderWeightToEntry;
-			String[] oldRoutingEntry = new String[2];
-			oldRoutingEntry = routingTable.get(entry);
-
-			if ((oldRoutingEntry[0].equals(newDVSender) || weightToSenderToEntry <= localWeightToEntry)) {
-				String[] newRoutingEntry = new String[2];
-				newRoutingEntry[0] = newDVSender;
-				newRoutingEntry[1] = weightToSenderToEntry.toString();
-				distanceVector.get(localClientID).put(entry,
-						weightToSenderToEntry);
-
-				routingTable.put(entry, newRoutingEntry);
-				findShorterPathAmongNeighbors(entry);
+		long helloIntervalMillis = ClientOptions.getHelloIntervalMillis();
+		long sweepMillis = (long) 1000 * timeout;
+		helloTimeoutMillis = 0;
+		if (helloIntervalMillis > 0) {
+			sweepMillis = helloIntervalMillis;
+			helloTimeoutMillis = helloIntervalMillis
+					* ClientOptions.getHelloMissCount();
+		}
+
+		this.failureDetector = new FailureDetector((long) 3000 * timeout,
+				ClientOptions.getPhiThreshold());
+		suspectedDown.clear();
+		long now = clock.currentTimeMillis();
+		for (String neighbor : neighbors.keySet()) {
+			if ((neighbors.get(neighbor) != Double.POSITIVE_INFINITY)
+					&& !neighbor.equals(localClientID)) {
+				failureDetector.watch(neighbor, now);
+			}
+		}
+		linkSweep = scheduler.scheduleAtFixedRate(new ShutdownOldLinkTask(
+				this), sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+		if (helloIntervalMillis > 0) {
+			helloTimer = scheduler.scheduleAtFixedRate(new SendHelloTask(this),
+					helloIntervalMillis, helloIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		}
+		/*
+		 * Give each neighbor's first update its own phase, somewhere in the
+		 * second half of the first timeout, so that Clients started together
+		 * spread their updates out from the start.
+		 */
+		long period = (long) 1000 * timeout;
+		for (String neighbor : neighbors.keySet()) {
+			if (!neighbor.equals(localClientID)) {
+				scheduleRouteUpdate(neighbor, period
+						- (long) (period / 2 * random.nextDouble()));
 			}
 		}
 	}
 
 	/**
-	 * Iterate through neighbors, and see if any are a better match for a next
-	 * hop to a destination. If so, change local DV and RT.
-	 * 
-	 * @param destination
+	 * Cancel the link sweep, the hello timer, every neighbor's periodic
+	 * route update, and any triggered update waiting to go out.
 	 */
-	public void findShorterPathAmongNeighbors(String destination) {
-		Double localWeightToDestination;
-		Double localWeightToNeighbor;
-		Double neighborWeightToDestination;
-		Double weightToNeighborToDestination;
+	private void cancelNeighborTimers() {
+		if (linkSweep != null) {
+			linkSweep.cancel(false);
+			linkSweep = null;
+		}
+		if (helloTimer != null) {
+			helloTimer.cancel(false);
+			helloTimer = null;
+		}
 
-		for (String neighbor : neighbors) {
-			if (neighbor.equals(localClientID)) {
-				continue;
+		synchronized (dvRTLock) {
+			for (ScheduledFuture<?> update : routeUpdates.values()) {
+				update.cancel(false);
 			}
-			localWeightToDestination = distanceVector.get(localClientID).get(
-					destination);
-			localWeightToNeighbor = distanceVector.get(localClientID).get(
-					neighbor);
-			neighborWeightToDestination = distanceVector.get(neighbor).get(
-					destination);
-			weightToNeighborToDestination = localWeightToNeighbor
-					+ neighborWeightToDestination;
-
-			if (weightToNeighborToDestination < localWeightToDestination) {
-				String[] newRoutingEntry = new String[2];
-				newRoutingEntry[0] = neighbor;
-				newRoutingEntry[1] = weightToNeighborToDestination.toString();
-				distanceVector.get(localClientID).put(destination,
-						weightToNeighborToDestination);
-
-				if (neighbor.equals(localClientID)
-						&& !destination.equals(localClientID)) {
-				} else {
-					routingTable.put(destination, newRoutingEntry);
-				}
-				/*
-				 * For each destination that uses neighbor as a nextHop, we need
-				 * to update the weight to that destination to include the new
-				 * weight to neighbor (because the weight to neighbor has
-				 * changed).
-				 */
-				for (String previousDestination : getDestinationsByNextHop(destination)) {
-					String[] evenNewerRoutingEntry = new String[2];
-					Double newCascadedWeight = weightToNeighborToDestination
-							+ distanceVector.get(destination).get(
-									previousDestination);
-					distanceVector.get(localClientID).put(previousDestination,
-							newCascadedWeight);
-					evenNewerRoutingEntry[0] = neighbor;
-					evenNewerRoutingEntry[1] = newCascadedWeight.toString();
-
-					if (!previousDestination.equals(localClientID)
-							&& neighbor.equals(localClientID)) {
+			routeUpdates.clear();
+			if (triggeredUpdate != null) {
+				triggeredUpdate.cancel(false);
+				triggeredUpdate = null;
+			}
+		}
+	}
 
-					} else {
-						routingTable.put(previousDestination,
-								evenNewerRoutingEntry);
-					}
-				}
+	/**
+	 * Send every neighbor a triggered __ROUTEUPDATE__ once
+	 * triggeredUpdateDelayMillis have passed, unless one is already waiting
+	 * to go out. The routes changed by every __ROUTEUPDATE__ processed in the
+	 * meantime go out together, in one update per neighbor, rather than in
+	 * one update per neighbor for each __ROUTEUPDATE__ received. Without
+	 * that, a node with many neighbors sends each of them its whole distance
+	 * vector once for every update that arrives from any of them.
+	 */
+	public void scheduleTriggeredUpdate() {
+		synchronized (dvRTLock) {
+			if (triggeredUpdate == null) {
+				triggeredUpdate = scheduler.schedule(
+						new SendTriggeredUpdateTask(this),
+						triggeredUpdateDelayMillis, TimeUnit.MILLISECONDS);
 			}
 		}
+	}
 
+	/**
+	 * Send the triggered __ROUTEUPDATE__s scheduled by
+	 * scheduleTriggeredUpdate.
+	 */
+	public void sendTriggeredUpdate() {
+		synchronized (dvRTLock) {
+			triggeredUpdate = null;
+		}
+		sendRouteUpdates();
 	}
 
 	/**
-	 * Get set containing all destinations from RT with a next hop of nextHop
+	 * Note that a packet has arrived from neighbor, so its link is alive.
+	 * 
+	 * @param neighbor
 	 */
-	public Set<String> getDestinationsByNextHop(String nextHop) {
-		Set<String> destinations = new HashSet<String>();
+	public void heardFrom(String neighbor) {
+		failureDetector.heartbeat(neighbor, clock.currentTimeMillis());
 
-		for (String destination : routingTable.keySet()) {
-			String[] routingEntry = routingTable.get(destination);
-			if (routingEntry[0].equals(nextHop)) {
-				destinations.add(destination);
-			}
+		Double linkCost = suspectedDown.remove(neighbor);
+		if (linkCost != null) {
+			Log.info("Heard from {} again, bringing its link back up",
+					neighbor);
+			String[] neighborArgs = neighbor.split(":");
+			linkup(neighborArgs[0], Integer.parseInt(neighborArgs[1]),
+					linkCost, false);
 		}
-
-		return destinations;
 	}
 
 	/**
-	 * Add all nextHop clients
+	 * Note that a __HELLO__ has arrived from neighbor. From then on, it is
+	 * suspected once it misses helloMissCount hellos in a row, rather than
+	 * after the 3 timeouts that neighbors without hellos are given.
 	 * 
-	 * @return Set<String> containing all clients that are used as a next hop
+	 * @param neighbor
 	 */
-	public Set<String> getNextHopClients() {
-		Set<String> nextHops = new HashSet<String>();
+	public void heardHello(String neighbor) {
+		heardFrom(neighbor);
+		if (helloTimeoutMillis > 0) {
+			failureDetector.setTimeoutMillis(neighbor, helloTimeoutMillis);
+		}
+	}
+
+	/**
+	 * Take down the link to every neighbor the failure detector suspects of
+	 * having failed, remembering its cost so that it can be brought back up
+	 * once the neighbor is heard from again. Neighbors taken down this way
+	 * are sent a __HELLO__ every sweep, so that a neighbor that took our link
+	 * down in the same way hears from us too.
+	 */
+	public void shutDownSuspectedLinks() {
+		for (String neighbor : failureDetector.getSuspects(clock
+				.currentTimeMillis())) {
+			double linkCost = getLinkCost(neighbor);
+			String[] neighborArgs = neighbor.split(":");
+			if (linkdown(neighborArgs[0], Integer.parseInt(neighborArgs[1]),
+					false)) {
+				suspectedDown.put(neighbor, linkCost);
+			}
+		}
 
-		for (String destination : routingTable.keySet()) {
-			String[] routingEntry = new String[2];
-			routingEntry = routingTable.get(destination);
-			nextHops.add(routingEntry[0]);
+		for (String neighbor : suspectedDown.keySet()) {
+			send(neighbor, getHello(), "hello");
 		}
+	}
 
-		return nextHops;
+	/**
+	 * (Re)start neighbor's periodic __ROUTEUPDATE__ timer, so that its next
+	 * periodic update is about a timeout from now. Each neighbor has its own
+	 * timer, and each period is shortened by a random fraction (up to
+	 * updateJitter) of the timeout, so that neighbors' updates, and Clients
+	 * started together, drift apart rather than all firing at once.
+	 * 
+	 * @param neighbor
+	 */
+	public void scheduleRouteUpdate(String neighbor) {
+		long period = (long) 1000 * timeout;
+		scheduleRouteUpdate(neighbor, period
+				- (long) (period * updateJitter * random.nextDouble()));
 	}
 
 	/**
-	 * Print out all the values of the local client's Distance Vector
+	 * Start neighbor's route update timer, to fire after delay milliseconds,
+	 * in place of any it already has.
 	 */
-	public void printLocalDistanceVector() {
-		for (String neighbor : distanceVector.keySet()) {
-			System.out.print(neighbor + "'s DV: | ");
-			for (String entry : distanceVector.get(neighbor).keySet()) {
-				System.out.print(entry + " => "
-						+ distanceVector.get(neighbor).get(entry) + " | ");
+	private void scheduleRouteUpdate(String neighbor, long delay) {
+		synchronized (dvRTLock) {
+			ScheduledFuture<?> oldUpdate = routeUpdates.put(neighbor,
+					scheduler.schedule(new SendNeighborRouteUpdateTask(this,
+							neighbor), delay, TimeUnit.MILLISECONDS));
+			if (oldUpdate != null) {
+				oldUpdate.cancel(false);
 			}
+		}
+	}
 
-			System.out.println();
+	/**
+	 * Create the RoutingEngine named by ClientOptions.ROUTING_ENGINE.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If there is no engine by that name.
+	 */
+	private RoutingEngine createRoutingEngine()
+			throws IllegalArgumentException {
+		String engine = ClientOptions.getRoutingEngine();
+		AbstractRoutingEngine created;
+		if (engine.equalsIgnoreCase(ClientOptions.DISTANCE_VECTOR)) {
+			created = new DistanceVectorEngine(localClientID);
+		} else if (engine.equalsIgnoreCase(ClientOptions.LINK_STATE)) {
+			created = new LinkStateEngine(localClientID);
+		} else {
+			Log.error("Unknown routing engine: {}", engine);
+			throw new IllegalArgumentException();
 		}
+		created.setClock(clock);
+
+		return created;
 	}
 
 	/**
-	 * Given a new distance vector, check it for entries that are new to our
-	 * local DV, and add them accordingly.
+	 * @return Our routing engine, if it is a DistanceVectorEngine.
+	 * @throws IllegalStateException
+	 *             If this Client is running some other routing engine.
 	 */
-	public void addNewDVEntriesToOtherDVs(String newDVSender,
-			Map<String, Double> newDV) {
+	private DistanceVectorEngine distanceVectorEngine()
+			throws IllegalStateException {
+		if (!(routingEngine instanceof DistanceVectorEngine)) {
+			throw new IllegalStateException("Client is not running the "
+					+ "distance vector routing engine");
+		}
 
-		// First set local distance vector to newDV so that there's no
-		// discrepancy (especially in testing)
-		distanceVector.put(newDVSender, newDV);
+		return (DistanceVectorEngine) routingEngine;
+	}
 
-		/*
-		 * Check all the entries in newDVSender's distance vector for any new
-		 * entries that our distance vectors don't have. If they don't have it,
-		 * add an entry in all the other DVs with a weight of infinity, except
-		 */
-		for (String entry : newDV.keySet()) {
-			// If we don't have this entry in our DV...
-			if (!distanceVector.get(localClientID).keySet().contains(entry)) {
-				for (String currentEntry : distanceVector.keySet()) {
-					if (currentEntry.equals(localClientID)) {
-						/*
-						 * If we are looking at our own distance vector, add
-						 * entry and set the weight to our weight to newDV +
-						 * newDV's weight to entry, and add it to the routing
-						 * table.
-						 */
-
-						// Add entry to local DV
-						Double weightToNewDVSender = distanceVector.get(
-								localClientID).get(newDVSender);
-						Double weightFromNewDVToEntry = newDV.get(entry);
-						Double weightFromUsToNewEntry = weightToNewDVSender
-								+ weightFromNewDVToEntry;
-						distanceVector.get(localClientID).put(entry,
-								weightFromUsToNewEntry);
-
-						// Add entry to routing table
-						String[] newRoutingEntry = new String[2];
-						newRoutingEntry[0] = newDVSender;
-						newRoutingEntry[1] = weightFromUsToNewEntry.toString();
-						if (localClientID.equals(newDVSender)
-								&& !currentEntry.equals(localClientID)) {
-							continue;
-						}
-						routingTable.put(entry, newRoutingEntry);
-					} else if (currentEntry.equals(newDVSender)) {
-						/*
-						 * Skip iteration if we are looking at the sender's DV.
-						 * It should not change because it is assumed that the
-						 * DV received in __ROUTEUPDATE__ is the most
-						 * up-to-date.
-						 */
-						continue;
-					} else {
-						/*
-						 * Otherwise, add an entry to the other DVs and put the
-						 * weight to infinity.
-						 */
-						distanceVector.get(currentEntry).put(entry,
-								Double.POSITIVE_INFINITY);
-					}
+	/**
+	 * Given a Map of <IPPort, weights> to neighbors (they are read in from the
+	 * initial config file), create the initial DV. By default, set all the
+	 * weights of your neighbors' DV entries to infinity.
+	 * 
+	 * @param neighbors
+	 * 
+	 * @return The newly created DV
+	 */
+	public Map<String, Map<String, Double>> createDVFromNeighbors(
+			Map<String, Double> neighbors) {
+		setUpNeighbors(neighbors);
 
-				}
+		synchronized (dvRTLock) {
+			return distanceVectorEngine().createDVFromNeighbors(neighbors);
+		}
+	}
+
+	/**
+	 * Create this Client's routing table from it's initial Distance Vector
+	 */
+	public Map<String, RouteEntry> createRoutingTableInitialDV() {
+		synchronized (dvRTLock) {
+			Map<String, RouteEntry> routingTable = distanceVectorEngine()
+					.createRoutingTableInitialDV();
+			if (routingTable == null && !isTest) {
+				Log.error("You have no neighbors, and therefore "
+						+ "cannot build a routing table. It is possible that "
+						+ "you tried to build a routing table before you had "
+						+ "loaded your neighbors from the config file. Exiting "
+						+ "program.");
 			}
+
+			return routingTable;
 		}
+	}
 
+	/**
+	 * Hand the body of a __ROUTEUPDATE__ message from sender to our routing
+	 * engine. The number of entries in the body, and how long the engine
+	 * took over it, are recorded in our metrics.
+	 * 
+	 * @param sender
+	 * @param message
+	 * @return True if our neighbors should be sent a __ROUTEUPDATE__.
+	 */
+	public boolean processRouteUpdate(String sender, String message) {
+		return processRouteUpdate(sender, message, null);
 	}
 
 	/**
-	 * Create this Client's routing table from it's initial Distance Vector
+	 * Hand the body of a __ROUTEUPDATE__ message from sender to our routing
+	 * engine, where the message was sent on account of topology event
+	 * eventId. If our routes change, the change is put down to eventId.
+	 * 
+	 * @param sender
+	 * @param message
+	 * @param eventId
+	 *            Null if the message didn't name an event.
+	 * @return True if our neighbors should be sent a __ROUTEUPDATE__.
 	 */
-	public Map<String, String[]> createRoutingTableInitialDV() {
-		if (this.distanceVector == null
-				|| this.distanceVector.keySet().size() < 1) {
-			if (!isTest) {
-				System.err
-						.println("You have no neighbors, and therefore "
-								+ "cannot build a routing table. It is possible that "
-								+ "you tried to build a routing table before you had "
-								+ "loaded your neighbors from the config file. Exiting "
-								+ "program.");
+	public boolean processRouteUpdate(String sender, String message,
+			String eventId) {
+		int entries = 1;
+		for (int i = 0; i < message.length(); i++) {
+			if (message.charAt(i) == '~') {
+				entries++;
 			}
-			return null;
 		}
+		metrics.record("received.routeupdate.entries", entries);
 
-		/*
-		 * For each neighbor in our DV, add a destination entry to the routing
-		 * table, and make that neighbor the next hop. The weight to the
-		 * neighbor is the weight given in the distance vector for our client.
-		 * Remark that at this point, we expect each neighbor's DV to have
-		 * weights of infinity, so we only use the weights from our DV. When we
-		 * later get ROUTEUPDATE commands, we'll update our routing table from
-		 * all the DVs.
-		 */
-		String[] tableEntry;
-		Double weightToEntry;
-		for (String ipPort : this.distanceVector.get(localClientID).keySet()) {
-			tableEntry = new String[2];
-			tableEntry[0] = ipPort;
-
-			if (ipPort.equals(localClientID)) {
-				weightToEntry = 0.0;
-			} else {
-				weightToEntry = distanceVector.get(localClientID).get(ipPort);
+		synchronized (dvRTLock) {
+			if (eventId != null) {
+				convergence.seen(eventId, clock.currentTimeMillis());
 			}
-			tableEntry[1] = weightToEntry.toString();
-			routingTable.put(ipPort, tableEntry);
+
+			long oldVersion = routingEngine.getRoutingTableVersion();
+			long started = System.nanoTime();
+			boolean changed = routingEngine.processRouteUpdate(sender, message);
+			metrics.record("engine.routeupdate.micros",
+					(System.nanoTime() - started) / 1000);
+			noteRouteChanges(oldVersion);
+
+			return changed;
 		}
+	}
 
-		return this.routingTable;
+	/**
+	 * Given another node's new Distance Vector, update our own DV and our
+	 * routing table.
+	 * 
+	 * @param ipPort
+	 * @param other
+	 * @return True if our own distance vector changed, in which case our
+	 *         neighbors should be sent a __ROUTEUPDATE__.
+	 */
+	public boolean updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+			String newDVSender, Map<String, Double> other) {
+		synchronized (dvRTLock) {
+			return distanceVectorEngine()
+					.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+							newDVSender, other);
+		}
 	}
 
-	public static void main(String[] args) {
-		if (args.length != 1 || args[0] == null || args[0].equals("")) {
-			System.err.println("Usage: bfclient <config-file> ");
-			System.exit(1);
+	/**
+	 * Update our local distance vector with another distance vector of the same
+	 * width. See DistanceVectorEngine.updateLocalDVFromNewDV.
+	 * 
+	 * @param newDVSender
+	 * @param newDV
+	 * @return True if our own distance vector changed.
+	 */
+	public boolean updateLocalDVFromNewDV(String newDVSender,
+			Map<String, Double> newDV) {
+		synchronized (dvRTLock) {
+			return distanceVectorEngine().updateLocalDVFromNewDV(newDVSender,
+					newDV);
 		}
+	}
 
-		/*
-		 * Name of config file is the first and only arg
-		 */
-		String configFile = args[0].trim();
+	/**
+	 * Change the cost of our direct link to neighbor, and re-evaluate our
+	 * routes.
+	 * 
+	 * @param neighbor
+	 * @param linkCost
+	 * @return True if our neighbors should be sent a __ROUTEUPDATE__.
+	 */
+	public boolean updateLinkCost(String neighbor, double linkCost) {
+		synchronized (dvRTLock) {
+			long oldVersion = routingEngine.getRoutingTableVersion();
+			boolean changed = routingEngine.updateLinkCost(neighbor, linkCost);
+			noteRouteChanges(oldVersion);
 
-		Client client = new Client(configFile);
+			return changed;
+		}
+	}
 
-		try {
-			// Open Datagram Socket, through which UDP Segments can be
-			// sent.
-			InetSocketAddress address = new InetSocketAddress(
-					client.getIpAddress(), client.getReadPort());
-			DatagramSocket socket = new DatagramSocket(address);
-			client.setSocket(socket);
-
-			Thread clientReaderThread = new Thread(new ClientReaderThread(
-					client));
-			clientReaderThread.start();
-
-			System.out.println("You are now listening on the following "
-					+ "IPAddress:Port channel: " + client.getLocalClientID());
-
-			FileOutputStream fos = null;
-			while (true) {
-				byte[] data = new byte[64000];
-				DatagramPacket packet = new DatagramPacket(data, data.length,
-						address);
-				socket.receive(packet);
-
-				String fullMessage = new String(packet.getData(), 0,
-						packet.getLength());
-
-				String[] headerAndMessage = fullMessage.split("#");
-
-				System.out.println("Received packet! Processing...");
-
-				String header = headerAndMessage[0];
-
-				String[] headerVals = header.split("%");
-				headerVals[0] = headerVals[0].toLowerCase();
-
-				if (headerVals[0].contains("routeupdate")) {
-					/*
-					 * If the received message if a __ROUTEUPDATE__ message,
-					 * update your Distance Vector and routing tables, and send
-					 * a route update to your neighbors.
-					 */
-					System.out.println("Received a __ROUTEUPDATE__ message");
-					String message = headerAndMessage[1];
-					String source = headerVals[2];
-
-					Map<String, Double> otherDV = client
-							.getDVFromRouteUpdateMessage(message);
-
-					// Update DV and routing tables
-					client.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
-							source, otherDV);
-
-					// Send __ROUTEUPDATE__ message to neighbors
-					client.sendRouteUpdates();
-
-				} else if (headerVals[0].contains("transfer")) {
-					System.out.println("Received a __TRANSFER__ message");
-					/*
-					 * Otherwise, if message is a __TRANSFER__ message, then add
-					 * ourselves to the current path, and check if we are the
-					 * intended recipient. If we are the intended recipient,
-					 * perform chunk logic. Otherwise, forward the message on to
-					 * the intended recipient.
-					 */
-
-					String intendedRecipient = headerVals[1];
-					String message = headerAndMessage[2];
-					int chunkSequence = Integer.parseInt(headerVals[4]);
-
-					if (intendedRecipient.equals(client.getLocalClientID())) {
-						System.out.println(message);
-
-						/*
-						 * If we are the final recipient, the file contents are
-						 * for us. If this completes the chunk we're waiting for
-						 * (we have the other chunk sequence number), save the
-						 * concatenated chunks to an output file. Otherwise,
-						 * save current chunk if we don't have it yet, or ignore
-						 * the packet if we do.
-						 */
-						System.out.println("Received __TRANSFER__ message as "
-								+ "intended recipient. Printing status "
-								+ "message.");
-						String chunkAndPath[] = message.split("=");
-						String chunk = chunkAndPath[0];
-
-						client.printStatusMessageFromTransfer(message);
-						String sender = client.updateChunkReceived(message,
-								chunkSequence - 1);
-						boolean[] chunkReceived = client.getChunkTracker().get(
-								sender);
-
-						if (chunkReceived[0] && chunkReceived[1]) {
-							System.out.println("Both parts of the chunk from "
-									+ sender + "have arrived!"
-									+ " Saving to a file.");
-							String fullChunk;
-							if (chunkSequence == 0) {
-								fullChunk = chunk;
-								fullChunk += client.getChunksReceived()
-										.get(sender).toString();
-							} else {
-								fullChunk = client.getChunksReceived()
-										.get(sender).toString();
-								fullChunk += chunk;
-							}
-
-							String chunkName = sender + "_chunk";
-							File chunkFile = new File(chunkName);
-							fos = new FileOutputStream(chunkFile);
-							fos.write(fullChunk.getBytes());
-							fos.close();
-
-							System.out.println("You have succesfully received "
-									+ "and saved chunk " + chunkName + ".");
-						} else {
-							System.out.println("Still waiting on the "
-									+ "other chunk.");
-						}
+	/**
+	 * If the routing table has changed since it was at oldVersion, put the
+	 * change down to the current topology event. Call with dvRTLock held.
+	 */
+	private void noteRouteChanges(long oldVersion) {
+		if (routingEngine.getRoutingTableVersion() != oldVersion) {
+			convergence.routesChanged(clock.currentTimeMillis());
+		}
+	}
 
-					} else {
-						client.forwardTransferMessage(intendedRecipient,
-								message, chunkSequence);
-					}
-				} else if (headerVals[0].contains("linkdown")) {
-					System.out.println("Received a __LINKDOWN__ message");
-					String neighbor = headerVals[1];
-					String[] neighborArgs = neighbor.split(":");
-					System.out.println("Linking down from " + neighbor);
-					client.linkdown(neighborArgs[0],
-							Integer.parseInt(neighborArgs[1]), true);
-					if (client.getDistanceVector()
-							.get(client.getLocalClientID()).get(neighbor) == Double.POSITIVE_INFINITY) {
-						System.out.println("You are now disconnected from "
-								+ neighbor);
-					} else {
-						System.out
-								.println("There was a problem linking down from "
-										+ neighbor);
-					}
-				} else if (headerVals[0].contains("linkup")) {
-					System.out.println("Received a __LINKUP__ message");
-					String neighbor = headerVals[1];
-					Double newWeight = Double.parseDouble(headerVals[2]);
-
-					String[] neighborArgs = neighbor.split(":");
-
-					System.out.println("Trying to relink with " + neighbor);
-					client.linkup(neighborArgs[0],
-							Integer.parseInt(neighborArgs[1]), newWeight, true);
-					if (client.getDistanceVector()
-							.get(client.getLocalClientID()).get(neighbor) != Double.POSITIVE_INFINITY) {
-						System.out.println("You have been reconnected to "
-								+ neighbor + "!");
-					}
-				}
-			}
+	/**
+	 * Start a topology event here, or join the one named by eventId if the
+	 * change was started by a neighbor.
+	 * 
+	 * @param eventId
+	 *            Null to start a new event.
+	 */
+	private void topologyChanged(String eventId) {
+		long now = clock.currentTimeMillis();
+		if (eventId == null) {
+			convergence.newEvent(localClientID, now);
+		} else {
+			convergence.seen(eventId, now);
+		}
+	}
 
-		} catch (IOException e) {
-			System.err.println("There was an error performing IO, either "
-					+ "while listening on port " + client.getReadPort()
-					+ ", or sending " + "a datagram. Closing the application"
-					+ " now.");
-			e.printStackTrace();
-			System.exit(1);
+	/**
+	 * Get the cost of our direct link to neighbor.
+	 * 
+	 * @param neighbor
+	 * @return The link cost, or Double.POSITIVE_INFINITY if there is no such
+	 *         link.
+	 */
+	public double getLinkCost(String neighbor) {
+		synchronized (dvRTLock) {
+			return routingEngine.getLinkCost(neighbor);
 		}
 	}
 
 	/**
-	 * Given a destination string parameter, create a header for the data that
-	 * will be sent in the Datagram.
+	 * Iterate through neighbors, and see if any are a better match for a next
+	 * hop to a destination. If so, change local DV and RT.
+	 * 
+	 * @param destination
+	 * @return True if our neighbors should be sent a __ROUTEUPDATE__.
 	 */
-	public String createTransferStringHeader(String intendedRecipient,
-			String destination, int chunkSequence) {
-		String retStr = "__TRANSFER__" + "%" + intendedRecipient + "%"
-				+ destination + "%" + localClientID + "%" + chunkSequence + "#";
+	public boolean findShorterPathAmongNeighbors(String destination) {
+		synchronized (dvRTLock) {
+			return distanceVectorEngine().findShorterPathAmongNeighbors(
+					destination);
+		}
+	}
 
-		return retStr;
+	/**
+	 * Get set containing all destinations from RT with a next hop of nextHop.
+	 */
+	public Set<String> getDestinationsByNextHop(String nextHop) {
+		synchronized (dvRTLock) {
+			return routingEngine.getDestinationsByNextHop(nextHop);
+		}
 	}
 
 	/**
-	 * Given a destination string parameter, create a header for the data that
-	 * will be sent in the Datagram.
+	 * Add all nextHop clients
+	 * 
+	 * @return Set<String> containing all clients that are used as a next hop
 	 */
-	public String createRouteUpdateStringHeader(String destination) {
-		String retStr = "__ROUTEUPDATE__" + "%" + destination + "%"
-				+ localClientID + "#";
+	public Set<String> getNextHopClients() {
+		synchronized (dvRTLock) {
+			return routingEngine.getNextHopClients();
+		}
+	}
 
-		return retStr;
+	/**
+	 * @param destination
+	 * @return The next hop towards destination in the routing table, or null
+	 *         if destination is not in it.
+	 */
+	public String getNextHop(String destination) {
+		synchronized (dvRTLock) {
+			return routingEngine.getNextHop(destination);
+		}
 	}
 
 	/**
-	 * Take the local distance vector, and transform it into a string to be
-	 * passed into a __ROUTEUPDATE__ message. Entries are separated by the "~"
-	 * character, and an entry is separated from its weight by the "="
-	 * character.
-	 * 
-	 * @return String version of Distance Vector
+	 * Print out all the values of the local client's Distance Vector (or, for
+	 * the link state engine, its link state database).
 	 */
-	public String createDVStringForRouteUpdate(Map<String, Double> dv) {
-		String retStr = "";
+	public void printLocalDistanceVector() {
+		synchronized (dvRTLock) {
+			System.out.print(routingEngine.describe());
+		}
+	}
 
-		for (String entry : dv.keySet()) {
-			retStr += entry + "=" + dv.get(entry) + "~";
+	/**
+	 * Given a new distance vector, check it for entries that are new to our
+	 * local DV, and add them accordingly.
+	 */
+	public void addNewDVEntriesToOtherDVs(String newDVSender,
+			Map<String, Double> newDV) {
+		synchronized (dvRTLock) {
+			distanceVectorEngine().addNewDVEntriesToOtherDVs(newDVSender,
+					newDV);
 		}
+	}
 
-		return retStr;
+	/**
+	 * Take a distance vector, and transform it into a string to be passed into
+	 * a __ROUTEUPDATE__ message.
+	 * 
+	 * @return String version of Distance Vector
+	 */
+	public String createDVStringForRouteUpdate(Map<String, Double> dv) {
+		return distanceVectorEngine().createDVStringForRouteUpdate(dv);
 	}
 
 	/**
@@ -701,60 +1111,95 @@ public class Client {
 	 * @return
 	 */
 	public Map<String, Double> getDVFromRouteUpdateMessage(String message) {
-		Map<String, Double> newDV = new TreeMap<String, Double>();
+		return distanceVectorEngine().getDVFromRouteUpdateMessage(message);
+	}
+
+	/**
+	 * Given a String destination, return our local client's distance vector
+	 * with Poison Reverse. The returned map is read only, and is only valid
+	 * until routes next change.
+	 * 
+	 * @param neighbor
+	 */
+	public Map<String, Double> poisonReversedDistanceVector(String neighbor) {
+		synchronized (dvRTLock) {
+			return distanceVectorEngine().poisonReversedDistanceVector(
+					neighbor);
+		}
+	}
 
-		String[] entries = message.split("~");
-		for (String pairs : entries) {
-			System.out.println(pairs);
-			String[] pair = pairs.split("=");
-			String entry = pair[0];
-			Double weight = Double.parseDouble(pair[1]);
+	/**
+	 * Get the body of a __ROUTEUPDATE__ message for neighbor from our routing
+	 * engine.
+	 * 
+	 * @param neighbor
+	 */
+	public String createRouteUpdateBody(String neighbor) {
+		synchronized (dvRTLock) {
+			return routingEngine.createRouteUpdateBody(neighbor);
+		}
+	}
 
-			newDV.put(entry, weight);
+	/**
+	 * Given a nextHop client, check which destinations it is the nextHop for
+	 * 
+	 * @param nextHop
+	 * @return
+	 */
+	public Set<String> destinationsForNextHop(String nextHop) {
+		return getDestinationsByNextHop(nextHop);
+	}
+
+	/**
+	 * Given an IP:Port, check whether the corresponding weight in our distance
+	 * vector (if the link exists), is equal to the weight parameter.
+	 * 
+	 * @param ipPort
+	 * 
+	 * @param weight
+	 * 
+	 * @return True if link exists and associated weight is equal to weight,
+	 *         false otherwise.
+	 */
+	public boolean distanceVectorHasWeight(String ipPort, double weight) {
+		synchronized (dvRTLock) {
+			return distanceVectorEngine().distanceVectorHasWeight(ipPort,
+					weight);
+		}
+	}
+
+	/**
+	 * Check whether clientDV's distance vector's entryInDV entry is equal to a
+	 * given weight.
+	 * 
+	 * @param clientDV
+	 * 
+	 * @param entryInDV
+	 * 
+	 * @param weight
+	 * 
+	 * @return True if entry exists and is equal to the given weight, false
+	 *         otherwise.
+	 */
+	public boolean distanceVectorHasWeight(String clientDV, String entryInDV,
+			double weight) {
+		synchronized (dvRTLock) {
+			return distanceVectorEngine().distanceVectorHasWeight(clientDV,
+					entryInDV, weight);
 		}
-
-		return newDV;
 	}
 
 	/**
-	 * Read in values from the top line of a config file, with the following
-	 * format:
+	 * Given an IP:Port, check whether this Client has a corresponding link.
 	 * 
-	 * localport timeout file_chunk_to_transfer file_sequence_number
-	 * 
-	 * @param reader
-	 *            BufferedReader reading from configFile given as argument in
-	 *            constructor.
+	 * @param ipPort
 	 * 
-	 * @return Array of Strings representing: { Local Port, Timeout Value, Chunk
-	 *         to transfer, Sequence Number }
+	 * @return True if Client has a link corresponding to ipPort, false
+	 *         otherwise.
 	 */
-	public String[] getPortChunkSequence(BufferedReader reader)
-			throws IllegalArgumentException {
-		if (reader == null) {
-			throw new IllegalArgumentException();
-		}
-
-		String header = null;
-		try {
-			header = reader.readLine().trim();
-		} catch (IOException e) {
-			System.err.println("error reading in config file");
-			e.printStackTrace();
-		}
-		if (header == null || header.equals("")) {
-			throw new IllegalArgumentException();
-		}
-
-		/*
-		 * If header is a non-empty string, split it into an array, and return
-		 * if array is properly formatted (size 4).
-		 */
-		String[] ret = header.split(" ");
-		if (ret.length != 4 && ret.length != 2) {
-			throw new IllegalArgumentException();
-		} else {
-			return ret;
+	public boolean hasLink(String ipPort) {
+		synchronized (dvRTLock) {
+			return routingEngine.hasLink(ipPort);
 		}
 	}
 
@@ -770,6 +1215,16 @@ public class Client {
 	 */
 	public boolean linkdown(String linkIP, int linkPort, boolean recipient)
 			throws IllegalArgumentException {
+		return linkdown(linkIP, linkPort, recipient, null);
+	}
+
+	/**
+	 * Take down the link to linkIP:linkPort as part of topology event
+	 * eventId, as named on a __LINKDOWN__ message from the other end, or as
+	 * a new event if eventId is null.
+	 */
+	public boolean linkdown(String linkIP, int linkPort, boolean recipient,
+			String eventId) throws IllegalArgumentException {
 		synchronized (dvRTLock) {
 			if (linkIP == null || linkIP.equals("") || linkPort <= 0) {
 				throw new IllegalArgumentException();
@@ -777,24 +1232,32 @@ public class Client {
 
 			String ipPort = linkIP + ":" + linkPort;
 
-			if (timeoutTimers.keySet().contains(ipPort)) {
-				timeoutTimers.get(ipPort).cancel();
-				timeoutTimers.remove(ipPort);
+			failureDetector.unwatch(ipPort);
+			// Taken down on purpose here, so don't bring it back up
+			if (!recipient) {
+				suspectedDown.remove(ipPort);
 			}
 
-			if (!this.distanceVector.containsKey(ipPort)) {
+			if (!routingEngine.hasLink(ipPort)) {
 				return false;
 			}
 
-			distanceVector.get(localClientID).put(ipPort,
-					Double.POSITIVE_INFINITY);
+			topologyChanged(eventId);
 
 			if (!recipient) {
 				sendLinkDownMessage(ipPort);
 			}
 
-			updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
-					localClientID, distanceVector.get(localClientID));
+			/*
+			 * Routes through ipPort move straight over to their backups, if
+			 * they have one, since a backup is a feasible successor and is
+			 * never held down. Advertise the routes we lost straight away,
+			 * rather than waiting for the next periodic update, so that
+			 * neighbors stop using them.
+			 */
+			if (updateLinkCost(ipPort, Double.POSITIVE_INFINITY)) {
+				sendRouteUpdates();
+			}
 
 			return true;
 		}
@@ -814,6 +1277,16 @@ public class Client {
 	 */
 	public boolean linkup(String linkIP, int linkPort, double weight,
 			boolean recipient) throws IllegalArgumentException {
+		return linkup(linkIP, linkPort, weight, recipient, null);
+	}
+
+	/**
+	 * Bring the link to linkIP:linkPort back up as part of topology event
+	 * eventId, as named on a __LINKUP__ message from the other end, or as a
+	 * new event if eventId is null.
+	 */
+	public boolean linkup(String linkIP, int linkPort, double weight,
+			boolean recipient, String eventId) throws IllegalArgumentException {
 		synchronized (dvRTLock) {
 			if (linkIP == null || linkIP.equals("") || linkPort <= 0
 					|| weight < 0) {
@@ -822,23 +1295,25 @@ public class Client {
 
 			String ipPort = linkIP + ":" + linkPort;
 
-			if (!this.distanceVector.get(localClientID).containsKey(ipPort)
-					|| this.distanceVector.get(localClientID).get(ipPort) != Double.POSITIVE_INFINITY) {
+			if (ipPort.equals(localClientID) || !routingEngine.hasLink(ipPort)
+					|| getLinkCost(ipPort) != Double.POSITIVE_INFINITY) {
 				return false;
 			} else {
+				topologyChanged(eventId);
 				if (!recipient) {
 					sendLinkUp(ipPort, weight);
 				}
-				Timer timeoutTimer = new Timer(ipPort);
-				TimerTask eraseLink = new ShutdownOldLinkTask(this, ipPort);
-				timeoutTimer.schedule(eraseLink, (long) 3000 * this.timeout,
-						(long) 3000 * timeout);
-				timeoutTimers.put(ipPort, timeoutTimer);
+				failureDetector.watch(ipPort, clock.currentTimeMillis());
+				suspectedDown.remove(ipPort);
 
 				neighbors.add(ipPort);
-				this.distanceVector.get(localClientID).put(ipPort, weight);
-				updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
-						localClientID, distanceVector.get(localClientID));
+				/*
+				 * As with linkdown, advertise the routes the link brings back
+				 * straight away.
+				 */
+				if (updateLinkCost(ipPort, weight)) {
+					sendRouteUpdates();
+				}
 				return true;
 			}
 		}
@@ -850,7 +1325,7 @@ public class Client {
 	 * <Cost>, Link = <Next hop>
 	 */
 	public boolean showRt() {
-		if (routingTable == null || routingTable.keySet().size() == 0) {
+		if (getForwardingTable().size() == 0) {
 			return false;
 		}
 
@@ -861,6 +1336,29 @@ public class Client {
 		return true;
 	}
 
+	/**
+	 * Print how long this Client took to converge after each recent topology
+	 * event.
+	 */
+	public boolean showConvergence() {
+		if (!isTest) {
+			System.out.print(convergence.describe());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Print this Client's counters and histograms.
+	 */
+	public boolean showStats() {
+		if (!isTest) {
+			System.out.print(metrics.describe());
+		}
+
+		return true;
+	}
+
 	/**
 	 * Create String that shows routing table. Used to test showRt boolean
 	 * method.
@@ -873,18 +1371,22 @@ public class Client {
 
 		retStr.append("<Current time: ");
 		if (!isTest) {
-			retStr.append(dateTime.format(Calendar.getInstance().getTime()));
+			retStr.append(dateTime.format(new Date(clock.currentTimeMillis())));
 		} else {
 			retStr.append("00:16:33");
 		}
 		retStr.append(">Distance vector list is:");
-		String[] routingEntry = new String[2];
 
-		for (String destination : routingTable.keySet()) {
-			routingEntry = routingTable.get(destination);
+		/*
+		 * Read a single snapshot, so that the table printed is consistent even
+		 * if routes change while we're printing.
+		 */
+		ForwardingTable table = getForwardingTable();
+		for (String destination : table.getDestinations()) {
 			retStr.append("\nDestination = " + destination + ", ");
-			retStr.append("Cost = " + routingEntry[1] + ", ");
-			retStr.append("Link = (" + routingEntry[0] + ")");
+			retStr.append("Cost = " + Double.toString(table.getCost(destination))
+					+ ", ");
+			retStr.append("Link = (" + table.getNextHop(destination) + ")");
 		}
 
 		return retStr.toString();
@@ -923,14 +1425,15 @@ public class Client {
 			statusMessage += "Destination " + i + ": " + paths[i] + "\n";
 		}
 
-		statusMessage += "Time received: " + new Date() + "\n";
+		statusMessage += "Time received: "
+				+ new Date(clock.currentTimeMillis()) + "\n";
 		statusMessage += "Size of chunk received: " + chunkAndPath[0].length();
 
 		return statusMessage;
 	}
 
 	public void printStatusMessageFromTransfer(String message) {
-		System.out.println(getStatusMessageFromTransfer(message));
+		Log.info("{}", getStatusMessageFromTransfer(message));
 	}
 
 	/**
@@ -944,22 +1447,16 @@ public class Client {
 	 */
 	public void transfer(String destinationIP, int portNum) {
 		String destination = destinationIP + ":" + portNum;
-		if (!routingTable.keySet().contains(destination)) {
-			System.err.println("You tried to send a chunk to a destination "
-					+ "that does not exist: " + destination);
-		}
-
-		if (!routingTable.keySet().contains(destination)) {
-			System.err.println(destination + " is not a destination in "
-					+ "your routing table. Try another command.");
+		String nextHop = getForwardingTable().getNextHop(destination,
+				routingEngine.getAreaPrefixLength());
+		if (nextHop == null) {
+			Log.warn("You tried to send a chunk to a destination "
+					+ "that does not exist: {}", destination);
+			Log.warn("{} is not a destination in your routing table. Try "
+					+ "another command.", destination);
 			return;
 		}
 
-		String[] routingEntry = new String[2];
-		routingEntry = routingTable.get(destination);
-
-		String nextHop = routingEntry[0];
-
 		String message = createTransferStringHeader(destination, nextHop,
 				sequenceNumber);
 
@@ -978,10 +1475,14 @@ public class Client {
 	 */
 	private void forwardTransferMessage(String intendedRecipient,
 			String message, int chunkSequence) {
-		String nextHop;
-		String[] routingEntry = new String[2];
-		routingEntry = routingTable.get(intendedRecipient);
-		nextHop = routingEntry[0];
+		String nextHop = getForwardingTable().getNextHop(
+				intendedRecipient, routingEngine.getAreaPrefixLength());
+		if (nextHop == null) {
+			Log.warn("Dropping __TRANSFER__ message for {}, which is not a "
+					+ "destination in our routing table.", intendedRecipient);
+			metrics.increment("dropped.transfer");
+			return;
+		}
 
 		sendTransferMessage(intendedRecipient, nextHop, localClientID, message,
 				chunkSequence);
@@ -994,11 +1495,12 @@ public class Client {
 				nextHop, sequenceNumber);
 		sendMessage += message;
 		sendMessage += "@" + localClientID;
-		System.out.println("Forwarding __TRANSFER__ message, destined for "
-				+ intendedRecipient + ", by way of " + nextHop + " at "
-				+ new Date() + ".");
-		ClientDatagramSender helper = senders.get(nextHop);
-		helper.sendPacketToNeighbor(sendMessage.getBytes());
+		Log.debug("Forwarding __TRANSFER__ message, destined for {}, by way "
+				+ "of {}.", intendedRecipient, nextHop);
+		byte[] data = sendMessage.getBytes();
+		send(nextHop, data, "transfer");
+		recordTransfer(RoutingEvents.TransferSegment.SEND, intendedRecipient,
+				nextHop, sequenceNumber, data.length);
 	}
 
 	private void sendTransferMessage(String intendedRecipient, String nextHop,
@@ -1008,50 +1510,119 @@ public class Client {
 				nextHop, chunkSequence);
 		sendMessage += message;
 		sendMessage += "@" + localClientID;
-		System.out.println("Forwarding __TRANSFER__ message, destined for "
-				+ intendedRecipient + ", by way of " + nextHop + " at "
-				+ new Date() + ".");
-		ClientDatagramSender helper = senders.get(nextHop);
-		helper.sendPacketToNeighbor(sendMessage.getBytes());
+		Log.debug("Forwarding __TRANSFER__ message, destined for {}, by way "
+				+ "of {}.", intendedRecipient, nextHop);
+		byte[] data = sendMessage.getBytes();
+		send(nextHop, data, "transfer");
+		recordTransfer(RoutingEvents.TransferSegment.FORWARD,
+				intendedRecipient, nextHop, chunkSequence, data.length);
+	}
+
+	/**
+	 * Record a TransferSegment flight recorder event, if one is being
+	 * recorded.
+	 * 
+	 * @param action
+	 *            One of TransferSegment's SEND, FORWARD or DELIVER
+	 * @param nextHop
+	 *            Null when the segment is being delivered to us.
+	 */
+	private void recordTransfer(String action, String destination,
+			String nextHop, int sequenceNumber, int bytes) {
+		RoutingEvents.TransferSegment event = new RoutingEvents.TransferSegment();
+		if (event.shouldCommit()) {
+			event.action = action;
+			event.destination = destination;
+			event.nextHop = nextHop;
+			event.sequenceNumber = sequenceNumber;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Every packet we send goes out through here, and is counted in our
+	 * metrics by type. Nothing is sent (or counted) while we are offline.
+	 */
+	private void send(String neighbor, byte[] data, String type) {
+		if (offline) {
+			return;
+		}
+
+		transport.send(neighbor, data);
+		metrics.packetSent(type, data.length);
 	}
 
 	/**
 	 * Send a __ROUTEUPDATE__ message to each neighbor, with Poison Reverse
-	 * being used in the Distance Vectors that are sent.
+	 * being used in the Distance Vectors that are sent. The fan out is
+	 * recorded as a RouteUpdateFanOut flight recorder event.
 	 */
 	public void sendRouteUpdates() {
-		System.out.println("Sending __ROUTEUPDATE__ messages.");
+		Log.debug("Sending __ROUTEUPDATE__ messages.");
+		RoutingEvents.RouteUpdateFanOut event = new RoutingEvents.RouteUpdateFanOut();
+		event.begin();
 
+		int sent = 0;
 		for (String neighbor : neighbors) {
-			if (distanceVector.get(localClientID).get(neighbor) == Double.POSITIVE_INFINITY) {
-				continue;
-			} else {
-				/*
-				 * For each neighbor whose link is up, get a deeply copied,
-				 * Poison-Reverse'd distance vector, create a new
-				 * __ROUTEUPDATE__ message, and reset all updateTimers
-				 */
-				updateTimer.cancel();
-				updateTimer = new Timer();
-				TimerTask sendRouteUpdate = new SendNeighborRouteUpdateTask(
-						this);
-				updateTimer.schedule(sendRouteUpdate, (long) 1000
-						* this.timeout, (long) 1000 * this.timeout);
+			if (sendRouteUpdate(neighbor)) {
+				sent++;
+			}
+		}
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.neighbors = neighbors.size();
+			event.sent = sent;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Send a __ROUTEUPDATE__ message to neighbor, if its link is up, with our
+	 * (cached) Poison-Reverse'd distance vector. Neighbor's next periodic
+	 * update is then put off, since it has just had one.
+	 * 
+	 * @param neighbor
+	 * @return True if an update was sent.
+	 */
+	public boolean sendRouteUpdate(String neighbor) {
+		if (getLinkCost(neighbor) == Double.POSITIVE_INFINITY) {
+			return false;
+		}
 
-				Map<String, Double> tempDV = poisonReversedDistanceVector(neighbor);
+		String header = createRouteUpdateStringHeader(neighbor);
+		String stringDV = createRouteUpdateBody(neighbor);
 
-				String header = createRouteUpdateStringHeader(neighbor);
-				String stringDV = createDVStringForRouteUpdate(tempDV);
+		String message = header + stringDV;
+		byte[] data = message.getBytes();
+		send(neighbor, data, "routeupdate");
 
-				String message = header + stringDV;
-				ClientDatagramSender sender = senders.get(neighbor);
-				sender.sendPacketToNeighbor(message.getBytes());
+		Log.debug("Sending __ROUTEUPDATE__ message to {}.", neighbor);
 
-				System.out.println("Sending __ROUTEUPDATE__ message to "
-						+ neighbor + " at " + new Date() + ".");
+		scheduleRouteUpdate(neighbor);
+
+		return true;
+	}
+
+	/**
+	 * Send a __HELLO__ message to each neighbor whose link is up. A hello is
+	 * just a header naming us, so it is built once and isn't logged.
+	 */
+	public void sendHellos() {
+		for (String neighbor : neighbors) {
+			if (getLinkCost(neighbor) != Double.POSITIVE_INFINITY) {
+				send(neighbor, getHello(), "hello");
 			}
 		}
+	}
+
+	private byte[] getHello() {
+		if (hello == null) {
+			hello = (HELLO_HEADER + localClientID + "#").getBytes();
+		}
 
+		return hello;
 	}
 
 	/**
@@ -1061,12 +1632,12 @@ public class Client {
 	 * @param recipient
 	 */
 	public void sendLinkDownMessage(String recipient) {
-		System.out.println("Sending __LINKDOWN__ message to " + recipient);
+		Log.info("Sending __LINKDOWN__ message to {}", recipient);
 
-		String linkDownMessage = "__LINKDOWN__" + "%" + localClientID + "#";
+		String linkDownMessage = "__LINKDOWN__" + "%" + localClientID
+				+ eventField() + "#";
 
-		ClientDatagramSender sender = senders.get(recipient);
-		sender.sendPacketToNeighbor(linkDownMessage.getBytes());
+		send(recipient, linkDownMessage.getBytes(), "linkdown");
 	}
 
 	/**
@@ -1077,69 +1648,12 @@ public class Client {
 	 * @param weight
 	 */
 	public void sendLinkUp(String recipient, double weight) {
-		System.out.println("Sending __LINKUP__ message to " + recipient);
+		Log.info("Sending __LINKUP__ message to {}", recipient);
 
 		String linkUpMessage = "__LINKUP__" + "%" + localClientID + "%"
-				+ weight + "#";
-
-		ClientDatagramSender sender = senders.get(recipient);
-		sender.sendPacketToNeighbor(linkUpMessage.getBytes());
-	}
-
-	/**
-	 * Given a String destination, return our local client's distance vector
-	 * with Poison Reverse.
-	 * 
-	 * @param neighbor
-	 */
-	public Map<String, Double> poisonReversedDistanceVector(String neighbor) {
-		Map<String, Double> poisonReverseDV = new TreeMap<String, Double>(
-				distanceVector.get(localClientID));
-
-		Set<String> destinations = destinationsForNextHop(neighbor);
-
-		/*
-		 * Iterate through each entry in the distance vector, and if any of the
-		 * entries are in destinations (if neighbor is a next hop for any of
-		 * them), set their weight to infinity.
-		 */
-		for (String entry : poisonReverseDV.keySet()) {
-			if (destinations.contains(entry)) {
-				poisonReverseDV.put(entry, Double.POSITIVE_INFINITY);
-			}
-		}
-
-		return poisonReverseDV;
-	}
-
-	/**
-	 * Given a nextHop client, check which destinations it is the nextHop for
-	 * 
-	 * @param nextHop
-	 * @return
-	 */
-	public Set<String> destinationsForNextHop(String nextHop) {
-		Set<String> destinations = new HashSet<String>();
-
-		String[] routingEntry = new String[2];
-
-		/*
-		 * Go through each destination in the routing table, so that we can look
-		 * at its nextHop and see if it matches the String given as an argument.
-		 */
-		for (String destination : routingTable.keySet()) {
-			routingEntry = routingTable.get(destination);
-
-			/*
-			 * If nextHop (given as argument) is the nextHop client for this
-			 * route, add the destination to the set.
-			 */
-			if (routingEntry[0].equals(nextHop)) {
-				destinations.add(destination);
-			}
-		}
+				+ weight + eventField() + "#";
 
-		return destinations;
+		send(recipient, linkUpMessage.getBytes(), "linkup");
 	}
 
 	/**
@@ -1161,9 +1675,8 @@ public class Client {
 			this.configureClient(reader);
 
 		} catch (FileNotFoundException e) {
-			System.err.println("Config file not found. Could not "
-					+ "instantiate Client object");
-			e.printStackTrace();
+			Log.error("Config file not found. Could not "
+					+ "instantiate Client object", e);
 		}
 
 		this.isTest = isTest;
@@ -1186,13 +1699,20 @@ public class Client {
 		this.chunk = getBytesFromChunkName();
 		this.chunkTracker = new TreeMap<String, boolean[]>();
 		this.localClientID = this.ipAddress + ":" + this.readPort;
-		this.distanceVector = createDVFromNeighbors(getNeighborsFromConfig(reader));
-		this.routingTable = createRoutingTableInitialDV();
+		this.random = new Random(ClientOptions.getUpdateSeed() * 31
+				+ localClientID.hashCode());
+		this.routingEngine = createRoutingEngine();
+
+		Map<String, Double> neighborsWithWeights = getNeighborsFromConfig(reader);
+		setUpNeighbors(neighborsWithWeights);
+		synchronized (dvRTLock) {
+			routingEngine.initialize(neighborsWithWeights);
+		}
 	}
 
 	private byte[] getBytesFromChunkName() {
 		if (chunkName == null || chunkName.equals("")) {
-			System.err.println("Your chunk does not have a name. Therefore, "
+			Log.warn("Your chunk does not have a name. Therefore, "
 					+ "I cannot find any files to send!");
 			return null;
 		}
@@ -1205,82 +1725,30 @@ public class Client {
 			input.close();
 
 		} catch (FileNotFoundException e) {
-			System.err.println("I couldn't find chunk " + chunkName + ". "
-					+ "Did you spell the file name correctly?");
+			Log.error("I couldn't find chunk {}. Did you spell the file "
+					+ "name correctly?", chunkName);
 			return null;
 		} catch (IOException e) {
-			System.err.println("There was reading your chunk file");
+			Log.error("There was reading your chunk file", e);
 		}
 
 		return retChunk;
 	}
 
-	/**
-	 * Given an IP:Port, check whether the corresponding weight in a Client's
-	 * distance vector (if the link exists), is equal to the weight parameter.
-	 * This method checks our Client's DV. To check another Client's DV, the
-	 * overloaded method distanceVectorHasWeight(String clientDV, String
-	 * entryInDV, double weight) is used.
-	 * 
-	 * @param ipPort
-	 * 
-	 * @param weight
-	 * 
-	 * @return True if link exists and associated weight is equal to weight,
-	 *         false otherwise.
-	 */
-	public boolean distanceVectorHasWeight(String ipPort, double weight) {
-		if (!distanceVector.containsKey(ipPort)) {
-			return false;
-		} else {
-			return distanceVector.get(localClientID).get(ipPort) == weight;
-		}
-	}
-
-	/**
-	 * Check whether clientDV's distance vector's entryInDV entry is equal to a
-	 * given weight.
-	 * 
-	 * @param clientDV
-	 * 
-	 * @param entryInDV
-	 * 
-	 * @param weight
-	 * 
-	 * @return True if entry exists and is equal to the given weight, false
-	 *         otherwise.
-	 */
-	public boolean distanceVectorHasWeight(String clientDV, String entryInDV,
-			double weight) {
-		if (!distanceVector.containsKey(clientDV)
-				|| !distanceVector.get(clientDV).containsKey(entryInDV)) {
-			return false;
-		} else {
-			return distanceVector.get(clientDV).get(entryInDV) == weight;
-		}
-	}
-
-	/**
-	 * Given an IP:Port, check whether a client's distance vector contains a
-	 * corresponding link.
-	 * 
-	 * @param ipPort
-	 * 
-	 * @return True if Client's vector contains an entry corresponding to
-	 *         ipPort, false otherwise.
-	 */
-	public boolean hasLink(String ipPort) {
-		return distanceVector.containsKey(ipPort);
-	}
-
 	/**
 	 * Close Client program, and exit with a (successful) status of 0.
 	 */
 	public boolean close() {
+		scheduler.shutdownNow();
+		transport.close();
+		metrics.unregister();
+		stopCapture();
+
 		if (isTest) {
 			return true;
 		} else {
-			System.out.println("Exiting now...");
+			Log.info("Exiting now...");
+			Log.flush();
 			System.exit(0);
 			return true;
 		}
@@ -1310,12 +1778,28 @@ public class Client {
 		this.sequenceNumber = sequenceNumber;
 	}
 
+	/**
+	 * @return The socket we receive on, or null if we aren't using a started
+	 *         UdpTransport.
+	 */
 	public DatagramSocket getSocket() {
-		return socket;
+		Transport udp = transport;
+		if (udp instanceof FaultInjectingTransport) {
+			udp = ((FaultInjectingTransport) udp).getDelegate();
+		}
+		if (udp instanceof UdpTransport) {
+			return ((UdpTransport) udp).getSocket();
+		}
+
+		return null;
 	}
 
-	public void setSocket(DatagramSocket socket) {
-		this.socket = socket;
+	public Transport getTransport() {
+		return transport;
+	}
+
+	public Clock getClock() {
+		return clock;
 	}
 
 	public int getTimeout() {
@@ -1326,15 +1810,6 @@ public class Client {
 		this.timeout = timeout;
 	}
 
-	public Map<String, Map<String, Double>> getDistanceVector() {
-		return distanceVector;
-	}
-
-	public void setDistanceVector(
-			Map<String, Map<String, Double>> distanceVector) {
-		this.distanceVector = distanceVector;
-	}
-
 	public Object getdvRTLock() {
 		return dvRTLock;
 	}
@@ -1351,14 +1826,6 @@ public class Client {
 		this.isTest = isTest;
 	}
 
-	public Map<String, String[]> getRoutingTable() {
-		return routingTable;
-	}
-
-	public void setRoutingTable(Map<String, String[]> routingTable) {
-		this.routingTable = routingTable;
-	}
-
 	public String getLocalClientID() {
 		return localClientID;
 	}
@@ -1375,6 +1842,67 @@ public class Client {
 		this.neighbors = neighbors;
 	}
 
+	public RoutingEngine getRoutingEngine() {
+		return routingEngine;
+	}
+
+	public Map<String, Map<String, Double>> getDistanceVector() {
+		return distanceVectorEngine().getDistanceVector();
+	}
+
+	public void setDistanceVector(
+			Map<String, Map<String, Double>> distanceVector) {
+		synchronized (dvRTLock) {
+			distanceVectorEngine().setDistanceVector(distanceVector);
+		}
+	}
+
+	public int getParallelRecomputeThreshold() {
+		return distanceVectorEngine().getParallelRecomputeThreshold();
+	}
+
+	public void setParallelRecomputeThreshold(int parallelRecomputeThreshold) {
+		distanceVectorEngine().setParallelRecomputeThreshold(
+				parallelRecomputeThreshold);
+	}
+
+	public Map<String, RouteEntry> getRoutingTable() {
+		return routingEngine.getRoutingTable();
+	}
+
+	public void setRoutingTable(Map<String, RouteEntry> routingTable) {
+		synchronized (dvRTLock) {
+			routingEngine.setRoutingTable(routingTable);
+		}
+	}
+
+	/**
+	 * @return The most recently published copy of the routing table. This
+	 *         never blocks on, or races with, route updates.
+	 */
+	public ForwardingTable getForwardingTable() {
+		return routingEngine.getForwardingTable();
+	}
+
+	public FailureDetector getFailureDetector() {
+		return failureDetector;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public ConvergenceTracker getConvergenceTracker() {
+		return convergence;
+	}
+
+	/**
+	 * @return The ids that next hops in the routing table are interned as.
+	 */
+	public NodeIds getNodeIds() {
+		return routingEngine.getNodeIds();
+	}
+
 	public byte[] getChunk() {
 		return chunk;
 	}
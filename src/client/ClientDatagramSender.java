@@ -16,32 +16,65 @@ public class ClientDatagramSender {
 		int port = Integer.parseInt(neighborArray[1]);
 
 		this.neighbor = new InetSocketAddress(ip, port);
-		try {
-			// Make Datagram send on free port
-			this.socket = new DatagramSocket(0);
-		} catch (SocketException e) {
-			System.err.println("There was an error having a "
-					+ "ClientDatagramThread listen on a DatagramSocket"
-					+ " for neighbor " + neighbor);
-			e.printStackTrace();
-		}
 	}
 
+	/**
+	 * Send data to our neighbor. The socket is only opened the first time
+	 * something is sent, so a Client that never sends (e.g. one replaying a
+	 * capture) never opens one.
+	 */
 	public void sendPacketToNeighbor(byte[] data) {
+		DatagramSocket socket = openSocket();
+		if (socket == null) {
+			return;
+		}
+
 		try {
 			DatagramPacket packet = new DatagramPacket(data, data.length,
 					neighbor);
 			socket.send(packet);
 		} catch (SocketException e) {
-			System.err.println("There was an error sending a message to "
+			Log.error("There was an error sending a message to "
 					+ "neighbor " + neighbor.getAddress() + ":"
-					+ neighbor.getPort());
-			e.printStackTrace();
+					+ neighbor.getPort(), e);
 		} catch (IOException e) {
-			System.err.println("There was an error sending a message to "
+			Log.error("There was an error sending a message to "
 					+ "neighbor " + neighbor.getAddress() + ":"
-					+ neighbor.getPort());
-			e.printStackTrace();
+					+ neighbor.getPort(), e);
+		}
+	}
+
+	/**
+	 * Route updates and transfers are sent from different threads, so the
+	 * socket is opened (and closed) under the sender's lock, and only one is
+	 * ever opened. Sending itself happens outside the lock.
+	 *
+	 * @return The socket, opened if it wasn't already, or null if it could
+	 *         not be.
+	 */
+	private synchronized DatagramSocket openSocket() {
+		if (socket == null) {
+			try {
+				// Make Datagram send on free port
+				this.socket = new DatagramSocket(0);
+			} catch (SocketException e) {
+				Log.error("There was an error having a "
+						+ "ClientDatagramThread listen on a DatagramSocket"
+						+ " for neighbor " + neighbor, e);
+				return null;
+			}
+		}
+
+		return socket;
+	}
+
+	/**
+	 * Close the socket, if one was opened. A later send opens a new one.
+	 */
+	public synchronized void close() {
+		if (socket != null) {
+			socket.close();
+			socket = null;
 		}
 	}
 }
@@ -0,0 +1,206 @@
+package client;
+
+/**
+ * Tuning options for a Client, read from Java system properties so that they
+ * can be given on the command line without changing the config file format,
+ * e.g.
+ * 
+ * java -Dbellhop.parallelRecomputeThreshold=2048 client.Client config
+ * 
+ * Each option has a default that keeps the Client's original behavior.
+ */
+public class ClientOptions {
+	/**
+	 * Number of destinations behind a neighbor above which a recompute after
+	 * that neighbor's link cost changes is spread across a ForkJoinPool.
+	 */
+	public static final String PARALLEL_RECOMPUTE_THRESHOLD = "bellhop.parallelRecomputeThreshold";
+
+	/**
+	 * Cost at or above which the distance vector engine treats a route as
+	 * unreachable. Infinite by default.
+	 */
+	public static final String MAX_METRIC = "bellhop.maxMetric";
+
+	/**
+	 * How long, in milliseconds, the distance vector engine holds down a
+	 * route that has just become unreachable. 0 (the default) turns hold down
+	 * off.
+	 */
+	public static final String HOLD_DOWN_MILLIS = "bellhop.holdDownMillis";
+
+	/**
+	 * Whether the distance vector engine runs in path vector mode, tagging
+	 * each advertised route with a summary of its path and turning down
+	 * routes that pass back through us. Off by default.
+	 */
+	public static final String PATH_VECTOR = "bellhop.pathVector";
+
+	/**
+	 * Number of leading IPv4 address bits that name a node's area, for
+	 * hierarchical routing with the distance vector engine. 0 (the default)
+	 * turns areas off.
+	 */
+	public static final String AREA_PREFIX_LENGTH = "bellhop.areaPrefixLength";
+
+	/**
+	 * Phi above which a neighbor is suspected of having failed (see
+	 * FailureDetector). 0 (the default) suspects a neighbor once it hasn't
+	 * been heard from for 3 timeouts.
+	 */
+	public static final String PHI_THRESHOLD = "bellhop.phiThreshold";
+
+	/**
+	 * Milliseconds between the __HELLO__ messages a Client sends each
+	 * neighbor. Hellos are tiny, so they can be sent far more often than
+	 * route updates. 0 (the default) turns hellos off, and failures are
+	 * detected from route updates alone.
+	 */
+	public static final String HELLO_INTERVAL_MILLIS = "bellhop.helloIntervalMillis";
+
+	/**
+	 * Number of hellos in a row a neighbor can miss before its link is taken
+	 * down. Only neighbors that have been heard sending hellos are held to
+	 * this; the rest are given 3 timeouts, as with hellos off. 3 by default.
+	 */
+	public static final String HELLO_MISS_COUNT = "bellhop.helloMissCount";
+
+	/**
+	 * Fraction of the timeout, from 0 to 0.5, by which each periodic
+	 * __ROUTEUPDATE__ to a neighbor is brought forward at random. 0.1 by
+	 * default; 0 sends them exactly a timeout apart.
+	 */
+	public static final String UPDATE_JITTER = "bellhop.updateJitter";
+
+	/**
+	 * Seed for the jitter of periodic __ROUTEUPDATE__s. Each Client mixes it
+	 * with its own IP:Port, so that Clients drift apart from each other, but
+	 * a run is reproducible. 1 by default.
+	 */
+	public static final String UPDATE_SEED = "bellhop.updateSeed";
+
+	/**
+	 * Milliseconds a Client waits, after a __ROUTEUPDATE__ changes its
+	 * routes, before sending its neighbors a triggered update. Every change
+	 * made in the meantime goes out in the same update. 0 (the default)
+	 * sends it as soon as the scheduler gets to it, which still gathers up
+	 * the __ROUTEUPDATE__s that arrive together.
+	 */
+	public static final String TRIGGERED_UPDATE_DELAY_MILLIS = "bellhop.triggeredUpdateDelayMillis";
+
+	/**
+	 * Lowest level of message that is logged: DEBUG, INFO (the default), WARN
+	 * or ERROR. INFO leaves out the messages logged for every packet; DEBUG
+	 * prints everything the Client used to.
+	 */
+	public static final String LOG_LEVEL = "bellhop.logLevel";
+
+	/**
+	 * File to capture every received packet and console command to, for
+	 * replaying later with ReplayDriver. Nothing is captured by default.
+	 */
+	public static final String CAPTURE_FILE = "bellhop.captureFile";
+
+	/**
+	 * Faults to inject into the packets a Client sends, as a
+	 * FaultInjectingTransport spec, e.g. "loss=0.1;delay=50@10.0.0.2:4000".
+	 * None by default.
+	 */
+	public static final String FAULTS = "bellhop.faults";
+
+	/**
+	 * Seed for the decisions of which packets the injected faults hit. 1 by
+	 * default, so that runs with the same faults are reproducible.
+	 */
+	public static final String FAULT_SEED = "bellhop.faultSeed";
+
+	/**
+	 * The routing algorithm a Client runs: DISTANCE_VECTOR (the default) or
+	 * LINK_STATE. Every Client in a network has to run the same one.
+	 */
+	public static final String ROUTING_ENGINE = "bellhop.routingEngine";
+
+	public static final String DISTANCE_VECTOR = "distancevector";
+
+	public static final String LINK_STATE = "linkstate";
+
+	public static int getParallelRecomputeThreshold() {
+		return Integer.getInteger(PARALLEL_RECOMPUTE_THRESHOLD, 4096);
+	}
+
+	public static String getRoutingEngine() {
+		return System.getProperty(ROUTING_ENGINE, DISTANCE_VECTOR);
+	}
+
+	public static double getMaxMetric() {
+		String maxMetric = System.getProperty(MAX_METRIC);
+		if (maxMetric == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return Double.parseDouble(maxMetric);
+	}
+
+	public static long getHoldDownMillis() {
+		return Long.getLong(HOLD_DOWN_MILLIS, 0);
+	}
+
+	public static boolean isPathVector() {
+		return Boolean.getBoolean(PATH_VECTOR);
+	}
+
+	public static int getAreaPrefixLength() {
+		return Integer.getInteger(AREA_PREFIX_LENGTH, 0);
+	}
+
+	public static double getPhiThreshold() {
+		String phiThreshold = System.getProperty(PHI_THRESHOLD);
+		if (phiThreshold == null) {
+			return 0.0;
+		}
+
+		return Double.parseDouble(phiThreshold);
+	}
+
+	public static long getHelloIntervalMillis() {
+		return Long.getLong(HELLO_INTERVAL_MILLIS, 0);
+	}
+
+	public static int getHelloMissCount() {
+		return Integer.getInteger(HELLO_MISS_COUNT, 3);
+	}
+
+	public static double getUpdateJitter() {
+		String updateJitter = System.getProperty(UPDATE_JITTER);
+		if (updateJitter == null) {
+			return 0.1;
+		}
+
+		return Math.min(Math.max(Double.parseDouble(updateJitter), 0.0), 0.5);
+	}
+
+	public static long getUpdateSeed() {
+		return Long.getLong(UPDATE_SEED, 1);
+	}
+
+	public static long getTriggeredUpdateDelayMillis() {
+		return Long.getLong(TRIGGERED_UPDATE_DELAY_MILLIS, 0);
+	}
+
+	public static String getCaptureFile() {
+		return System.getProperty(CAPTURE_FILE);
+	}
+
+	public static String getFaults() {
+		return System.getProperty(FAULTS);
+	}
+
+	public static long getFaultSeed() {
+		return Long.getLong(FAULT_SEED, 1);
+	}
+
+	public static Log.Level getLogLevel() {
+		return Log.Level.valueOf(System.getProperty(LOG_LEVEL, "INFO")
+				.toUpperCase());
+	}
+}
@@ -12,7 +12,8 @@ public class ClientReaderThread implements Runnable {
 	private Client mainClient;
 	private BufferedReader stdIn;
 	public static final Set<String> AVAILABLE_COMMANDS = new HashSet<String>(
-			Arrays.asList("linkdown", "linkup", "showrt", "close", "transfer", "showdv"));
+			Arrays.asList("linkdown", "linkup", "showrt", "close", "transfer", "showdv",
+					"stats", "convergence"));
 	private static final String INVALID_COMMAND = "Invalid command, please "
 			+ "try again.";
 
@@ -30,12 +31,13 @@ public class ClientReaderThread implements Runnable {
 
 		try {
 			while ((command = stdIn.readLine()) != null) {
+				mainClient.captureCommand(command);
 				processInput(command);
 			}
 		} catch (IOException e) {
-			System.err.println("There was an error while listening on "
-					+ "the command line. Exiting program.");
-			e.printStackTrace();
+			Log.error("There was an error while listening on "
+					+ "the command line. Exiting program.", e);
+			Log.flush();
 			System.exit(1);
 		}
 	}
@@ -69,7 +71,8 @@ public class ClientReaderThread implements Runnable {
 
 			if (commandWords.length == 1) {
 				/*
-				 * Supports commands: (1) showrt (2) close
+				 * Supports commands: (1) showrt (2) close (3) showdv (4) stats
+				 * (5) convergence
 				 */
 				if (commandWords[0].equals("showrt")) {
 					return mainClient.showRt();
@@ -79,6 +82,10 @@ public class ClientReaderThread implements Runnable {
 				} else if (commandWords[0].equals("showdv")) {
 					mainClient.printLocalDistanceVector();
 					return true;
+				} else if (commandWords[0].equals("stats")) {
+					return mainClient.showStats();
+				} else if (commandWords[0].equals("convergence")) {
+					return mainClient.showConvergence();
 				} else {
 					System.out.println(INVALID_COMMAND);
 					return false;
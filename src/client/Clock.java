@@ -0,0 +1,27 @@
+package client;
+
+/**
+ * Where a Client and its routing engine get the time from. Timestamps (link
+ * heartbeats, hold downs, convergence times, the time a transfer arrived)
+ * are all read through a Clock, so that a VirtualClock can stand in for the
+ * real one and a simulation can run hours of protocol time in seconds.
+ *
+ * Timers are run by the Client's ScheduledExecutorService, which a
+ * VirtualClock also is; durations measured for metrics stay on the real
+ * System.nanoTime, since they are about how much work was done.
+ */
+public interface Clock {
+	/**
+	 * The real time.
+	 */
+	public static final Clock SYSTEM = new Clock() {
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * @return Milliseconds since the epoch, as System.currentTimeMillis.
+	 */
+	public long currentTimeMillis();
+}
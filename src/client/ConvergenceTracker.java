@@ -0,0 +1,204 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how long the network takes to converge after a topology change.
+ *
+ * Every linkdown or linkup starts a topology event, named
+ * origin/startMillis/sequence, where origin is the Client that saw the link
+ * change and startMillis is when it did. The event's id rides along on the
+ * __LINKDOWN__ or __LINKUP__ message to the other end of the link, and on
+ * every __ROUTEUPDATE__ sent while it is the latest event a Client has seen.
+ * Each Client records when it first heard of an event, and when its routing
+ * table last changed while that event was the latest; the gap between the
+ * event's start and that last change is the event's convergence latency at
+ * this Client. The network has converged on the event once every Client's
+ * table has stopped changing, so the network-wide latency is the largest of
+ * the per-Client ones. Comparing times across Clients assumes their clocks
+ * are in step.
+ *
+ * Only the most recent MAX_EVENTS events are kept. All methods are thread
+ * safe.
+ */
+public class ConvergenceTracker {
+	public static final int MAX_EVENTS = 256;
+
+	private volatile String currentEvent = null;
+	private long nextSequence = 1;
+	private Map<String, Record> events = new LinkedHashMap<String, Record>() {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+			return size() > MAX_EVENTS;
+		}
+	};
+
+	/**
+	 * Start a new topology event at origin, and make it the current one.
+	 *
+	 * @return The new event's id.
+	 */
+	public synchronized String newEvent(String origin, long now) {
+		String eventId = origin + "/" + now + "/" + nextSequence++;
+		seen(eventId, now);
+
+		return eventId;
+	}
+
+	/**
+	 * Note that eventId has been heard of, and make it the current event if
+	 * it is newer than the current one. An older event can still be heard of
+	 * after a newer one, e.g. on a __ROUTEUPDATE__ that was sent before its
+	 * sender heard of the newer event. Malformed ids are ignored.
+	 */
+	public synchronized void seen(String eventId, long now) {
+		long start = startOf(eventId);
+		if (start < 0) {
+			return;
+		}
+
+		if (!events.containsKey(eventId)) {
+			events.put(eventId, new Record(start, now));
+		}
+		if (currentEvent == null || isNewer(eventId, currentEvent)) {
+			currentEvent = eventId;
+		}
+	}
+
+	/**
+	 * Events are ordered by when they started, then by sequence number, then
+	 * by origin, so that every Client orders them the same way.
+	 *
+	 * @return True if eventId is newer than other.
+	 */
+	private static boolean isNewer(String eventId, String other) {
+		String[] parts = eventId.split("/");
+		String[] otherParts = other.split("/");
+
+		int byStart = Long.compare(Long.parseLong(parts[1]),
+				Long.parseLong(otherParts[1]));
+		if (byStart != 0) {
+			return byStart > 0;
+		}
+
+		int bySequence = Long.compare(parseSequence(parts[2]),
+				parseSequence(otherParts[2]));
+		if (bySequence != 0) {
+			return bySequence > 0;
+		}
+
+		return parts[0].compareTo(otherParts[0]) > 0;
+	}
+
+	/**
+	 * @return The sequence number part of an event id, or 0 if it isn't a
+	 *         number.
+	 */
+	private static long parseSequence(String sequence) {
+		try {
+			return Long.parseLong(sequence);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Note that the routing table has just changed, which is put down to the
+	 * current event.
+	 */
+	public synchronized void routesChanged(long now) {
+		if (currentEvent == null) {
+			return;
+		}
+
+		Record record = events.get(currentEvent);
+		if (record != null) {
+			record.lastChange = now;
+			record.changes++;
+		}
+	}
+
+	/**
+	 * @return The id of the latest event heard of, to stamp on outgoing
+	 *         messages, or null if there hasn't been one.
+	 */
+	public String getCurrentEvent() {
+		return currentEvent;
+	}
+
+	/**
+	 * @return How long after eventId started the routing table last changed
+	 *         because of it, or -1 if it hasn't changed the table (or
+	 *         eventId isn't known).
+	 */
+	public synchronized long getConvergenceMillis(String eventId) {
+		Record record = events.get(eventId);
+		if (record == null || record.lastChange < 0) {
+			return -1;
+		}
+
+		return record.lastChange - record.start;
+	}
+
+	/**
+	 * @return Every event still being kept, oldest first.
+	 */
+	public synchronized List<String> getEvents() {
+		return new ArrayList<String>(events.keySet());
+	}
+
+	/**
+	 * @return One line per event, for the CONVERGENCE command.
+	 */
+	public synchronized String describe() {
+		StringBuilder description = new StringBuilder();
+		for (Map.Entry<String, Record> entry : events.entrySet()) {
+			Record record = entry.getValue();
+			description.append(entry.getKey()).append(": heard after ")
+					.append(record.firstSeen - record.start).append(" ms, ");
+			if (record.lastChange < 0) {
+				description.append("no route changes\n");
+			} else {
+				description.append(record.changes)
+						.append(" route changes, converged after ")
+						.append(record.lastChange - record.start)
+						.append(" ms\n");
+			}
+		}
+
+		return description.toString();
+	}
+
+	/**
+	 * @return When eventId started, in milliseconds, or -1 if it isn't a
+	 *         valid event id.
+	 */
+	public static long startOf(String eventId) {
+		String[] parts = eventId.split("/");
+		if (parts.length != 3) {
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(parts[1]);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static final class Record {
+		private final long start;
+		private final long firstSeen;
+		private long lastChange = -1;
+		private int changes = 0;
+
+		private Record(long start, long firstSeen) {
+			this.start = start;
+			this.firstSeen = firstSeen;
+		}
+	}
+}
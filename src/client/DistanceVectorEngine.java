@@ -0,0 +1,1136 @@
+package client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The original Bellman-Ford distance vector routing: each Client keeps its
+ * neighbors' distance vectors, and advertises its own (with Poison Reverse) in
+ * __ROUTEUPDATE__ messages.
+ *
+ * To bound counting to infinity around loops that Poison Reverse can't see, a
+ * route whose cost reaches maxMetric is treated as unreachable, and
+ * advertised as infinity. A route that has just become unreachable is held
+ * down for holdDownMillis: until then, only a path at least as cheap as the
+ * one that was lost is accepted, so that stale paths still circulating in the
+ * network aren't taken up.
+ *
+ * In path vector mode, each advertised entry also carries a PathSummary of the
+ * nodes the advertiser's route to it goes through. A route whose path passes
+ * through us is turned down as if it were infinite, which stops loops of any
+ * length before they form.
+ *
+ * With areas on (areaPrefixLength above 0), the routes advertised to a
+ * neighbor only name individual nodes in that neighbor's own area. Every
+ * other node is folded into a single summary route for its area (see Areas),
+ * at the cost of the cheapest node in it. So a node only learns the nodes in
+ * its own area, plus one route per other area.
+ */
+public class DistanceVectorEngine extends AbstractRoutingEngine {
+	private Map<String, Map<String, Double>> distanceVector = null;
+	private Map<String, PoisonReverseView> poisonReverseViews = new HashMap<String, PoisonReverseView>();
+	private int parallelRecomputeThreshold = ClientOptions
+			.getParallelRecomputeThreshold();
+	private Map<String, RouteCandidates> routeCandidates = new HashMap<String, RouteCandidates>();
+	private double maxMetric = ClientOptions.getMaxMetric();
+	private long holdDownMillis = ClientOptions.getHoldDownMillis();
+	private Map<String, HoldDown> holdDowns = new HashMap<String, HoldDown>();
+	private boolean pathVector = ClientOptions.isPathVector();
+	private Map<String, Map<String, PathSummary>> advertisedPaths = new HashMap<String, Map<String, PathSummary>>();
+	private volatile int areaPrefixLength = ClientOptions.getAreaPrefixLength();
+	// Destinations moved to their backup by a linkdown, not yet re-evaluated
+	private Set<String> onBackup = new HashSet<String>();
+	// The destinations re-evaluated since the last RouteRecompute event
+	private int destinationsTouched = 0;
+
+	public DistanceVectorEngine(String localClientID) {
+		super(localClientID);
+	}
+
+	public void initialize(Map<String, Double> neighbors) {
+		createDVFromNeighbors(neighbors);
+		createRoutingTableInitialDV();
+	}
+
+	public boolean processRouteUpdate(String sender, String body) {
+		Map<String, Double> newDV = getDVFromRouteUpdateMessage(body);
+		if (pathVector) {
+			rejectLoopingRoutes(sender, body, newDV);
+		}
+
+		return updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+				sender, newDV);
+	}
+
+	/**
+	 * Remember the paths sender advertised, and set every entry in sender's
+	 * DV whose path goes through us to infinity.
+	 * 
+	 * @param sender
+	 * @param body
+	 *            Body of sender's __ROUTEUPDATE__ message
+	 * @param newDV
+	 *            sender's DV, parsed from body
+	 */
+	private void rejectLoopingRoutes(String sender, String body,
+			Map<String, Double> newDV) {
+		Map<String, PathSummary> paths = getPathsFromRouteUpdateMessage(body);
+		Map<String, PathSummary> oldPaths = advertisedPaths.put(sender, paths);
+
+		for (String destination : paths.keySet()) {
+			PathSummary path = paths.get(destination);
+			if (!destination.equals(localClientID)
+					&& path.contains(localClientID)) {
+				newDV.put(destination, Double.POSITIVE_INFINITY);
+			}
+
+			/*
+			 * Our own path goes through sender's, so if sender's changed, what
+			 * we advertise has changed even if no weight has.
+			 */
+			PathSummary oldPath = oldPaths == null ? null : oldPaths
+					.get(destination);
+			if (!path.equals(oldPath)
+					&& sender.equals(getNextHop(destination))) {
+				discardSerializedViews();
+			}
+		}
+	}
+
+	/**
+	 * @param destination
+	 * @return Our path to destination: ourselves, then the path our next hop
+	 *         advertised for it.
+	 */
+	private PathSummary pathTo(String destination) {
+		if (destination.equals(localClientID)) {
+			return PathSummary.of(localClientID);
+		}
+
+		String nextHop = getNextHop(destination);
+		if (nextHop == null) {
+			return PathSummary.of(localClientID);
+		}
+
+		PathSummary nextHopPath = null;
+		Map<String, PathSummary> nextHopPaths = advertisedPaths.get(nextHop);
+		if (nextHopPaths != null) {
+			nextHopPath = nextHopPaths.get(destination);
+		}
+		if (nextHopPath == null) {
+			nextHopPath = PathSummary.of(nextHop);
+		}
+
+		return nextHopPath.prepend(localClientID);
+	}
+
+	/**
+	 * Given a Map of <IPPort, weights> to neighbors (they are read in from the
+	 * initial config file), create the initial DV. By default, set all the
+	 * weights of your neighbors' DV entries to infinity.
+	 * 
+	 * @param neighbors
+	 * 
+	 * @return The newly created DV
+	 */
+	public Map<String, Map<String, Double>> createDVFromNeighbors(
+			Map<String, Double> neighbors) {
+		this.distanceVector = new TreeMap<String, Map<String, Double>>();
+		this.linkCosts = new TreeMap<String, Double>(neighbors);
+		this.routeCandidates = new HashMap<String, RouteCandidates>();
+		this.poisonReverseViews.clear();
+
+		for (String neighbor : neighbors.keySet()) {
+			distanceVector.put(neighbor, new TreeMap<String, Double>());
+			distanceVector.get(neighbor).put(localClientID,
+					Double.POSITIVE_INFINITY);
+			for (String link : neighbors.keySet()) {
+				distanceVector.get(neighbor)
+						.put(link, Double.POSITIVE_INFINITY);
+			}
+		}
+
+		distanceVector.put(localClientID, neighbors);
+		distanceVector.get(localClientID).put(localClientID, 0.0);
+
+		return this.distanceVector;
+	}
+
+	/**
+	 * Given another node's new Distance Vector, update our own DV and our
+	 * routing table. Each call is recorded as a RouteRecompute flight
+	 * recorder event.
+	 * 
+	 * @param ipPort
+	 * @param other
+	 * @return True if what we advertise to any neighbor changed, in which
+	 *         case our neighbors should be sent a __ROUTEUPDATE__. See
+	 *         recompute.
+	 */
+	public boolean updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+			String newDVSender, Map<String, Double> other) {
+		RoutingEvents.RouteRecompute event = new RoutingEvents.RouteRecompute();
+		event.begin();
+		long oldVersion = getRoutingTableVersion();
+		destinationsTouched = 0;
+
+		boolean changed = recompute(newDVSender, other);
+
+		commitRecompute(event, newDVSender, oldVersion, changed);
+
+		return changed;
+	}
+
+	/**
+	 * Fill in and commit a RouteRecompute event begun before the routes were
+	 * recomputed, if it is being recorded.
+	 * 
+	 * @param event
+	 * @param sender
+	 * @param oldVersion
+	 *            The routing table version before the recompute.
+	 * @param changed
+	 */
+	private void commitRecompute(RoutingEvents.RouteRecompute event,
+			String sender, long oldVersion, boolean changed) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.sender = sender;
+			event.destinationsTouched = destinationsTouched;
+			event.routesChanged = getRoutingTableVersion() - oldVersion;
+			event.changed = changed;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Take other into our DV and routing table.
+	 * 
+	 * @return True if our own distance vector changed, or any route did. A
+	 *         route can move to another next hop at the same cost, which
+	 *         leaves our DV as it was, but changes which neighbors it is
+	 *         poisoned towards, so they need to hear about it too.
+	 */
+	private boolean recompute(String newDVSender, Map<String, Double> other) {
+		long oldVersion = getRoutingTableVersion();
+		if (!newDVSender.equals(localClientID)) {
+			/*
+			 * The sender may not know all of our destinations yet (or may
+			 * have summarized them away), which is the same as it not being
+			 * able to reach them.
+			 */
+			for (String entry : distanceVector.get(localClientID).keySet()) {
+				if (!other.containsKey(entry)) {
+					other.put(entry, Double.POSITIVE_INFINITY);
+				}
+			}
+		}
+
+		int oldWidth = distanceVector.get(localClientID).size();
+		addNewDVEntriesToOtherDVs(newDVSender, other);
+		boolean widened = distanceVector.get(localClientID).size() != oldWidth;
+
+		if (newDVSender.equals(localClientID)) {
+			for (String neighbor : linkCosts.keySet()) {
+				distanceVector.get(neighbor).put(localClientID,
+						other.get(neighbor));
+			}
+			distanceVector.put(localClientID, other);
+		}
+
+		/*
+		 * Once we're here, we know that all of our distance vectors have
+		 * the same width. Now, we adjust our current distance vector to
+		 * account for the new distance vector's entries.
+		 */
+		boolean changed = updateLocalDVFromNewDV(newDVSender, other);
+		changed |= releaseExpiredHoldDowns();
+		// New destinations are news to our neighbors too
+		changed |= widened;
+		changed |= getRoutingTableVersion() != oldVersion;
+		publishForwardingTable();
+
+		return changed;
+	}
+
+	/**
+	 * Update our local distance vector with another distance vector of the same
+	 * width.
+	 * 
+	 * In this method, we assume that the width of all DVs is the same (in other
+	 * words, we assume that addNewDVEntriesToOtherDVs has been called).
+	 * 
+	 * Rather than relaxing every destination, only the candidates that newDV
+	 * actually changes are touched, and only those destinations are then
+	 * re-evaluated. If newDVSender is the local client, newDV carries our link
+	 * costs to our neighbors, and every destination reached through a neighbor
+	 * whose link cost changed is re-evaluated.
+	 * 
+	 * @param newDVSender
+	 * @param newDV
+	 * @return True if our own distance vector changed.
+	 */
+	public boolean updateLocalDVFromNewDV(String newDVSender,
+			Map<String, Double> newDV) {
+		/*
+		 * Check to make sure that local DV have the same entries. Throw
+		 * exception if they don't.
+		 */
+		if (!distanceVector.get(localClientID).keySet().equals(newDV.keySet())) {
+			Log.error("You tried calling updatedLocalDVFromNewDV "
+					+ "with an invalid newDV map.");
+			throw new IllegalArgumentException();
+		}
+
+		if (newDVSender.equals(localClientID)) {
+			boolean changed = false;
+			for (String neighbor : linkCosts.keySet()) {
+				Double linkCost = newDV.get(neighbor);
+				if (neighbor.equals(localClientID) || linkCost == null
+						|| linkCost.equals(linkCosts.get(neighbor))) {
+					continue;
+				}
+
+				linkCosts.put(neighbor, linkCost);
+				changed |= recomputeDestinationsThrough(neighbor);
+			}
+
+			return changed;
+		}
+
+		Double localWeightToSender = linkCosts.get(newDVSender);
+		if (localWeightToSender == null) {
+			/*
+			 * Not one of our links, so it can't offer us a path to anything.
+			 */
+			return false;
+		}
+
+		/*
+		 * Routes moved to a backup by a linkdown take the cheapest path again
+		 * once a neighbor has had its say after the failure.
+		 */
+		Set<String> affectedDestinations = new HashSet<String>(onBackup);
+		onBackup.clear();
+		for (String entry : newDV.keySet()) {
+			if (relaxCandidate(entry, newDVSender, localWeightToSender,
+					newDV.get(entry))) {
+				affectedDestinations.add(entry);
+			}
+		}
+
+		return applyBestRoutes(affectedDestinations);
+	}
+
+	/**
+	 * Change the cost of our direct link to neighbor, and re-evaluate every
+	 * destination that neighbor offers us a path to. Each call is recorded as
+	 * a RouteRecompute flight recorder event, with neighbor as its sender.
+	 * 
+	 * If the link has gone down, routes through neighbor that have a backup
+	 * next hop move to it, even if another neighbor now offers a cheaper
+	 * path: that neighbor need not be a feasible successor, and may be
+	 * routing to the destination through us. The next distance vector heard
+	 * from any neighbor moves the routes on to the cheapest path.
+	 * 
+	 * @param neighbor
+	 * @param linkCost
+	 * @return True if our own distance vector, or any route, changed.
+	 */
+	public boolean updateLinkCost(String neighbor, double linkCost) {
+		RoutingEvents.RouteRecompute event = new RoutingEvents.RouteRecompute();
+		event.begin();
+		long oldVersion = getRoutingTableVersion();
+		destinationsTouched = 0;
+
+		Map<String, String> backups = new HashMap<String, String>();
+		if (linkCost == Double.POSITIVE_INFINITY) {
+			for (String destination : getDestinationsByNextHop(neighbor)) {
+				String backupNextHop = getBackupNextHop(destination);
+				if (backupNextHop != null) {
+					backups.put(destination, backupNextHop);
+				}
+			}
+		}
+
+		linkCosts.put(neighbor, linkCost);
+		if (distanceVector.containsKey(neighbor)) {
+			distanceVector.get(neighbor).put(localClientID, linkCost);
+		}
+
+		boolean changed = recomputeDestinationsThrough(neighbor);
+		for (Map.Entry<String, String> backup : backups.entrySet()) {
+			String destination = backup.getKey();
+			double cost = routeCandidates.get(destination).getCost(
+					backup.getValue());
+			if (!backup.getValue().equals(getNextHop(destination))
+					&& cost < maxMetric) {
+				changed |= applyRoute(destination, backup.getValue(), cost);
+				onBackup.add(destination);
+			}
+		}
+		changed |= releaseExpiredHoldDowns();
+		changed |= getRoutingTableVersion() != oldVersion;
+		publishForwardingTable();
+
+		commitRecompute(event, neighbor, oldVersion, changed);
+
+		return changed;
+	}
+
+	/**
+	 * Re-evaluate every destination neighbor offers us a path to, after our
+	 * link cost to neighbor has changed. Above parallelRecomputeThreshold
+	 * destinations, the relaxation is spread across a ForkJoinPool.
+	 * 
+	 * @param neighbor
+	 * @return True if our own distance vector changed.
+	 */
+	private boolean recomputeDestinationsThrough(String neighbor) {
+		Map<String, Double> neighborDV = distanceVector.get(neighbor);
+		if (neighborDV == null
+				|| neighborDV.size() < parallelRecomputeThreshold) {
+			return applyBestRoutes(relaxDestinationsThrough(neighbor));
+		}
+
+		/*
+		 * Every destination needs its candidates to exist before the
+		 * parallel tasks start, so that routeCandidates isn't changed
+		 * structurally while they read it.
+		 */
+		Set<String> destinations = new HashSet<String>(neighborDV.keySet());
+		destinations.add(neighbor);
+		destinations.remove(localClientID);
+		for (String destination : destinations) {
+			if (!routeCandidates.containsKey(destination)) {
+				routeCandidates.put(destination, new RouteCandidates());
+			}
+		}
+
+		List<ParallelRelaxTask.RouteChoice> choices = ParallelRelaxTask
+				.relax(destinations.toArray(new String[destinations.size()]),
+						neighbor, getLinkCost(neighbor), neighborDV,
+						routeCandidates);
+
+		boolean changed = false;
+		for (ParallelRelaxTask.RouteChoice choice : choices) {
+			changed |= applyRoute(choice.destination, choice.nextHop,
+					choice.cost);
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Recompute the candidate through neighbor for every destination in
+	 * neighbor's distance vector (and neighbor itself).
+	 * 
+	 * @param neighbor
+	 * @return The destinations whose candidate through neighbor changed.
+	 */
+	private Set<String> relaxDestinationsThrough(String neighbor) {
+		Set<String> changed = new HashSet<String>();
+		double linkCost = getLinkCost(neighbor);
+
+		Map<String, Double> neighborDV = distanceVector.get(neighbor);
+		if (neighborDV != null) {
+			for (String entry : neighborDV.keySet()) {
+				if (relaxCandidate(entry, neighbor, linkCost,
+						neighborDV.get(entry))) {
+					changed.add(entry);
+				}
+			}
+		}
+		if (relaxCandidate(neighbor, neighbor, linkCost, 0.0)) {
+			changed.add(neighbor);
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Set the candidate cost to destination through neighbor to c(x, v) +
+	 * d_v(y).
+	 * 
+	 * @return True if the candidate changed.
+	 */
+	private boolean relaxCandidate(String destination, String neighbor,
+			double linkCost, Double neighborWeightToDestination) {
+		if (destination.equals(localClientID)) {
+			return false;
+		}
+
+		double cost = RouteCandidates.costThrough(destination, neighbor,
+				linkCost, neighborWeightToDestination);
+
+		RouteCandidates candidates = routeCandidates.get(destination);
+		if (candidates == null) {
+			candidates = new RouteCandidates();
+			routeCandidates.put(destination, candidates);
+		}
+
+		return candidates.update(neighbor, cost);
+	}
+
+	/**
+	 * For each destination given, take the cheapest candidate as our distance
+	 * and route. An unreachable destination keeps its last next hop with an
+	 * infinite cost.
+	 * 
+	 * @param destinations
+	 * @return True if our own distance vector changed.
+	 */
+	private boolean applyBestRoutes(Set<String> destinations) {
+		boolean changed = false;
+
+		for (String destination : destinations) {
+			RouteCandidates candidates = routeCandidates.get(destination);
+			changed |= applyRoute(destination, candidates.getBestNeighbor(),
+					candidates.getBestCost());
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Make nextHop and cost our route to destination, in both our DV and the
+	 * routing table. A null nextHop means destination is unreachable, and
+	 * keeps its last next hop. So does a cost of maxMetric or more, and a
+	 * route that is worse than the one lost while destination is held down.
+	 * 
+	 * @return True if our own distance vector changed.
+	 */
+	private boolean applyRoute(String destination, String nextHop, double cost) {
+		destinationsTouched++;
+		if (cost >= maxMetric || isHeldDown(destination, cost)) {
+			nextHop = null;
+			cost = Double.POSITIVE_INFINITY;
+		}
+
+		if (nextHop == null) {
+			nextHop = getNextHop(destination);
+			if (nextHop == null) {
+				nextHop = destination;
+			}
+		}
+
+		boolean changed = false;
+		Map<String, Double> localDV = distanceVector.get(localClientID);
+		Double oldCost = localDV.get(destination);
+		if (oldCost == null || oldCost != cost) {
+			if (oldCost != null && oldCost != Double.POSITIVE_INFINITY
+					&& cost == Double.POSITIVE_INFINITY && holdDownMillis > 0) {
+				holdDowns.put(destination, new HoldDown(
+						clock.currentTimeMillis() + holdDownMillis, oldCost));
+			}
+			localDV.put(destination, cost);
+			markPoisonReverseViewsStale(destination);
+			changed = true;
+		}
+
+		putRoutingEntry(destination, nextHop, cost);
+		updateBackupNextHop(destination);
+
+		return changed;
+	}
+
+	/**
+	 * @param destination
+	 * @param cost
+	 * @return True if destination is held down, and cost is worse than the
+	 *         cost of the route that was lost.
+	 */
+	private boolean isHeldDown(String destination, double cost) {
+		HoldDown holdDown = holdDowns.get(destination);
+		if (holdDown == null) {
+			return false;
+		}
+
+		return clock.currentTimeMillis() < holdDown.until
+				&& cost > holdDown.lostCost;
+	}
+
+	/**
+	 * Re-evaluate every destination whose hold down has run out, so that the
+	 * best path offered in the meantime is taken up. This runs whenever a
+	 * __ROUTEUPDATE__ arrives or a link cost changes, so neighbors' periodic
+	 * updates make sure it is never put off for long.
+	 * 
+	 * @return True if our own distance vector changed.
+	 */
+	private boolean releaseExpiredHoldDowns() {
+		if (holdDowns.isEmpty()) {
+			return false;
+		}
+
+		long now = clock.currentTimeMillis();
+		Set<String> expired = new HashSet<String>();
+		Iterator<Map.Entry<String, HoldDown>> entries = holdDowns.entrySet()
+				.iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, HoldDown> entry = entries.next();
+			if (now >= entry.getValue().until) {
+				expired.add(entry.getKey());
+				entries.remove();
+			}
+		}
+
+		return applyBestRoutes(expired);
+	}
+
+	/**
+	 * Pick destination's backup next hop: the cheapest other neighbor that is
+	 * a feasible successor, i.e. whose own distance to destination is less
+	 * than ours. Such a neighbor can't be routing to destination through us,
+	 * so switching to it when our next hop's link fails can't make a loop.
+	 * 
+	 * @param destination
+	 */
+	private void updateBackupNextHop(String destination) {
+		RouteCandidates candidates = routeCandidates.get(destination);
+		String nextHop = getNextHop(destination);
+		double feasibleDistance = distanceVector.get(localClientID).get(
+				destination);
+
+		String backupNextHop = null;
+		double backupCost = Double.POSITIVE_INFINITY;
+		if (candidates != null) {
+			Iterator<String> neighbors = candidates.neighborsByCost();
+			while (neighbors.hasNext()) {
+				String neighbor = neighbors.next();
+				if (neighbor.equals(nextHop)) {
+					continue;
+				}
+
+				Double reportedDistance = 0.0;
+				if (!neighbor.equals(destination)) {
+					reportedDistance = distanceVector.get(neighbor).get(
+							destination);
+				}
+				if (reportedDistance != null
+						&& reportedDistance < feasibleDistance
+						&& candidates.getCost(neighbor) < maxMetric) {
+					backupNextHop = neighbor;
+					backupCost = candidates.getCost(neighbor);
+					break;
+				}
+			}
+		}
+
+		putBackupNextHop(destination, backupNextHop, backupCost);
+	}
+
+	/**
+	 * Iterate through neighbors, and see if any are a better match for a next
+	 * hop to a destination. If so, change local DV and RT.
+	 * 
+	 * This is a full relaxation of one destination against the stored DVs:
+	 * every neighbor's candidate for destination is recomputed from its DV,
+	 * and the cheapest one taken, as a __ROUTEUPDATE__ would.
+	 * 
+	 * @param destination
+	 * @return True if our own distance vector, or the route, changed.
+	 */
+	public boolean findShorterPathAmongNeighbors(String destination) {
+		if (destination.equals(localClientID)) {
+			return false;
+		}
+
+		long oldVersion = getRoutingTableVersion();
+		for (String neighbor : linkCosts.keySet()) {
+			if (neighbor.equals(localClientID)) {
+				continue;
+			}
+
+			Map<String, Double> neighborDV = distanceVector.get(neighbor);
+			relaxCandidate(destination, neighbor, getLinkCost(neighbor),
+					neighborDV == null ? null : neighborDV.get(destination));
+		}
+
+		Set<String> destinations = new HashSet<String>();
+		destinations.add(destination);
+		boolean changed = applyBestRoutes(destinations);
+		changed |= getRoutingTableVersion() != oldVersion;
+		publishForwardingTable();
+
+		return changed;
+	}
+
+	/**
+	 * Given a new distance vector, check it for entries that are new to our
+	 * local DV, and add them accordingly.
+	 */
+	public void addNewDVEntriesToOtherDVs(String newDVSender,
+			Map<String, Double> newDV) {
+
+		// First set local distance vector to newDV so that there's no
+		// discrepancy (especially in testing)
+		distanceVector.put(newDVSender, newDV);
+		if (newDVSender.equals(localClientID)) {
+			poisonReverseViews.clear();
+		}
+
+		/*
+		 * Check all the entries in newDVSender's distance vector for any new
+		 * entries that our distance vectors don't have. If they don't have it,
+		 * add an entry in all the other DVs with a weight of infinity, except
+		 */
+		for (String entry : newDV.keySet()) {
+			// If we don't have this entry in our DV...
+			if (!distanceVector.get(localClientID).keySet().contains(entry)) {
+				for (String currentEntry : distanceVector.keySet()) {
+					if (currentEntry.equals(localClientID)) {
+						/*
+						 * If we are looking at our own distance vector, add
+						 * entry and set the weight to our weight to newDV +
+						 * newDV's weight to entry, and add it to the routing
+						 * table.
+						 */
+
+						// Add entry to local DV
+						Double weightToNewDVSender = distanceVector.get(
+								localClientID).get(newDVSender);
+						Double weightFromNewDVToEntry = newDV.get(entry);
+						Double weightFromUsToNewEntry = weightToNewDVSender
+								+ weightFromNewDVToEntry;
+						distanceVector.get(localClientID).put(entry,
+								weightFromUsToNewEntry);
+						markPoisonReverseViewsStale(entry);
+
+						// Add entry to routing table
+						if (localClientID.equals(newDVSender)
+								&& !currentEntry.equals(localClientID)) {
+							continue;
+						}
+						putRoutingEntry(entry, newDVSender,
+								weightFromUsToNewEntry);
+					} else if (currentEntry.equals(newDVSender)) {
+						/*
+						 * Skip iteration if we are looking at the sender's DV.
+						 * It should not change because it is assumed that the
+						 * DV received in __ROUTEUPDATE__ is the most
+						 * up-to-date.
+						 */
+						continue;
+					} else {
+						/*
+						 * Otherwise, add an entry to the other DVs and put the
+						 * weight to infinity.
+						 */
+						distanceVector.get(currentEntry).put(entry,
+								Double.POSITIVE_INFINITY);
+					}
+
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Create this Client's routing table from it's initial Distance Vector
+	 */
+	public Map<String, RouteEntry> createRoutingTableInitialDV() {
+		if (this.distanceVector == null
+				|| this.distanceVector.keySet().size() < 1) {
+			return null;
+		}
+
+		/*
+		 * For each neighbor in our DV, add a destination entry to the routing
+		 * table, and make that neighbor the next hop. The weight to the
+		 * neighbor is the weight given in the distance vector for our client.
+		 * Remark that at this point, we expect each neighbor's DV to have
+		 * weights of infinity, so we only use the weights from our DV. When we
+		 * later get ROUTEUPDATE commands, we'll update our routing table from
+		 * all the DVs.
+		 */
+		Double weightToEntry;
+		for (String ipPort : this.distanceVector.get(localClientID).keySet()) {
+			if (ipPort.equals(localClientID)) {
+				weightToEntry = 0.0;
+			} else {
+				weightToEntry = distanceVector.get(localClientID).get(ipPort);
+			}
+			putRoutingEntry(ipPort, ipPort, weightToEntry);
+
+			if (!ipPort.equals(localClientID)) {
+				relaxCandidate(ipPort, ipPort, weightToEntry, 0.0);
+			}
+		}
+		publishForwardingTable();
+
+		return this.routingTable;
+	}
+
+	/**
+	 * Take the local distance vector, and transform it into a string to be
+	 * passed into a __ROUTEUPDATE__ message. Entries are separated by the "~"
+	 * character, and an entry is separated from its weight by the "="
+	 * character.
+	 * 
+	 * @return String version of Distance Vector
+	 */
+	public String createDVStringForRouteUpdate(Map<String, Double> dv) {
+		StringBuilder retStr = new StringBuilder();
+
+		for (Map.Entry<String, Double> entry : dv.entrySet()) {
+			retStr.append(entry.getKey()).append('=').append(entry.getValue())
+					.append('~');
+		}
+
+		return retStr.toString();
+	}
+
+	/**
+	 * Given the body of a message from a __ROUTEUPDATE__ message, extract the
+	 * new distance vector and transform it into a Map.
+	 * 
+	 * @param message
+	 * @return
+	 */
+	public Map<String, Double> getDVFromRouteUpdateMessage(String message) {
+		Map<String, Double> newDV = new TreeMap<String, Double>();
+
+		String[] entries = message.split("~");
+		for (String pairs : entries) {
+			Log.debug("{}", pairs);
+			String[] pair = pairs.split("=");
+			String entry = pair[0];
+			Double weight = Double.parseDouble(pair[1]);
+
+			newDV.put(entry, weight);
+		}
+
+		return newDV;
+	}
+
+	/**
+	 * Like createDVStringForRouteUpdate, but with our path to each entry after
+	 * its weight, separated by another "=" character. Nodes
+	 * that don't run in path vector mode ignore the path.
+	 * 
+	 * @return String version of Distance Vector, with paths
+	 */
+	public String createPathVectorStringForRouteUpdate(Map<String, Double> dv) {
+		StringBuilder retStr = new StringBuilder();
+
+		for (Map.Entry<String, Double> entry : dv.entrySet()) {
+			retStr.append(entry.getKey()).append('=').append(entry.getValue())
+					.append('=')
+					.append(pathTo(entry.getKey()))
+					.append('~');
+		}
+
+		return retStr.toString();
+	}
+
+	/**
+	 * Given the body of a __ROUTEUPDATE__ message, extract the path of each
+	 * entry that has one.
+	 * 
+	 * @param message
+	 * @return Map from each entry to its path
+	 */
+	public Map<String, PathSummary> getPathsFromRouteUpdateMessage(
+			String message) {
+		Map<String, PathSummary> paths = new HashMap<String, PathSummary>();
+
+		for (String entry : message.split("~")) {
+			String[] entryWeightPath = entry.split("=");
+			if (entryWeightPath.length == 3) {
+				paths.put(entryWeightPath[0],
+						PathSummary.parse(entryWeightPath[2]));
+			}
+		}
+
+		return paths;
+	}
+
+	/**
+	 * Given a String destination, return our local client's distance vector
+	 * with Poison Reverse.
+	 * 
+	 * Each neighbor's view is cached, and only the destinations whose cost or
+	 * next hop changed since the last call are recomputed. The returned map is
+	 * read only, and is only valid until routes next change.
+	 * 
+	 * @param neighbor
+	 */
+	public Map<String, Double> poisonReversedDistanceVector(String neighbor) {
+		return refreshPoisonReverseView(neighbor).getDistanceVector();
+	}
+
+	/**
+	 * Get the body of a __ROUTEUPDATE__ message for neighbor, which is our
+	 * Poison-Reverse'd distance vector in the format of
+	 * createDVStringForRouteUpdate. The body is only re-serialized if the view
+	 * changed since it was last sent.
+	 * 
+	 * @param neighbor
+	 * @return String version of the Poison-Reverse'd Distance Vector
+	 */
+	public String createRouteUpdateBody(String neighbor) {
+		PoisonReverseView view = refreshPoisonReverseView(neighbor);
+		if (view.getSerialized() == null) {
+			Map<String, Double> advertised = view.getDistanceVector();
+			if (areaPrefixLength > 0) {
+				advertised = summarizeForNeighbor(advertised, neighbor);
+			}
+
+			if (pathVector) {
+				view.setSerialized(createPathVectorStringForRouteUpdate(advertised));
+			} else {
+				view.setSerialized(createDVStringForRouteUpdate(advertised));
+			}
+		}
+
+		return view.getSerialized();
+	}
+
+	/**
+	 * Fold every destination outside neighbor's area into the summary route
+	 * for its area, which costs as much as the cheapest destination in it.
+	 * Destinations in neighbor's area, and our own entry, are left as they
+	 * are. A summary of neighbor's own area is dropped, since neighbor knows
+	 * its area's nodes individually.
+	 * 
+	 * @param dv
+	 *            The (Poison-Reverse'd) distance vector to advertise
+	 * @param neighbor
+	 * @return The summarized distance vector
+	 */
+	private Map<String, Double> summarizeForNeighbor(Map<String, Double> dv,
+			String neighbor) {
+		String neighborArea = Areas.areaOf(neighbor, areaPrefixLength);
+		Map<String, Double> summarized = new TreeMap<String, Double>();
+
+		for (Map.Entry<String, Double> entry : dv.entrySet()) {
+			String destination = entry.getKey();
+			boolean isSummary = Areas.isSummary(destination);
+			String area = isSummary ? destination : Areas.areaOf(destination,
+					areaPrefixLength);
+
+			if (destination.equals(localClientID) || area == null
+					|| (!isSummary && area.equals(neighborArea))) {
+				summarized.put(destination, entry.getValue());
+			} else if (!area.equals(neighborArea)) {
+				Double cost = summarized.get(area);
+				if (cost == null || entry.getValue() < cost) {
+					summarized.put(area, entry.getValue());
+				}
+			}
+		}
+
+		return summarized;
+	}
+
+	/**
+	 * Bring neighbor's Poison-Reverse view up to date, building it the first
+	 * time it is asked for.
+	 */
+	private PoisonReverseView refreshPoisonReverseView(String neighbor) {
+		Map<String, Double> localDV = distanceVector.get(localClientID);
+
+		PoisonReverseView view = poisonReverseViews.get(neighbor);
+		if (view == null) {
+			view = new PoisonReverseView();
+			for (String entry : localDV.keySet()) {
+				view.markStale(entry);
+			}
+			poisonReverseViews.put(neighbor, view);
+		}
+
+		/*
+		 * For each stale entry, if neighbor is its next hop, set its weight to
+		 * infinity. Otherwise advertise our weight as it is.
+		 */
+		for (String entry : view.takeStaleDestinations()) {
+			Double weight = localDV.get(entry);
+			if (weight != null && neighbor.equals(getNextHop(entry))) {
+				weight = Double.POSITIVE_INFINITY;
+			}
+			view.put(entry, weight);
+		}
+
+		return view;
+	}
+
+	/**
+	 * Note that destination's weight or next hop has changed, so every
+	 * neighbor's Poison-Reverse view needs to recompute it.
+	 */
+	private void markPoisonReverseViewsStale(String destination) {
+		for (PoisonReverseView view : poisonReverseViews.values()) {
+			view.markStale(destination);
+		}
+	}
+
+	/**
+	 * Our distance vector and each of our neighbors', one per line.
+	 */
+	public String describe() {
+		StringBuilder retStr = new StringBuilder();
+		for (String neighbor : distanceVector.keySet()) {
+			retStr.append(neighbor + "'s DV: | ");
+			for (String entry : distanceVector.get(neighbor).keySet()) {
+				retStr.append(entry + " => "
+						+ distanceVector.get(neighbor).get(entry) + " | ");
+			}
+			retStr.append('\n');
+		}
+
+		return retStr.toString();
+	}
+
+	@Override
+	protected void routeChanged(String destination) {
+		markPoisonReverseViewsStale(destination);
+		if (pathVector) {
+			discardSerializedViews();
+		}
+	}
+
+	/**
+	 * Make every neighbor's view re-serialize before it is next sent, because
+	 * a path in it has changed.
+	 */
+	private void discardSerializedViews() {
+		for (PoisonReverseView view : poisonReverseViews.values()) {
+			view.setSerialized(null);
+		}
+	}
+
+	/**
+	 * Given an IP:Port, check whether the corresponding weight in a Client's
+	 * distance vector (if the link exists), is equal to the weight parameter.
+	 * This method checks our Client's DV. To check another Client's DV, the
+	 * overloaded method distanceVectorHasWeight(String clientDV, String
+	 * entryInDV, double weight) is used.
+	 * 
+	 * @param ipPort
+	 * 
+	 * @param weight
+	 * 
+	 * @return True if link exists and associated weight is equal to weight,
+	 *         false otherwise.
+	 */
+	public boolean distanceVectorHasWeight(String ipPort, double weight) {
+		if (!distanceVector.containsKey(ipPort)) {
+			return false;
+		} else {
+			return distanceVector.get(localClientID).get(ipPort) == weight;
+		}
+	}
+
+	/**
+	 * Check whether clientDV's distance vector's entryInDV entry is equal to a
+	 * given weight.
+	 * 
+	 * @param clientDV
+	 * 
+	 * @param entryInDV
+	 * 
+	 * @param weight
+	 * 
+	 * @return True if entry exists and is equal to the given weight, false
+	 *         otherwise.
+	 */
+	public boolean distanceVectorHasWeight(String clientDV, String entryInDV,
+			double weight) {
+		if (!distanceVector.containsKey(clientDV)
+				|| !distanceVector.get(clientDV).containsKey(entryInDV)) {
+			return false;
+		} else {
+			return distanceVector.get(clientDV).get(entryInDV) == weight;
+		}
+	}
+
+	/**
+	 * Given an IP:Port, check whether a client's distance vector contains a
+	 * corresponding link.
+	 * 
+	 * @param ipPort
+	 * 
+	 * @return True if Client's vector contains an entry corresponding to
+	 *         ipPort, false otherwise.
+	 */
+	@Override
+	public boolean hasLink(String ipPort) {
+		return distanceVector.containsKey(ipPort);
+	}
+
+	public Map<String, Map<String, Double>> getDistanceVector() {
+		return distanceVector;
+	}
+
+	public void setDistanceVector(
+			Map<String, Map<String, Double>> distanceVector) {
+		this.distanceVector = distanceVector;
+		poisonReverseViews.clear();
+	}
+
+	@Override
+	public void setRoutingTable(Map<String, RouteEntry> routingTable) {
+		super.setRoutingTable(routingTable);
+		poisonReverseViews.clear();
+	}
+
+	@Override
+	public int getAreaPrefixLength() {
+		return areaPrefixLength;
+	}
+
+	public void setAreaPrefixLength(int areaPrefixLength) {
+		this.areaPrefixLength = areaPrefixLength;
+		discardSerializedViews();
+	}
+
+	public boolean isPathVector() {
+		return pathVector;
+	}
+
+	public void setPathVector(boolean pathVector) {
+		this.pathVector = pathVector;
+		discardSerializedViews();
+	}
+
+	public double getMaxMetric() {
+		return maxMetric;
+	}
+
+	public void setMaxMetric(double maxMetric) {
+		this.maxMetric = maxMetric;
+	}
+
+	public long getHoldDownMillis() {
+		return holdDownMillis;
+	}
+
+	public void setHoldDownMillis(long holdDownMillis) {
+		this.holdDownMillis = holdDownMillis;
+	}
+
+	public int getParallelRecomputeThreshold() {
+		return parallelRecomputeThreshold;
+	}
+
+	public void setParallelRecomputeThreshold(int parallelRecomputeThreshold) {
+		this.parallelRecomputeThreshold = parallelRecomputeThreshold;
+	}
+
+	private static final class HoldDown {
+		private final long until;
+		private final double lostCost;
+
+		private HoldDown(long until, double lostCost) {
+			this.until = until;
+			this.lostCost = lostCost;
+		}
+	}
+}
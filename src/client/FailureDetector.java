@@ -0,0 +1,190 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of when each neighbor was last heard from, and decides which
+ * neighbors are suspected of having failed. Any packet from a neighbor counts
+ * as a heartbeat, so a link is only suspected once it has actually gone quiet.
+ *
+ * By default, a neighbor is suspected once it hasn't been heard from for
+ * timeoutMillis, or for its own timeout if one has been set. With a phi threshold above 0, the phi accrual detector is
+ * used instead: the gaps between a neighbor's heartbeats are sampled, and the
+ * neighbor is suspected once phi, -log10 of the chance of a gap at least as
+ * long as the current one, passes the threshold. This adapts to how often
+ * each neighbor is actually heard from. Until a neighbor has a few samples,
+ * the plain timeout is used for it.
+ *
+ * All methods take the current time in milliseconds, and are thread safe.
+ */
+public class FailureDetector {
+	private static final int MAX_SAMPLES = 100;
+	private static final int MIN_SAMPLES = 3;
+
+	private final long timeoutMillis;
+	private final double phiThreshold;
+	private Map<String, History> histories = new HashMap<String, History>();
+
+	/**
+	 * @param timeoutMillis
+	 *            How long a neighbor can go unheard before it is suspected
+	 * @param phiThreshold
+	 *            Phi above which a neighbor is suspected, or 0 to only use
+	 *            timeoutMillis
+	 */
+	public FailureDetector(long timeoutMillis, double phiThreshold) {
+		this.timeoutMillis = timeoutMillis;
+		this.phiThreshold = phiThreshold;
+	}
+
+	/**
+	 * Start watching neighbor, as if it had just been heard from.
+	 */
+	public synchronized void watch(String neighbor, long now) {
+		histories.put(neighbor, new History(now, timeoutMillis));
+	}
+
+	/**
+	 * Give neighbor its own timeout, e.g. a shorter one once it is known to
+	 * send frequent heartbeats. Neighbors that aren't being watched are
+	 * ignored, and watching a neighbor again goes back to the default.
+	 */
+	public synchronized void setTimeoutMillis(String neighbor,
+			long timeoutMillis) {
+		History history = histories.get(neighbor);
+		if (history != null) {
+			history.timeoutMillis = timeoutMillis;
+		}
+	}
+
+	/**
+	 * Stop watching neighbor, e.g. because its link has been taken down.
+	 */
+	public synchronized void unwatch(String neighbor) {
+		histories.remove(neighbor);
+	}
+
+	public synchronized boolean isWatching(String neighbor) {
+		return histories.containsKey(neighbor);
+	}
+
+	/**
+	 * Note that a packet has arrived from neighbor. Neighbors that aren't
+	 * being watched are ignored.
+	 */
+	public synchronized void heartbeat(String neighbor, long now) {
+		History history = histories.get(neighbor);
+		if (history != null) {
+			history.add(now);
+		}
+	}
+
+	/**
+	 * @return How strongly neighbor is suspected of having failed, or 0 if it
+	 *         isn't being watched or doesn't have enough samples yet.
+	 */
+	public synchronized double phi(String neighbor, long now) {
+		History history = histories.get(neighbor);
+		if (history == null || history.count < MIN_SAMPLES) {
+			return 0.0;
+		}
+
+		return history.phi(now);
+	}
+
+	/**
+	 * @return True if neighbor is being watched, and is suspected of having
+	 *         failed.
+	 */
+	public synchronized boolean isSuspected(String neighbor, long now) {
+		History history = histories.get(neighbor);
+		if (history == null) {
+			return false;
+		}
+
+		if (phiThreshold > 0 && history.count >= MIN_SAMPLES) {
+			return history.phi(now) > phiThreshold;
+		}
+
+		return now - history.lastHeard > history.timeoutMillis;
+	}
+
+	/**
+	 * @return Every watched neighbor that is suspected of having failed.
+	 */
+	public synchronized List<String> getSuspects(long now) {
+		List<String> suspects = new ArrayList<String>();
+		for (String neighbor : histories.keySet()) {
+			if (isSuspected(neighbor, now)) {
+				suspects.add(neighbor);
+			}
+		}
+
+		return suspects;
+	}
+
+	/**
+	 * The last time a neighbor was heard from, its timeout, and a sliding
+	 * window of the gaps between its heartbeats, with their running sum and
+	 * sum of squares.
+	 */
+	private static final class History {
+		private long lastHeard;
+		private long timeoutMillis;
+		private long[] intervals = new long[MAX_SAMPLES];
+		private int next = 0;
+		private int count = 0;
+		private double sum = 0;
+		private double sumOfSquares = 0;
+
+		private History(long now, long timeoutMillis) {
+			this.lastHeard = now;
+			this.timeoutMillis = timeoutMillis;
+		}
+
+		private void add(long now) {
+			long interval = now - lastHeard;
+			lastHeard = now;
+
+			if (count == MAX_SAMPLES) {
+				long oldest = intervals[next];
+				sum -= oldest;
+				sumOfSquares -= (double) oldest * oldest;
+			} else {
+				count++;
+			}
+			intervals[next] = interval;
+			next = (next + 1) % MAX_SAMPLES;
+			sum += interval;
+			sumOfSquares += (double) interval * interval;
+		}
+
+		/**
+		 * Phi for the time since the last heartbeat, taking the gaps to be
+		 * normally distributed. The normal tail is approximated with a
+		 * logistic function, which is accurate to well within what phi is
+		 * used for.
+		 */
+		private double phi(long now) {
+			double mean = sum / count;
+			double variance = sumOfSquares / count - mean * mean;
+			// Keep perfectly regular heartbeats from making phi explode
+			double standardDeviation = Math.max(Math.sqrt(Math.max(variance,
+					0)), Math.max(mean / 10, 1));
+
+			double y = (now - lastHeard - mean) / standardDeviation;
+			double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+			double tail;
+			if (now - lastHeard > mean) {
+				tail = e / (1.0 + e);
+			} else {
+				tail = 1.0 - 1.0 / (1.0 + e);
+			}
+
+			return -Math.log10(Math.max(tail, Double.MIN_VALUE));
+		}
+	}
+}
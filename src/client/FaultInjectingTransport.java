@@ -0,0 +1,226 @@
+package client;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps another Transport, and makes the links out of the local node lose,
+ * duplicate, reorder and delay packets, as set out by a FaultProfile per
+ * destination (or a default one). It works over any transport, e.g. a
+ * UdpTransport on loopback, or an InMemoryTransport in a NetworkSimulator.
+ *
+ * Faults are applied as packets are sent, so each end of a link decides what
+ * happens to its own packets; the two directions of a link can be given
+ * different profiles. Every fault is decided by one Random, seeded up front:
+ * given the same seed and the same packets sent in the same order, the same
+ * packets are lost, duplicated and reordered. Delayed packets are sent from
+ * scheduler.
+ *
+ * Profiles can be given as a spec of semicolon separated entries, each a
+ * FaultProfile, optionally followed by @ and the destination it applies to:
+ *
+ * loss=0.01;loss=0.5,delay=20@10.0.0.2:4000
+ *
+ * An entry without a destination sets the default profile.
+ */
+public class FaultInjectingTransport implements Transport {
+	private final Transport delegate;
+	private final ScheduledExecutorService scheduler;
+	private final Random random;
+	private volatile FaultProfile defaultProfile = FaultProfile.NONE;
+	private final ConcurrentMap<String, FaultProfile> profiles = new ConcurrentHashMap<String, FaultProfile>();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong duplicated = new AtomicLong();
+	private final AtomicLong reordered = new AtomicLong();
+	private final AtomicLong delayed = new AtomicLong();
+
+	/**
+	 * @param delegate
+	 *            The transport packets that get through are sent over.
+	 * @param scheduler
+	 *            Runs delayed sends.
+	 * @param seed
+	 *            Seeds every fault decision.
+	 */
+	public FaultInjectingTransport(Transport delegate,
+			ScheduledExecutorService scheduler, long seed) {
+		this.delegate = delegate;
+		this.scheduler = scheduler;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Set profiles from a spec, as described above.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If an entry isn't a valid profile.
+	 */
+	public void setProfiles(String spec) throws IllegalArgumentException {
+		for (String entry : spec.split(";")) {
+			if (entry.trim().equals("")) {
+				continue;
+			}
+
+			int at = entry.indexOf('@');
+			if (at < 0) {
+				setDefaultProfile(FaultProfile.parse(entry));
+			} else {
+				setProfile(entry.substring(at + 1).trim(),
+						FaultProfile.parse(entry.substring(0, at)));
+			}
+		}
+	}
+
+	/**
+	 * @param profile
+	 *            Applies to every destination without a profile of its own.
+	 */
+	public void setDefaultProfile(FaultProfile profile) {
+		this.defaultProfile = profile;
+	}
+
+	/**
+	 * @param destination
+	 *            IP:Port of the node at the other end of the link.
+	 */
+	public void setProfile(String destination, FaultProfile profile) {
+		profiles.put(destination, profile);
+	}
+
+	public FaultProfile getProfile(String destination) {
+		FaultProfile profile = profiles.get(destination);
+		return profile == null ? defaultProfile : profile;
+	}
+
+	/**
+	 * @return True if any profile can hold packets back.
+	 */
+	public boolean delays() {
+		if (defaultProfile.delays()) {
+			return true;
+		}
+		for (FaultProfile profile : profiles.values()) {
+			if (profile.delays()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public void start(String localId, Receiver receiver) throws IOException {
+		delegate.start(localId, receiver);
+	}
+
+	/**
+	 * Send data to destination, unless the link loses it, once more if the
+	 * link duplicates it, and after a delay if the link delays it.
+	 */
+	public void send(String destination, byte[] data) {
+		FaultProfile profile = getProfile(destination);
+		sent.incrementAndGet();
+
+		long firstDelay;
+		long secondDelay = -1;
+		// Decided together, so that the sequence of decisions only depends
+		// on the order packets are sent in
+		synchronized (random) {
+			if (random.nextDouble() < profile.getLoss()) {
+				lost.incrementAndGet();
+				return;
+			}
+
+			firstDelay = delay(profile);
+			if (random.nextDouble() < profile.getDuplicate()) {
+				duplicated.incrementAndGet();
+				secondDelay = delay(profile);
+			}
+		}
+
+		sendAfter(destination, data, firstDelay);
+		if (secondDelay >= 0) {
+			sendAfter(destination, data, secondDelay);
+		}
+	}
+
+	/**
+	 * @return How long to hold a packet back for, in milliseconds. Call with
+	 *         random locked.
+	 */
+	private long delay(FaultProfile profile) {
+		long delay = profile.getDelayMillis();
+		if (profile.getJitterMillis() > 0) {
+			delay += (long) (random.nextDouble() * profile.getJitterMillis());
+		}
+		if (random.nextDouble() < profile.getReorder()) {
+			reordered.incrementAndGet();
+			delay += profile.getReorderDelayMillis();
+		}
+
+		return delay;
+	}
+
+	private void sendAfter(final String destination, byte[] data, long delay) {
+		if (delay <= 0) {
+			delegate.send(destination, data);
+			return;
+		}
+
+		delayed.incrementAndGet();
+		final byte[] copy = data.clone();
+		try {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					delegate.send(destination, copy);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shutting down; the packet is lost along with the link
+		}
+	}
+
+	public void close() {
+		delegate.close();
+	}
+
+	public Transport getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @return The number of packets handed to this transport to send.
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	public long getLost() {
+		return lost.get();
+	}
+
+	public long getDuplicated() {
+		return duplicated.get();
+	}
+
+	/**
+	 * @return The number of copies held back by a profile's reorder delay.
+	 */
+	public long getReordered() {
+		return reordered.get();
+	}
+
+	/**
+	 * @return The number of copies sent after a delay, rather than straight
+	 *         away.
+	 */
+	public long getDelayed() {
+		return delayed.get();
+	}
+}
@@ -0,0 +1,142 @@
+package client;
+
+/**
+ * How badly a link misbehaves, for a FaultInjectingTransport: the chance of
+ * each packet sent over it being lost, duplicated or reordered, and how long
+ * packets are delayed. Profiles are written as comma separated key=value
+ * pairs, any of which may be left out, e.g.
+ *
+ * loss=0.05,duplicate=0.01,reorder=0.1,reorderDelay=50,delay=20,jitter=10
+ *
+ * loss, duplicate and reorder are probabilities from 0 to 1. Every packet is
+ * delayed by delay milliseconds plus up to jitter more, at random; a
+ * reordered packet is held back a further reorderDelay milliseconds, so that
+ * packets sent after it overtake it.
+ */
+public final class FaultProfile {
+	public static final FaultProfile NONE = new FaultProfile(0, 0, 0, 0, 0, 0);
+
+	private final double loss;
+	private final double duplicate;
+	private final double reorder;
+	private final long reorderDelayMillis;
+	private final long delayMillis;
+	private final long jitterMillis;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If a probability isn't between 0 and 1, or a delay is
+	 *             negative.
+	 */
+	public FaultProfile(double loss, double duplicate, double reorder,
+			long reorderDelayMillis, long delayMillis, long jitterMillis)
+			throws IllegalArgumentException {
+		if (!isProbability(loss) || !isProbability(duplicate)
+				|| !isProbability(reorder) || reorderDelayMillis < 0
+				|| delayMillis < 0 || jitterMillis < 0) {
+			throw new IllegalArgumentException("Bad fault profile");
+		}
+
+		this.loss = loss;
+		this.duplicate = duplicate;
+		this.reorder = reorder;
+		this.reorderDelayMillis = reorderDelayMillis;
+		this.delayMillis = delayMillis;
+		this.jitterMillis = jitterMillis;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If profile isn't written as described above.
+	 */
+	public static FaultProfile parse(String profile)
+			throws IllegalArgumentException {
+		double loss = 0;
+		double duplicate = 0;
+		double reorder = 0;
+		long reorderDelayMillis = 50;
+		long delayMillis = 0;
+		long jitterMillis = 0;
+
+		for (String setting : profile.split(",")) {
+			if (setting.trim().equals("")) {
+				continue;
+			}
+
+			String[] keyValue = setting.split("=");
+			if (keyValue.length != 2) {
+				throw new IllegalArgumentException("Bad fault setting: "
+						+ setting);
+			}
+
+			String key = keyValue[0].trim();
+			String value = keyValue[1].trim();
+			try {
+				if (key.equals("loss")) {
+					loss = Double.parseDouble(value);
+				} else if (key.equals("duplicate")) {
+					duplicate = Double.parseDouble(value);
+				} else if (key.equals("reorder")) {
+					reorder = Double.parseDouble(value);
+				} else if (key.equals("reorderDelay")) {
+					reorderDelayMillis = Long.parseLong(value);
+				} else if (key.equals("delay")) {
+					delayMillis = Long.parseLong(value);
+				} else if (key.equals("jitter")) {
+					jitterMillis = Long.parseLong(value);
+				} else {
+					throw new IllegalArgumentException("Unknown fault: " + key);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad fault setting: "
+						+ setting);
+			}
+		}
+
+		return new FaultProfile(loss, duplicate, reorder, reorderDelayMillis,
+				delayMillis, jitterMillis);
+	}
+
+	private static boolean isProbability(double p) {
+		return p >= 0 && p <= 1;
+	}
+
+	public double getLoss() {
+		return loss;
+	}
+
+	public double getDuplicate() {
+		return duplicate;
+	}
+
+	public double getReorder() {
+		return reorder;
+	}
+
+	public long getReorderDelayMillis() {
+		return reorderDelayMillis;
+	}
+
+	public long getDelayMillis() {
+		return delayMillis;
+	}
+
+	public long getJitterMillis() {
+		return jitterMillis;
+	}
+
+	/**
+	 * @return True if packets sent under this profile can be held back,
+	 *         rather than all being sent (or lost) straight away.
+	 */
+	public boolean delays() {
+		return delayMillis > 0 || jitterMillis > 0
+				|| (reorder > 0 && reorderDelayMillis > 0);
+	}
+
+	public String toString() {
+		return "loss=" + loss + ",duplicate=" + duplicate + ",reorder="
+				+ reorder + ",reorderDelay=" + reorderDelayMillis + ",delay="
+				+ delayMillis + ",jitter=" + jitterMillis;
+	}
+}
@@ -0,0 +1,338 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable copy of a Client's routing table. The Client publishes a new
+ * ForwardingTable each time its routes change, so that forwarding and the
+ * command line can read a consistent table without taking dvRTLock.
+ *
+ * Routes that have a backup next hop carry it along: the neighbor the
+ * routing engine moves the route to if its next hop's link fails.
+ *
+ * Routes are kept in a hash trie, 32 ways wide at each level, so that a new
+ * table with a few routes changed (see withRoutes) copies only the nodes on
+ * the way to those routes, and shares every other route with the table it
+ * was made from. Publishing after an update then costs in proportion to the
+ * routes the update changed, rather than to the size of the routing table.
+ */
+public final class ForwardingTable {
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	public static final ForwardingTable EMPTY = new ForwardingTable(
+			new Object[WIDTH], 0);
+
+	/*
+	 * Each slot of a node is null, a Route, a child node (Object[]), or, once
+	 * the hash has run out, a Collisions.
+	 */
+	private final Object[] root;
+	private final int size;
+	private volatile Set<String> destinations = null;
+
+	/**
+	 * Copy routingTable. The copy does not share any routing entries with
+	 * routingTable, so later (in place) changes to them are not seen here.
+	 * Next hops are resolved to names up front, so readers never touch
+	 * nodeIds.
+	 *
+	 * @param routingTable
+	 * @param nodeIds
+	 *            The ids the routing entries' next hops are interned as.
+	 */
+	public ForwardingTable(Map<String, RouteEntry> routingTable,
+			NodeIds nodeIds) {
+		Object[] root = new Object[WIDTH];
+		for (Map.Entry<String, RouteEntry> entry : routingTable.entrySet()) {
+			// Every node is new, so there is nothing to copy
+			root = put(root, 0, toRoute(entry.getKey(), entry.getValue(),
+					nodeIds), false);
+		}
+
+		this.root = root;
+		this.size = routingTable.size();
+	}
+
+	private ForwardingTable(Object[] root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * A copy of this table with the routes to destinations replaced by (or
+	 * added from) their entries in routingTable. Every other route is shared
+	 * with this table.
+	 *
+	 * @param routingTable
+	 * @param destinations
+	 *            The destinations whose routes changed; each must be in
+	 *            routingTable.
+	 * @param nodeIds
+	 *            The ids the routing entries' next hops are interned as.
+	 * @return The new table, or this table if destinations is empty.
+	 */
+	public ForwardingTable withRoutes(Map<String, RouteEntry> routingTable,
+			Collection<String> destinations, NodeIds nodeIds) {
+		if (destinations.isEmpty()) {
+			return this;
+		}
+
+		Object[] newRoot = root;
+		int newSize = size;
+		for (String destination : destinations) {
+			if (find(destination) == null) {
+				newSize++;
+			}
+			newRoot = put(newRoot, 0, toRoute(destination,
+					routingTable.get(destination), nodeIds), true);
+		}
+
+		return new ForwardingTable(newRoot, newSize);
+	}
+
+	public boolean contains(String destination) {
+		return find(destination) != null;
+	}
+
+	/**
+	 * @return The next hop towards destination, or null if destination is not
+	 *         in the table.
+	 */
+	public String getNextHop(String destination) {
+		Route route = find(destination);
+		if (route == null) {
+			return null;
+		}
+
+		return route.nextHop;
+	}
+
+	/**
+	 * Like getNextHop, but a destination that isn't in the table is looked up
+	 * by the summary route for its area.
+	 *
+	 * @param destination
+	 * @param areaPrefixLength
+	 *            See Areas; 0 if areas are off.
+	 * @return The next hop towards destination, or null if neither it nor its
+	 *         area is in the table.
+	 */
+	public String getNextHop(String destination, int areaPrefixLength) {
+		String nextHop = getNextHop(destination);
+		if (nextHop != null || areaPrefixLength <= 0) {
+			return nextHop;
+		}
+
+		String area = Areas.areaOf(destination, areaPrefixLength);
+		if (area == null) {
+			return null;
+		}
+
+		return getNextHop(area);
+	}
+
+	/**
+	 * @return The loop-free backup next hop towards destination, or null if
+	 *         it has none.
+	 */
+	public String getBackupNextHop(String destination) {
+		Route route = find(destination);
+		if (route == null) {
+			return null;
+		}
+
+		return route.backupNextHop;
+	}
+
+	/**
+	 * @return The cost to destination, or Double.POSITIVE_INFINITY if
+	 *         destination is not in the table.
+	 */
+	public double getCost(String destination) {
+		Route route = find(destination);
+		if (route == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return route.cost;
+	}
+
+	/**
+	 * @return The destinations in the table, in sorted order. The set is
+	 *         built the first time it is asked for.
+	 */
+	public Set<String> getDestinations() {
+		Set<String> sorted = destinations;
+		if (sorted == null) {
+			Set<String> names = new TreeSet<String>();
+			for (Route route : routes()) {
+				names.add(route.destination);
+			}
+			sorted = Collections.unmodifiableSet(names);
+			destinations = sorted;
+		}
+
+		return sorted;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static Route toRoute(String destination, RouteEntry routingEntry,
+			NodeIds nodeIds) {
+		String backupNextHop = null;
+		if (routingEntry.getBackupNextHop() != RouteEntry.NO_BACKUP) {
+			backupNextHop = nodeIds.getName(routingEntry.getBackupNextHop());
+		}
+
+		return new Route(destination, nodeIds.getName(routingEntry
+				.getNextHop()), routingEntry.getCost(), backupNextHop,
+				routingEntry.getBackupCost());
+	}
+
+	private static int hash(String destination) {
+		int h = destination.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private Route find(String destination) {
+		int hash = hash(destination);
+		Object[] node = root;
+
+		for (int shift = 0;; shift += BITS) {
+			Object slot = node[(hash >>> shift) & MASK];
+			if (slot instanceof Route) {
+				Route route = (Route) slot;
+				return route.destination.equals(destination) ? route : null;
+			} else if (slot instanceof Object[]) {
+				node = (Object[]) slot;
+			} else if (slot instanceof Collisions) {
+				return ((Collisions) slot).find(destination);
+			} else {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Put route in the subtree at node, which is shift bits into the hash.
+	 *
+	 * @param copy
+	 *            True to leave node as it is, and copy the nodes on the way
+	 *            to route; false if node isn't shared, and can be changed.
+	 * @return The subtree with route in it.
+	 */
+	private static Object[] put(Object[] node, int shift, Route route,
+			boolean copy) {
+		int hash = hash(route.destination);
+		int index = (hash >>> shift) & MASK;
+		Object[] changed = copy ? node.clone() : node;
+
+		Object slot = node[index];
+		if (slot == null) {
+			changed[index] = route;
+		} else if (slot instanceof Object[]) {
+			changed[index] = put((Object[]) slot, shift + BITS, route, copy);
+		} else if (slot instanceof Collisions) {
+			changed[index] = ((Collisions) slot).with(route);
+		} else {
+			Route existing = (Route) slot;
+			if (existing.destination.equals(route.destination)) {
+				changed[index] = route;
+			} else if (shift + BITS >= 32) {
+				changed[index] = new Collisions(new Route[] { existing })
+						.with(route);
+			} else {
+				Object[] child = new Object[WIDTH];
+				child = put(child, shift + BITS, existing, false);
+				changed[index] = put(child, shift + BITS, route, false);
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * @return Every route in the table, in no particular order.
+	 */
+	private List<Route> routes() {
+		List<Route> routes = new ArrayList<Route>(size);
+		collect(root, routes);
+
+		return routes;
+	}
+
+	private static void collect(Object[] node, List<Route> routes) {
+		for (Object slot : node) {
+			if (slot instanceof Route) {
+				routes.add((Route) slot);
+			} else if (slot instanceof Object[]) {
+				collect((Object[]) slot, routes);
+			} else if (slot instanceof Collisions) {
+				Collections.addAll(routes, ((Collisions) slot).routes);
+			}
+		}
+	}
+
+	private static final class Route {
+		private final String destination;
+		private final String nextHop;
+		private final double cost;
+		private final String backupNextHop;
+		private final double backupCost;
+
+		private Route(String destination, String nextHop, double cost,
+				String backupNextHop, double backupCost) {
+			this.destination = destination;
+			this.nextHop = nextHop;
+			this.cost = cost;
+			this.backupNextHop = backupNextHop;
+			this.backupCost = backupCost;
+		}
+	}
+
+	/**
+	 * The routes to destinations whose whole hashes are the same.
+	 */
+	private static final class Collisions {
+		private final Route[] routes;
+
+		private Collisions(Route[] routes) {
+			this.routes = routes;
+		}
+
+		private Route find(String destination) {
+			for (Route route : routes) {
+				if (route.destination.equals(destination)) {
+					return route;
+				}
+			}
+
+			return null;
+		}
+
+		private Collisions with(Route route) {
+			for (int i = 0; i < routes.length; i++) {
+				if (routes[i].destination.equals(route.destination)) {
+					Route[] replaced = routes.clone();
+					replaced[i] = route;
+					return new Collisions(replaced);
+				}
+			}
+
+			Route[] added = new Route[routes.length + 1];
+			System.arraycopy(routes, 0, added, 0, routes.length);
+			added[routes.length] = route;
+			return new Collisions(added);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values, such as latencies in microseconds
+ * or message sizes in bytes, in the style of HdrHistogram. Values are counted
+ * in log-linear buckets: each power of two range is split into SUB_BUCKETS
+ * equal parts, so any recorded value is off by at most 1 part in SUB_BUCKETS
+ * (about 3%) when read back, however large it is.
+ *
+ * Recording is lock-free and doesn't allocate, so it is cheap enough to do for
+ * every packet from any thread. Reads are not atomic with respect to
+ * concurrent recording, which is fine for monitoring.
+ */
+public class Histogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/*
+	 * Values below SUB_BUCKETS get a bucket each. Above that, a value whose
+	 * highest bit is bit b goes in one of SUB_BUCKETS buckets for that b.
+	 */
+	private static final int BUCKETS = SUB_BUCKETS
+			+ (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value
+	 *            Negative values are counted as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+
+		long currentMax;
+		while (value > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, value)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		if (n == 0) {
+			return 0.0;
+		}
+
+		return (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            From 0 to 100.
+	 * @return A value that at least percentile percent of recorded values are
+	 *         at or below, to within the histogram's precision, or 0 if
+	 *         nothing has been recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100)
+				/ 100.0 * total);
+		rank = Math.max(rank, 1);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValueIn(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * @return The count, mean, median, 99th percentile and max, on one line.
+	 */
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+				getCount(), getMean(), getValueAtPercentile(50),
+				getValueAtPercentile(99), getMax());
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int shift = highestBit - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+	}
+
+	private static long highestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + subBucket) << shift;
+		long highest = lowest + (1L << shift) - 1;
+
+		// The top buckets run past Long.MAX_VALUE
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+}
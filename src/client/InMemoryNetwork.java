@@ -0,0 +1,275 @@
+package client;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A network of Clients in one JVM, with no sockets. Each Client is given its
+ * own InMemoryTransport on the network; sending puts the packet on a single
+ * FIFO queue, and packets are handed to their destination's receiver one at
+ * a time, on whichever thread delivers them.
+ *
+ * Delivery is driven either by hand, with deliverNext and deliverAll, which
+ * is deterministic and is what tests and simulations want, or by a
+ * background thread started with startDelivery. Packets for a node that
+ * isn't on the network are dropped, as UDP would.
+ *
+ * A network made with a scheduler can give links a latency (see setLatency):
+ * a packet sent over such a link is only put on the queue once its latency
+ * has passed on the scheduler. With a VirtualClock as the scheduler, that is
+ * once the clock has been advanced past it.
+ */
+public class InMemoryNetwork {
+	private final LinkedBlockingQueue<Envelope> queue = new LinkedBlockingQueue<Envelope>();
+	private final ConcurrentMap<String, Transport.Receiver> receivers = new ConcurrentHashMap<String, Transport.Receiver>();
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentMap<String, ConcurrentMap<String, Long>> latencies = new ConcurrentHashMap<String, ConcurrentMap<String, Long>>();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong deliveredBytes = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile Thread deliveryThread = null;
+
+	/**
+	 * A network on which every packet is queued as soon as it is sent.
+	 */
+	public InMemoryNetwork() {
+		this(null);
+	}
+
+	/**
+	 * @param scheduler
+	 *            Where packets are held back for their link's latency.
+	 */
+	public InMemoryNetwork(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Give the link between a and b a latency, in both directions.
+	 *
+	 * @param millis
+	 *            How long a packet takes to cross the link, or 0 for none.
+	 * @throws IllegalStateException
+	 *             If the network has no scheduler to hold packets back on.
+	 */
+	public void setLatency(String a, String b, long millis)
+			throws IllegalStateException {
+		if (scheduler == null) {
+			throw new IllegalStateException(
+					"A network without a scheduler has no latency");
+		}
+
+		latenciesFrom(a).put(b, millis);
+		latenciesFrom(b).put(a, millis);
+	}
+
+	private ConcurrentMap<String, Long> latenciesFrom(String source) {
+		ConcurrentMap<String, Long> from = latencies.get(source);
+		if (from == null) {
+			latencies.putIfAbsent(source,
+					new ConcurrentHashMap<String, Long>());
+			from = latencies.get(source);
+		}
+
+		return from;
+	}
+
+	/**
+	 * @return How long a packet from source takes to reach destination.
+	 */
+	public long getLatency(String source, String destination) {
+		if (source == null) {
+			return 0;
+		}
+
+		ConcurrentMap<String, Long> from = latencies.get(source);
+		if (from == null) {
+			return 0;
+		}
+
+		Long millis = from.get(destination);
+		return millis == null ? 0 : millis;
+	}
+
+	/**
+	 * @return A new, unstarted transport on this network.
+	 */
+	public Transport createTransport() {
+		return new InMemoryTransport(this);
+	}
+
+	void register(String nodeId, Transport.Receiver receiver)
+			throws IOException {
+		if (receivers.putIfAbsent(nodeId, receiver) != null) {
+			throw new IOException(nodeId + " is already on the network");
+		}
+	}
+
+	void unregister(String nodeId, Transport.Receiver receiver) {
+		receivers.remove(nodeId, receiver);
+	}
+
+	/**
+	 * Queue a copy of data from source for destination.
+	 */
+	void enqueue(String source, String destination, byte[] data) {
+		final Envelope envelope = new Envelope(source, destination,
+				data.clone());
+
+		long latency = getLatency(source, destination);
+		if (latency <= 0) {
+			queue.add(envelope);
+			return;
+		}
+
+		inFlight.incrementAndGet();
+		try {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					inFlight.decrementAndGet();
+					queue.add(envelope);
+				}
+			}, latency, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The scheduler has been shut down, so the packet never arrives
+			inFlight.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Deliver the packet at the head of the queue, if there is one. A
+	 * receiver that fails is logged, and doesn't stop delivery.
+	 * 
+	 * @return False if the queue was empty.
+	 */
+	public boolean deliverNext() {
+		Envelope envelope = queue.poll();
+		if (envelope == null) {
+			return false;
+		}
+
+		deliver(envelope);
+		return true;
+	}
+
+	/**
+	 * Deliver packets until the queue is empty, including any sent while
+	 * handling earlier ones, or until maxPackets have been delivered.
+	 * 
+	 * @return The number of packets taken off the queue.
+	 */
+	public int deliverAll(int maxPackets) {
+		int count = 0;
+		while (count < maxPackets && deliverNext()) {
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Start a daemon thread that delivers packets as soon as they are sent.
+	 */
+	public synchronized void startDelivery() {
+		if (deliveryThread != null) {
+			return;
+		}
+
+		deliveryThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (deliveryThread == Thread.currentThread()) {
+						deliver(queue.take());
+					}
+				} catch (InterruptedException e) {
+					// Stopped
+				}
+			}
+		}, "bellhop-in-memory-network");
+		deliveryThread.setDaemon(true);
+		deliveryThread.start();
+	}
+
+	public synchronized void stopDelivery() {
+		Thread stopping = deliveryThread;
+		deliveryThread = null;
+		if (stopping != null) {
+			stopping.interrupt();
+		}
+	}
+
+	/**
+	 * @return The number of packets waiting to be delivered.
+	 */
+	public int getPending() {
+		return queue.size();
+	}
+
+	/**
+	 * @return The number of packets still crossing their link, which aren't
+	 *         waiting to be delivered yet.
+	 */
+	public long getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * @return The total size of the packets delivered so far.
+	 */
+	public long getDeliveredBytes() {
+		return deliveredBytes.get();
+	}
+
+	/**
+	 * @return The number of packets sent to nodes that weren't on the
+	 *         network, or over a link with a latency once the scheduler had
+	 *         been shut down.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	private void deliver(Envelope envelope) {
+		Transport.Receiver receiver = receivers.get(envelope.destination);
+		if (receiver == null) {
+			dropped.incrementAndGet();
+			return;
+		}
+
+		delivered.incrementAndGet();
+		deliveredBytes.addAndGet(envelope.data.length);
+		try {
+			receiver.receive(envelope.data, envelope.data.length);
+		} catch (IOException e) {
+			Log.error("Error delivering a packet from " + envelope.source
+					+ " to " + envelope.destination, e);
+		} catch (RuntimeException e) {
+			Log.error("Error delivering a packet from " + envelope.source
+					+ " to " + envelope.destination, e);
+		}
+	}
+
+	private static final class Envelope {
+		private final String source;
+		private final String destination;
+		private final byte[] data;
+
+		private Envelope(String source, String destination, byte[] data) {
+			this.source = source;
+			this.destination = destination;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package client;
+
+import java.io.IOException;
+
+/**
+ * One node's connection to an InMemoryNetwork. Get one from
+ * InMemoryNetwork.createTransport.
+ */
+public class InMemoryTransport implements Transport {
+	private final InMemoryNetwork network;
+	private String localId = null;
+	private Receiver receiver = null;
+
+	InMemoryTransport(InMemoryNetwork network) {
+		this.network = network;
+	}
+
+	/**
+	 * @throws IOException
+	 *             If another node on the network already has id localId.
+	 */
+	public void start(String localId, Receiver receiver) throws IOException {
+		network.register(localId, receiver);
+		this.localId = localId;
+		this.receiver = receiver;
+	}
+
+	/**
+	 * Packets sent before start are sent from an unnamed node.
+	 */
+	public void send(String destination, byte[] data) {
+		network.enqueue(localId, destination, data);
+	}
+
+	public void close() {
+		if (localId != null) {
+			network.unregister(localId, receiver);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Link state routing: each Client floods a link state advert (LSA) listing its
+ * own direct links, keeps the newest LSA it has seen from every other Client,
+ * and runs Dijkstra over the resulting graph to pick its routes. After a link
+ * fails, only the two LSAs at either end change, and every Client recomputes
+ * its routes as soon as they arrive, rather than counting up to infinity.
+ *
+ * The body of a __ROUTEUPDATE__ message is the whole link state database.
+ * LSAs are separated by the "~" character, and each is written as
+ * origin@sequence@neighbor=cost,neighbor=cost. Links that are down are left
+ * out.
+ */
+public class LinkStateEngine extends AbstractRoutingEngine {
+	private Map<String, LinkStateAdvert> linkStateDatabase = new TreeMap<String, LinkStateAdvert>();
+	private long localSequence;
+	private String serializedDatabase = null;
+
+	public LinkStateEngine(String localClientID) {
+		super(localClientID);
+	}
+
+	public void initialize(Map<String, Double> neighbors) {
+		this.linkCosts = new TreeMap<String, Double>(neighbors);
+		this.linkCosts.remove(localClientID);
+		this.linkStateDatabase = new TreeMap<String, LinkStateAdvert>();
+
+		/*
+		 * Start from the clock rather than 0, so that a restarted Client's
+		 * LSAs are still newer than the ones it sent before it went down.
+		 */
+		this.localSequence = clock.currentTimeMillis();
+		originateLocalAdvert();
+
+		putRoutingEntry(localClientID, localClientID, 0.0);
+		computeRoutes(localClientID);
+	}
+
+	public boolean updateLinkCost(String neighbor, double linkCost) {
+		linkCosts.put(neighbor, linkCost);
+		localSequence++;
+		originateLocalAdvert();
+		computeRoutes(neighbor);
+
+		return true;
+	}
+
+	/**
+	 * Install every LSA in body that is newer than the one we have from the
+	 * same origin. If any were, recompute our routes, and flood the database
+	 * on to our neighbors.
+	 */
+	public boolean processRouteUpdate(String sender, String body) {
+		boolean changed = false;
+
+		for (String advert : body.split("~")) {
+			if (advert.equals("")) {
+				continue;
+			}
+
+			String[] originSequenceLinks = advert.split("@", -1);
+			if (originSequenceLinks.length != 3) {
+				throw new IllegalArgumentException();
+			}
+			String origin = originSequenceLinks[0];
+			long sequence = Long.parseLong(originSequenceLinks[1]);
+
+			if (origin.equals(localClientID)) {
+				/*
+				 * Someone still has an LSA of ours from before we restarted.
+				 * Move past it, so that ours replaces it.
+				 */
+				if (sequence >= localSequence) {
+					localSequence = sequence + 1;
+					originateLocalAdvert();
+					changed = true;
+				}
+				continue;
+			}
+
+			LinkStateAdvert current = linkStateDatabase.get(origin);
+			if (current != null && current.sequence >= sequence) {
+				continue;
+			}
+
+			Map<String, Double> links = new TreeMap<String, Double>();
+			if (!originSequenceLinks[2].equals("")) {
+				for (String link : originSequenceLinks[2].split(",")) {
+					String[] pair = link.split("=");
+					links.put(pair[0], Double.parseDouble(pair[1]));
+				}
+			}
+			linkStateDatabase.put(origin, new LinkStateAdvert(sequence, links));
+			serializedDatabase = null;
+			changed = true;
+		}
+
+		if (changed) {
+			computeRoutes(sender);
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Every neighbor gets the same body: the whole link state database, which
+	 * is only re-serialized when an LSA in it changes.
+	 */
+	public String createRouteUpdateBody(String neighbor) {
+		if (serializedDatabase == null) {
+			StringBuilder body = new StringBuilder();
+			for (Map.Entry<String, LinkStateAdvert> entry : linkStateDatabase
+					.entrySet()) {
+				LinkStateAdvert advert = entry.getValue();
+				body.append(entry.getKey()).append('@')
+						.append(advert.sequence).append('@');
+
+				boolean first = true;
+				for (Map.Entry<String, Double> link : advert.links.entrySet()) {
+					if (!first) {
+						body.append(',');
+					}
+					body.append(link.getKey()).append('=')
+							.append(link.getValue());
+					first = false;
+				}
+				body.append('~');
+			}
+
+			serializedDatabase = body.toString();
+		}
+
+		return serializedDatabase;
+	}
+
+	/**
+	 * Replace our own LSA with one listing the links that are currently up.
+	 */
+	private void originateLocalAdvert() {
+		Map<String, Double> links = new TreeMap<String, Double>();
+		for (String neighbor : linkCosts.keySet()) {
+			double linkCost = linkCosts.get(neighbor);
+			if (linkCost != Double.POSITIVE_INFINITY) {
+				links.put(neighbor, linkCost);
+			}
+		}
+
+		linkStateDatabase.put(localClientID, new LinkStateAdvert(
+				localSequence, links));
+		serializedDatabase = null;
+	}
+
+	/**
+	 * The cost of the link from one Client to another, as advertised by both
+	 * ends. A link that only one end advertises is either still coming up or
+	 * going down, and isn't used. Our own links are known first hand, so they
+	 * are used as soon as they are up.
+	 *
+	 * @return The link cost, or null if the link isn't usable.
+	 */
+	private Double usableLinkCost(String from, String to) {
+		LinkStateAdvert fromAdvert = linkStateDatabase.get(from);
+		if (from.equals(localClientID)) {
+			return fromAdvert.links.get(to);
+		}
+
+		LinkStateAdvert toAdvert = linkStateDatabase.get(to);
+		if (fromAdvert == null || toAdvert == null
+				|| !toAdvert.links.containsKey(from)) {
+			return null;
+		}
+
+		return fromAdvert.links.get(to);
+	}
+
+	/**
+	 * Run Dijkstra from the local client over the link state database, with a
+	 * binary heap as the priority queue. Rather than decreasing a node's key
+	 * in place, a node is queued again whenever a shorter path to it is found,
+	 * and stale queue entries are skipped when they come out.
+	 *
+	 * Each destination's route is the first hop on its shortest path. A
+	 * destination that can't be reached keeps its last next hop, with an
+	 * infinite cost.
+	 *
+	 * Each run is recorded as a RouteRecompute flight recorder event.
+	 *
+	 * @param sender
+	 *            Whoever the change came from: the sender of the LSAs, the
+	 *            neighbor whose link cost changed, or the local client.
+	 */
+	private void computeRoutes(String sender) {
+		RoutingEvents.RouteRecompute event = new RoutingEvents.RouteRecompute();
+		event.begin();
+		long oldVersion = getRoutingTableVersion();
+
+		Map<String, Double> distances = new HashMap<String, Double>();
+		Map<String, String> firstHops = new HashMap<String, String>();
+		Set<String> settled = new HashSet<String>();
+		PriorityQueue<QueuedNode> queue = new PriorityQueue<QueuedNode>();
+
+		distances.put(localClientID, 0.0);
+		queue.add(new QueuedNode(localClientID, 0.0));
+
+		while (!queue.isEmpty()) {
+			QueuedNode closest = queue.poll();
+			if (!settled.add(closest.node)) {
+				continue;
+			}
+
+			LinkStateAdvert advert = linkStateDatabase.get(closest.node);
+			if (advert == null) {
+				continue;
+			}
+
+			for (String neighbor : advert.links.keySet()) {
+				if (settled.contains(neighbor)) {
+					continue;
+				}
+				Double linkCost = usableLinkCost(closest.node, neighbor);
+				if (linkCost == null) {
+					continue;
+				}
+
+				double distance = closest.distance + linkCost;
+				Double best = distances.get(neighbor);
+				if (best == null || distance < best) {
+					distances.put(neighbor, distance);
+					if (closest.node.equals(localClientID)) {
+						firstHops.put(neighbor, neighbor);
+					} else {
+						firstHops.put(neighbor, firstHops.get(closest.node));
+					}
+					queue.add(new QueuedNode(neighbor, distance));
+				}
+			}
+		}
+
+		Set<String> destinations = new HashSet<String>(routingTable.keySet());
+		destinations.addAll(linkCosts.keySet());
+		destinations.addAll(distances.keySet());
+		destinations.remove(localClientID);
+
+		for (String destination : destinations) {
+			Double distance = distances.get(destination);
+			if (distance != null) {
+				putRoutingEntry(destination, firstHops.get(destination),
+						distance);
+			} else {
+				String nextHop = getNextHop(destination);
+				putRoutingEntry(destination, nextHop == null ? destination
+						: nextHop, Double.POSITIVE_INFINITY);
+			}
+		}
+
+		publishForwardingTable();
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.sender = sender;
+			event.destinationsTouched = destinations.size();
+			event.routesChanged = getRoutingTableVersion() - oldVersion;
+			// Routes are only recomputed when the database has changed
+			event.changed = true;
+			event.commit();
+		}
+	}
+
+	/**
+	 * The link state database, one LSA per line.
+	 */
+	public String describe() {
+		StringBuilder retStr = new StringBuilder();
+		for (String origin : linkStateDatabase.keySet()) {
+			LinkStateAdvert advert = linkStateDatabase.get(origin);
+			retStr.append(origin + "'s LSA (" + advert.sequence + "): | ");
+			for (String neighbor : advert.links.keySet()) {
+				retStr.append(neighbor + " => " + advert.links.get(neighbor)
+						+ " | ");
+			}
+			retStr.append('\n');
+		}
+
+		return retStr.toString();
+	}
+
+	private static final class LinkStateAdvert {
+		private final long sequence;
+		private final Map<String, Double> links;
+
+		private LinkStateAdvert(long sequence, Map<String, Double> links) {
+			this.sequence = sequence;
+			this.links = links;
+		}
+	}
+
+	private static final class QueuedNode implements Comparable<QueuedNode> {
+		private final String node;
+		private final double distance;
+
+		private QueuedNode(String node, double distance) {
+			this.node = node;
+			this.distance = distance;
+		}
+
+		/**
+		 * Order by distance, breaking ties by name so that equal-cost paths
+		 * are always resolved the same way.
+		 */
+		public int compareTo(QueuedNode other) {
+			int byDistance = Double.compare(distance, other.distance);
+			if (byDistance != 0) {
+				return byDistance;
+			}
+
+			return node.compareTo(other.node);
+		}
+	}
+}
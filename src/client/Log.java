@@ -0,0 +1,265 @@
+package client;
+
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leveled logging that stays off the packet path. A message below the current
+ * level costs one volatile read; anything else is put on a bounded, lock-free
+ * ring buffer along with its arguments, and formatted and printed later by a
+ * single background writer thread. If the buffer is ever full, messages are
+ * dropped rather than blocking the caller, and the writer reports how many
+ * were lost.
+ *
+ * Messages use "{}" as a placeholder for each argument, e.g.
+ *
+ * Log.debug("Sending __ROUTEUPDATE__ message to {}.", neighbor);
+ *
+ * Arguments are turned into strings on the writer thread, so they should not
+ * be changed after being logged. DEBUG messages are stamped with the time
+ * they were logged at; WARN and ERROR go to System.err, everything else to
+ * System.out.
+ */
+public final class Log {
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	private static final int CAPACITY = 8192;
+	private static final int MASK = CAPACITY - 1;
+	private static final long IDLE_NANOS = 2000000L;
+
+	private static volatile Level level = ClientOptions.getLogLevel();
+
+	/*
+	 * Producers claim a slot by moving tail on, then fill it in. Only the
+	 * writer moves head on, after emptying the slot at head, so a producer
+	 * that sees tail - head < CAPACITY knows its slot has been emptied.
+	 */
+	private static final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<Entry>(
+			CAPACITY);
+	private static final AtomicLong tail = new AtomicLong();
+	private static volatile long head = 0;
+	private static final AtomicLong dropped = new AtomicLong();
+
+	static {
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "bellhop-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private Log() {
+	}
+
+	public static Level getLevel() {
+		return level;
+	}
+
+	public static void setLevel(Level newLevel) {
+		level = newLevel;
+	}
+
+	/**
+	 * @return True if messages at messageLevel are being logged. Use this to
+	 *         skip building arguments that are expensive to compute.
+	 */
+	public static boolean isEnabled(Level messageLevel) {
+		return messageLevel.compareTo(level) >= 0;
+	}
+
+	public static boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG);
+	}
+
+	/*
+	 * DEBUG is the level used on the packet path, so it gets overloads that
+	 * don't allocate an argument array when it is turned off.
+	 */
+	public static void debug(String message) {
+		if (isEnabled(Level.DEBUG)) {
+			enqueue(Level.DEBUG, message, null, null);
+		}
+	}
+
+	public static void debug(String format, Object arg) {
+		if (isEnabled(Level.DEBUG)) {
+			enqueue(Level.DEBUG, format, new Object[] { arg }, null);
+		}
+	}
+
+	public static void debug(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.DEBUG)) {
+			enqueue(Level.DEBUG, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public static void debug(String format, Object... args) {
+		if (isEnabled(Level.DEBUG)) {
+			enqueue(Level.DEBUG, format, args, null);
+		}
+	}
+
+	public static void info(String format, Object... args) {
+		if (isEnabled(Level.INFO)) {
+			enqueue(Level.INFO, format, args, null);
+		}
+	}
+
+	public static void warn(String format, Object... args) {
+		if (isEnabled(Level.WARN)) {
+			enqueue(Level.WARN, format, args, null);
+		}
+	}
+
+	public static void error(String format, Object... args) {
+		if (isEnabled(Level.ERROR)) {
+			enqueue(Level.ERROR, format, args, null);
+		}
+	}
+
+	/**
+	 * Log an error along with the stack trace of what caused it.
+	 */
+	public static void error(String message, Throwable cause) {
+		if (isEnabled(Level.ERROR)) {
+			enqueue(Level.ERROR, message, null, cause);
+		}
+	}
+
+	/**
+	 * Block until every message logged before this call has been printed.
+	 * Call this before exiting, and before printing straight to the console
+	 * something that should come after what has been logged.
+	 */
+	public static void flush() {
+		long target = tail.get();
+		while (head < target) {
+			LockSupport.parkNanos(IDLE_NANOS / 10);
+		}
+		System.out.flush();
+		System.err.flush();
+	}
+
+	/**
+	 * @return How many messages have been dropped because the buffer was
+	 *         full.
+	 */
+	public static long getDropped() {
+		return dropped.get();
+	}
+
+	private static void enqueue(Level messageLevel, String format,
+			Object[] args, Throwable cause) {
+		Entry entry = new Entry(messageLevel, System.currentTimeMillis(),
+				format, args, cause);
+
+		while (true) {
+			long claimed = tail.get();
+			if (claimed - head >= CAPACITY) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (tail.compareAndSet(claimed, claimed + 1)) {
+				slots.set((int) (claimed & MASK), entry);
+				return;
+			}
+		}
+	}
+
+	private static void drain() {
+		long reportedDropped = 0;
+		while (true) {
+			int index = (int) (head & MASK);
+			Entry entry = slots.get(index);
+			if (entry == null) {
+				/*
+				 * Either the buffer is empty, or a producer has claimed the
+				 * slot and not filled it in yet. Both are rare on a busy
+				 * buffer and harmless to wait out.
+				 */
+				long lost = dropped.get();
+				if (lost != reportedDropped) {
+					System.err.println((lost - reportedDropped)
+							+ " log messages were dropped");
+					reportedDropped = lost;
+				}
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+
+			slots.set(index, null);
+			try {
+				write(entry);
+			} catch (RuntimeException e) {
+				// A bad argument shouldn't take the writer down with it
+				System.err.println("Could not log \"" + entry.format + "\": "
+						+ e);
+			}
+			head = head + 1;
+		}
+	}
+
+	private static void write(Entry entry) {
+		PrintStream out = entry.level.compareTo(Level.WARN) >= 0 ? System.err
+				: System.out;
+
+		String message = format(entry.format, entry.args);
+		if (entry.level == Level.DEBUG) {
+			message = new Date(entry.time) + " " + message;
+		}
+		out.println(message);
+		if (entry.cause != null) {
+			entry.cause.printStackTrace(out);
+		}
+	}
+
+	/**
+	 * Replace each "{}" in format with the next of args. Placeholders without
+	 * an argument are left as they are, and arguments without a placeholder
+	 * are ignored.
+	 */
+	static String format(String format, Object[] args) {
+		if (args == null || args.length == 0) {
+			return format;
+		}
+
+		StringBuilder message = new StringBuilder(format.length() + 16
+				* args.length);
+		int start = 0;
+		int arg = 0;
+		int placeholder;
+		while (arg < args.length
+				&& (placeholder = format.indexOf("{}", start)) >= 0) {
+			message.append(format, start, placeholder);
+			message.append(String.valueOf(args[arg++]));
+			start = placeholder + 2;
+		}
+		message.append(format, start, format.length());
+
+		return message.toString();
+	}
+
+	private static final class Entry {
+		private final Level level;
+		private final long time;
+		private final String format;
+		private final Object[] args;
+		private final Throwable cause;
+
+		private Entry(Level level, long time, String format, Object[] args,
+				Throwable cause) {
+			this.level = level;
+			this.time = time;
+			this.format = format;
+			this.args = args;
+			this.cause = cause;
+		}
+	}
+}
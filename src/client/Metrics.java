@@ -0,0 +1,294 @@
+package client;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * A Client's counters and histograms, looked up by name, e.g.
+ * "received.routeupdate" or "received.routeupdate.micros". Metrics are created
+ * the first time they are used, and are safe to update from any thread:
+ * counters are LongAdders, which stay cheap when many threads count at once,
+ * and histograms are Histograms.
+ *
+ * Metrics are shown by the STATS command, and over JMX once registered, as
+ * bellhop:type=Client,name=<IP:Port>. Each counter is an attribute of the
+ * same name, and each histogram gives name.count, name.mean, name.p50,
+ * name.p99 and name.max attributes.
+ */
+public class Metrics implements DynamicMBean {
+	private static final String[] HISTOGRAM_STATS = { "count", "mean", "p50",
+			"p99", "max" };
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<String, PacketMetrics> received = new ConcurrentHashMap<String, PacketMetrics>();
+	private final ConcurrentMap<String, PacketMetrics> sent = new ConcurrentHashMap<String, PacketMetrics>();
+	private ObjectName objectName;
+
+	public LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+
+		return counter;
+	}
+
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+
+		return histogram;
+	}
+
+	public void increment(String name) {
+		counter(name).increment();
+	}
+
+	public void record(String name, long value) {
+		histogram(name).record(value);
+	}
+
+	/**
+	 * @return The value of counter name, or 0 if it has never been counted.
+	 */
+	public long getCount(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			return 0;
+		}
+
+		return counter.sum();
+	}
+
+	/**
+	 * Count a packet of the given type that has been received and handled.
+	 *
+	 * @param type
+	 *            e.g. "routeupdate"
+	 * @param bytes
+	 *            Size of the packet
+	 * @param nanos
+	 *            How long it took to handle
+	 */
+	public void packetReceived(String type, int bytes, long nanos) {
+		PacketMetrics metrics = packetMetrics(received, "received.", type,
+				true);
+		metrics.packets.increment();
+		metrics.bytes.record(bytes);
+		metrics.micros.record(nanos / 1000);
+	}
+
+	/**
+	 * Count a packet of the given type that has been sent.
+	 */
+	public void packetSent(String type, int bytes) {
+		PacketMetrics metrics = packetMetrics(sent, "sent.", type, false);
+		metrics.packets.increment();
+		metrics.bytes.record(bytes);
+	}
+
+	/**
+	 * Packets are counted on every send and receive, so each type's metrics
+	 * are looked up by name once, and cached by type.
+	 *
+	 * @param byType
+	 *            received or sent
+	 * @param prefix
+	 *            "received." or "sent."
+	 * @param timed
+	 *            True if handling the packets is timed.
+	 */
+	private PacketMetrics packetMetrics(
+			ConcurrentMap<String, PacketMetrics> byType, String prefix,
+			String type, boolean timed) {
+		PacketMetrics metrics = byType.get(type);
+		if (metrics == null) {
+			metrics = new PacketMetrics(counter(prefix + type),
+					histogram(prefix + type + ".bytes"), timed ? histogram(prefix
+							+ type + ".micros") : null);
+			PacketMetrics existing = byType.putIfAbsent(type, metrics);
+			if (existing != null) {
+				metrics = existing;
+			}
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * @return Every metric, one per line, sorted by name, for the STATS
+	 *         command.
+	 */
+	public String describe() {
+		StringBuilder stats = new StringBuilder();
+		for (Map.Entry<String, LongAdder> counter : new TreeMap<String, LongAdder>(
+				counters).entrySet()) {
+			stats.append(counter.getKey()).append(": ")
+					.append(counter.getValue().sum()).append("\n");
+		}
+		for (Map.Entry<String, Histogram> histogram : new TreeMap<String, Histogram>(
+				histograms).entrySet()) {
+			stats.append(histogram.getKey()).append(": ")
+					.append(histogram.getValue()).append("\n");
+		}
+
+		return stats.toString();
+	}
+
+	/**
+	 * Register with the platform MBeanServer under client's name. Failing to
+	 * register is logged, and otherwise ignored.
+	 */
+	public void register(String localClientID) {
+		try {
+			ObjectName name = new ObjectName("bellhop:type=Client,name="
+					+ ObjectName.quote(localClientID));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					name);
+			objectName = name;
+		} catch (JMException e) {
+			Log.warn("Could not register metrics over JMX: {}", e);
+		}
+	}
+
+	public void unregister() {
+		if (objectName == null) {
+			return;
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			Log.warn("Could not unregister metrics from JMX: {}", e);
+		}
+		objectName = null;
+	}
+
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		LongAdder counter = counters.get(attribute);
+		if (counter != null) {
+			return counter.sum();
+		}
+
+		int dot = attribute.lastIndexOf('.');
+		if (dot >= 0) {
+			Histogram histogram = histograms.get(attribute.substring(0, dot));
+			String stat = attribute.substring(dot + 1);
+			if (histogram != null) {
+				if (stat.equals("count")) {
+					return histogram.getCount();
+				} else if (stat.equals("mean")) {
+					return histogram.getMean();
+				} else if (stat.equals("p50")) {
+					return histogram.getValueAtPercentile(50);
+				} else if (stat.equals("p99")) {
+					return histogram.getValueAtPercentile(99);
+				} else if (stat.equals("max")) {
+					return histogram.getMax();
+				}
+			}
+		}
+
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList values = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				values.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// Leave it out, as the MBeanServer expects
+			}
+		}
+
+		return values;
+	}
+
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/**
+	 * There are no operations, so every one is reported as not found.
+	 */
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	/**
+	 * Metrics come and go as they are first used, so the attribute list is
+	 * rebuilt every time it is asked for.
+	 */
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String name : new TreeMap<String, LongAdder>(counters).keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "long", "Counter",
+					true, false, false));
+		}
+		for (String name : new TreeMap<String, Histogram>(histograms).keySet()) {
+			for (String stat : HISTOGRAM_STATS) {
+				attributes.add(new MBeanAttributeInfo(name + "." + stat, stat
+						.equals("mean") ? "double" : "long", "Histogram " + stat,
+						true, false, false));
+			}
+		}
+
+		return new MBeanInfo(getClass().getName(), "BellHop client metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, null, null);
+	}
+
+	/**
+	 * The metrics kept for one type of packet, received or sent.
+	 */
+	private static final class PacketMetrics {
+		private final LongAdder packets;
+		private final Histogram bytes;
+		// Null for packets that aren't timed
+		private final Histogram micros;
+
+		private PacketMetrics(LongAdder packets, Histogram bytes,
+				Histogram micros) {
+			this.packets = packets;
+			this.bytes = bytes;
+			this.micros = micros;
+		}
+	}
+}
@@ -0,0 +1,690 @@
+package client;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs a whole network of Clients in one JVM, over an InMemoryNetwork, to see
+ * how routing behaves at sizes that would take hundreds of real processes.
+ *
+ * Each node of a Topology becomes a Client, configured from the config file
+ * Topology.configFor writes for it. The simulation then goes in phases: the
+ * initial convergence, after every Client has sent its first route updates,
+ * one phase per link failure, and optionally a stretch of protocol time in
+ * which periodic updates run. Packets are delivered in rounds: every packet
+ * that has arrived by the start of a round is delivered in that round. With
+ * every link's latency the same, the number of rounds is how many message
+ * hops the network took to settle. Each phase
+ * reports its rounds, the messages and bytes exchanged, how much simulated
+ * and real time it took, the network-wide convergence latency from the
+ * ConvergenceTracker, and how many routes disagree with the true shortest
+ * paths once it has settled.
+ *
+ * Every Client runs on one VirtualClock, which is both their clock and
+ * their scheduler, and delivery happens on the calling thread, so runs are
+ * deterministic. Each link has a latency, latency milliseconds per unit of
+ * its weight, and a packet sent over it arrives once the clock has moved on
+ * by that much, so the simulated and convergence times a phase reports are
+ * how long the protocol took on those links. The clock also moves on to run
+ * timers, and to send packets held back by injected delays. A phase ends
+ * once no packets are in flight and no timer is due within half a timeout,
+ * the soonest a periodic route update can come round.
+ *
+ * Packets can be lost, duplicated, delayed or reordered on the way, by giving
+ * every node a FaultInjectingTransport. Nothing resends a lost packet, so
+ * this shows what each lost __ROUTEUPDATE__ or __LINKDOWN__ costs in wrong
+ * routes, and, with run, how long periodic updates take to repair them.
+ *
+ * java client.NetworkSimulator topology [-f failures] [-s seed]
+ * [-w maxWeight] [-b packetBudget] [-F faults] [-t timeout] [-r runMillis]
+ * [-l latency]
+ *
+ * where topology is as for Topology.parse, e.g. ring:100 or
+ * scale-free:500:2.
+ *
+ * Every Client keeps a route to every node, so a converged network holds
+ * about 2 KB of heap per pair of nodes, and simulating it takes time that
+ * grows with the square of its size. 500 nodes fit in a 1 GB heap and
+ * converge in under half a minute; 1000 nodes need -Xmx3g, and a minute and
+ * a half. Triggered updates are gathered up per delivery round (see
+ * Client.scheduleTriggeredUpdate), so packets in flight add little to that.
+ * A run that runs out of heap reports so, and stops.
+ */
+public class NetworkSimulator {
+	public static final int BASE_PORT = 10000;
+
+	/**
+	 * The Clients' default timeout, in seconds: a day, so that unless run is
+	 * called, no periodic update is sent during a simulation.
+	 */
+	public static final int TIMEOUT = 86400;
+
+	/**
+	 * The default link latency, in milliseconds per unit of link weight.
+	 */
+	public static final long LATENCY = 1;
+
+	private final Topology topology;
+	private final VirtualClock clock = new VirtualClock();
+	private final InMemoryNetwork network = new InMemoryNetwork(clock);
+	private final int timeout;
+	private final Client[] clients;
+	private final FaultInjectingTransport[] faults;
+	private final Set<Topology.Link> failed = new HashSet<Topology.Link>();
+	private long packetBudget = 100000000L;
+
+	/**
+	 * Create and start a Client for every node in topology.
+	 */
+	public NetworkSimulator(Topology topology) throws IOException {
+		this(topology, null, 1);
+	}
+
+	/**
+	 * Create and start a Client for every node in topology, whose packets
+	 * suffer the given faults.
+	 *
+	 * @param faults
+	 *            A FaultInjectingTransport spec, or null for none. Node i's
+	 *            faults are decided by a Random seeded with seed + i.
+	 * @throws IllegalArgumentException
+	 *             If faults isn't a valid spec.
+	 */
+	public NetworkSimulator(Topology topology, String faults, long seed)
+			throws IOException, IllegalArgumentException {
+		this(topology, faults, seed, TIMEOUT);
+	}
+
+	/**
+	 * @param timeout
+	 *            The Clients' timeout, in seconds, which sets how often they
+	 *            send periodic route updates.
+	 */
+	public NetworkSimulator(Topology topology, String faults, long seed,
+			int timeout) throws IOException, IllegalArgumentException {
+		this(topology, faults, seed, timeout, LATENCY);
+	}
+
+	/**
+	 * @param latency
+	 *            Each link's latency, in milliseconds per unit of its weight
+	 *            (rounded, but at least 1 ms), or 0 for packets to arrive
+	 *            without the clock moving on.
+	 */
+	public NetworkSimulator(Topology topology, String faults, long seed,
+			int timeout, long latency) throws IOException,
+			IllegalArgumentException {
+		this.topology = topology;
+		this.timeout = timeout;
+		this.clients = new Client[topology.size()];
+		this.faults = faults == null ? null
+				: new FaultInjectingTransport[clients.length];
+
+		File directory = Files.createTempDirectory("bellhop-sim").toFile();
+		try {
+			for (int node = 0; node < clients.length; node++) {
+				File config = new File(directory, "node" + node + ".config");
+				Writer writer = new FileWriter(config);
+				try {
+					writer.write(topology.configFor(node, BASE_PORT, timeout));
+				} finally {
+					writer.close();
+				}
+
+				Transport transport = network.createTransport();
+				if (faults != null) {
+					this.faults[node] = new FaultInjectingTransport(transport,
+							clock, seed + node);
+					this.faults[node].setProfiles(faults);
+					transport = this.faults[node];
+				}
+
+				clients[node] = new Client(config.getAbsolutePath(), true,
+						clock, transport, clock);
+				config.delete();
+			}
+		} finally {
+			directory.delete();
+		}
+
+		if (latency > 0) {
+			for (Topology.Link link : topology.getLinks()) {
+				network.setLatency(Topology.nodeId(link.getA(), BASE_PORT),
+						Topology.nodeId(link.getB(), BASE_PORT), Math.max(1,
+								Math.round(link.getWeight() * latency)));
+			}
+		}
+
+		for (Client client : clients) {
+			client.start();
+		}
+	}
+
+	/**
+	 * Have every Client send its first route updates, and run until the
+	 * network has converged.
+	 */
+	public Phase converge() {
+		long started = System.nanoTime();
+		long messages = network.getDelivered() + network.getDropped();
+		long bytes = network.getDeliveredBytes();
+
+		for (Client client : clients) {
+			client.sendRouteUpdates();
+		}
+
+		return settle("converge", null, started, messages, bytes,
+				quietDeadline());
+	}
+
+	/**
+	 * Take link down at one end, and run until the network has converged
+	 * again.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If link isn't in the topology, or has already failed.
+	 */
+	public Phase failLink(Topology.Link link) throws IllegalArgumentException {
+		if (!topology.getLinks().contains(link) || !failed.add(link)) {
+			throw new IllegalArgumentException("Can't fail link " + link);
+		}
+
+		long started = System.nanoTime();
+		long messages = network.getDelivered() + network.getDropped();
+		long bytes = network.getDeliveredBytes();
+
+		Client origin = clients[link.getA()];
+		origin.linkdown("0.0.0.0", BASE_PORT + link.getB(), false);
+		String eventId = origin.getConvergenceTracker().getCurrentEvent();
+
+		return settle("fail " + link.getA() + "-" + link.getB(), eventId,
+				started, messages, bytes, quietDeadline());
+	}
+
+	/**
+	 * Let millis of simulated time go by, with every timer firing as it
+	 * falls due, e.g. to see periodic route updates repair what lost packets
+	 * broke.
+	 */
+	public Phase run(long millis) {
+		long started = System.nanoTime();
+		long messages = network.getDelivered() + network.getDropped();
+		long bytes = network.getDeliveredBytes();
+		long deadline = clock.currentTimeMillis() + millis;
+
+		Phase phase = settle("run " + millis + "ms", null, started, messages,
+				bytes, deadline);
+		clock.advance(deadline - clock.currentTimeMillis());
+
+		return phase;
+	}
+
+	/**
+	 * @return The end of a converge or failure phase, unless it quietens
+	 *         down first: half a timeout from now.
+	 */
+	private long quietDeadline() {
+		return clock.currentTimeMillis() + (long) 500 * timeout;
+	}
+
+	/**
+	 * Fail count links picked at random, one after another, letting the
+	 * network converge after each. Links whose failure would partition the
+	 * network are never picked: with the default, infinite,
+	 * bellhop.maxMetric, the routes to the far side would count to infinity
+	 * until the packet budget ran out. Fewer than count links are failed if
+	 * every remaining link is a bridge.
+	 *
+	 * @return One phase per failed link.
+	 */
+	public List<Phase> failRandomLinks(int count, Random random) {
+		List<Phase> phases = new ArrayList<Phase>();
+		while (phases.size() < count) {
+			List<Topology.Link> candidates = new ArrayList<Topology.Link>();
+			for (Topology.Link link : topology.getLinks()) {
+				if (!failed.contains(link) && isConnectedWithout(link)) {
+					candidates.add(link);
+				}
+			}
+			if (candidates.isEmpty()) {
+				break;
+			}
+
+			phases.add(failLink(candidates.get(random.nextInt(candidates
+					.size()))));
+		}
+
+		return phases;
+	}
+
+	/**
+	 * Deliver packets in rounds, and run timers (and packet arrivals) as the
+	 * clock reaches them, until no packets are left and nothing more is due
+	 * by deadline, or until the packet budget for a phase has been used up.
+	 * A phase that runs out of budget leaves its remaining packets queued or
+	 * in flight, and is reported as not having converged.
+	 */
+	private Phase settle(String name, String eventId, long started,
+			long messagesBefore, long bytesBefore, long deadline) {
+		long startMillis = clock.currentTimeMillis();
+		long lastDelivery = startMillis;
+		int rounds = 0;
+		long delivered = 0;
+		boolean settled = false;
+		while (delivered < packetBudget) {
+			if (network.getPending() > 0) {
+				int round = (int) Math.min(network.getPending(), packetBudget
+						- delivered);
+				delivered += network.deliverAll(round);
+				rounds++;
+				lastDelivery = clock.currentTimeMillis();
+			} else if (clock.runNext(deadline)) {
+				// Everything arriving at the same time goes in one round
+				long now = clock.currentTimeMillis();
+				while (clock.runNext(now)) {
+				}
+			} else {
+				settled = true;
+				break;
+			}
+		}
+
+		long wallMillis = (System.nanoTime() - started) / 1000000;
+		long convergenceMillis = -1;
+		if (eventId != null) {
+			for (Client client : clients) {
+				convergenceMillis = Math.max(convergenceMillis, client
+						.getConvergenceTracker().getConvergenceMillis(eventId));
+			}
+		}
+
+		boolean converged = settled
+				|| (network.getPending() == 0 && network.getInFlight() == 0);
+		return new Phase(name, converged, rounds,
+				network.getDelivered() + network.getDropped()
+						- messagesBefore, network.getDeliveredBytes()
+						- bytesBefore, lastDelivery - startMillis, wallMillis,
+				convergenceMillis, countWrongRoutes());
+	}
+
+	/**
+	 * @return The number of (source, destination) pairs for which the
+	 *         source's forwarding table cost differs from the shortest path
+	 *         over the links that are still up. Unreachable destinations
+	 *         should have an infinite cost.
+	 */
+	public int countWrongRoutes() {
+		List<List<Topology.Link>> adjacency = liveAdjacency(null);
+		int wrong = 0;
+		for (int source = 0; source < clients.length; source++) {
+			double[] expected = shortestPaths(source, adjacency);
+			ForwardingTable table = clients[source].getForwardingTable();
+			for (int destination = 0; destination < clients.length; destination++) {
+				if (destination == source) {
+					continue;
+				}
+
+				double cost = table.getCost(Topology.nodeId(destination,
+						BASE_PORT));
+				if (cost != expected[destination]
+						&& Math.abs(cost - expected[destination]) > 1e-9) {
+					wrong++;
+				}
+			}
+		}
+
+		return wrong;
+	}
+
+	/**
+	 * @return Each node's links that are up, other than excluded.
+	 */
+	private List<List<Topology.Link>> liveAdjacency(Topology.Link excluded) {
+		List<List<Topology.Link>> adjacency = new ArrayList<List<Topology.Link>>();
+		for (int node = 0; node < clients.length; node++) {
+			adjacency.add(new ArrayList<Topology.Link>());
+		}
+		for (Topology.Link link : topology.getLinks()) {
+			if (link != excluded && !failed.contains(link)) {
+				adjacency.get(link.getA()).add(link);
+				adjacency.get(link.getB()).add(link);
+			}
+		}
+
+		return adjacency;
+	}
+
+	private boolean isConnectedWithout(Topology.Link link) {
+		List<List<Topology.Link>> adjacency = liveAdjacency(link);
+		boolean[] reached = new boolean[clients.length];
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		reached[0] = true;
+		queue.add(0);
+		int count = 1;
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			for (Topology.Link next : adjacency.get(node)) {
+				int other = next.other(node);
+				if (!reached[other]) {
+					reached[other] = true;
+					queue.add(other);
+					count++;
+				}
+			}
+		}
+
+		return count == clients.length;
+	}
+
+	/**
+	 * Dijkstra's algorithm from source.
+	 */
+	private static double[] shortestPaths(int source,
+			List<List<Topology.Link>> adjacency) {
+		double[] distance = new double[adjacency.size()];
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		distance[source] = 0;
+
+		// {distance, node}, nearest first
+		PriorityQueue<double[]> queue = new PriorityQueue<double[]>(11,
+				new Comparator<double[]>() {
+					public int compare(double[] a, double[] b) {
+						return Double.compare(a[0], b[0]);
+					}
+				});
+		queue.add(new double[] { 0, source });
+		while (!queue.isEmpty()) {
+			double[] nearest = queue.poll();
+			int node = (int) nearest[1];
+			if (nearest[0] > distance[node]) {
+				continue;
+			}
+
+			for (Topology.Link link : adjacency.get(node)) {
+				int other = link.other(node);
+				double through = distance[node] + link.getWeight();
+				if (through < distance[other]) {
+					distance[other] = through;
+					queue.add(new double[] { through, other });
+				}
+			}
+		}
+
+		return distance;
+	}
+
+	/**
+	 * @param packetBudget
+	 *            The most packets a phase may deliver before it is given up
+	 *            on.
+	 */
+	public void setPacketBudget(long packetBudget) {
+		this.packetBudget = packetBudget;
+	}
+
+	/**
+	 * @return The number of packets lost to injected faults so far.
+	 */
+	public long getLost() {
+		long lost = 0;
+		if (faults != null) {
+			for (FaultInjectingTransport transport : faults) {
+				lost += transport.getLost();
+			}
+		}
+
+		return lost;
+	}
+
+	/**
+	 * @return The number of packets duplicated by injected faults so far.
+	 */
+	public long getDuplicated() {
+		long duplicated = 0;
+		if (faults != null) {
+			for (FaultInjectingTransport transport : faults) {
+				duplicated += transport.getDuplicated();
+			}
+		}
+
+		return duplicated;
+	}
+
+	public Client getClient(int node) {
+		return clients[node];
+	}
+
+	public VirtualClock getClock() {
+		return clock;
+	}
+
+	public InMemoryNetwork getNetwork() {
+		return network;
+	}
+
+	public Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Close every Client. The clock's pending tasks, including every packet
+	 * still in flight, are dropped first, so that the Clients' own shutdowns
+	 * have nothing left to list.
+	 */
+	public void close() {
+		clock.shutdown();
+		for (Client client : clients) {
+			client.close();
+		}
+	}
+
+	/**
+	 * The outcome of one phase of a simulation.
+	 */
+	public static final class Phase {
+		private final String name;
+		private final boolean converged;
+		private final int rounds;
+		private final long messages;
+		private final long bytes;
+		private final long simulatedMillis;
+		private final long wallMillis;
+		private final long convergenceMillis;
+		private final int wrongRoutes;
+
+		private Phase(String name, boolean converged, int rounds,
+				long messages, long bytes, long simulatedMillis,
+				long wallMillis, long convergenceMillis, int wrongRoutes) {
+			this.name = name;
+			this.converged = converged;
+			this.rounds = rounds;
+			this.messages = messages;
+			this.bytes = bytes;
+			this.simulatedMillis = simulatedMillis;
+			this.wallMillis = wallMillis;
+			this.convergenceMillis = convergenceMillis;
+			this.wrongRoutes = wrongRoutes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return False if the phase ran out of packet budget with packets
+		 *         still in flight.
+		 */
+		public boolean isConverged() {
+			return converged;
+		}
+
+		public int getRounds() {
+			return rounds;
+		}
+
+		public long getMessages() {
+			return messages;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return How much simulated time passed between the start of the
+		 *         phase and the last packet it delivered.
+		 */
+		public long getSimulatedMillis() {
+			return simulatedMillis;
+		}
+
+		/**
+		 * @return How long the phase took to simulate.
+		 */
+		public long getWallMillis() {
+			return wallMillis;
+		}
+
+		/**
+		 * @return How long after a link failure, in simulated time, the last
+		 *         route change it caused was, anywhere in the network, or -1
+		 *         for other phases (or a failure that changed no routes).
+		 */
+		public long getConvergenceMillis() {
+			return convergenceMillis;
+		}
+
+		public int getWrongRoutes() {
+			return wrongRoutes;
+		}
+
+		public String toString() {
+			return String.format("%-16s %9s %7d %11d %14d %9d %11s %8d %9d",
+					name, converged ? "yes" : "NO", rounds, messages, bytes,
+					simulatedMillis, convergenceMillis < 0 ? "-" : String
+							.valueOf(convergenceMillis), wrongRoutes,
+					wallMillis);
+		}
+	}
+
+	public static void main(String[] args) {
+		String spec = null;
+		int failures = 0;
+		long seed = 1;
+		int maxWeight = 1;
+		long packetBudget = -1;
+		String faults = null;
+		int timeout = TIMEOUT;
+		long runMillis = 0;
+		long latency = LATENCY;
+		Random random = null;
+		Topology topology = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-f")) {
+					failures = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-s")) {
+					seed = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-w")) {
+					maxWeight = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-b")) {
+					packetBudget = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-F")) {
+					faults = args[++i];
+				} else if (args[i].equals("-t")) {
+					timeout = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-r")) {
+					runMillis = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-l")) {
+					latency = Long.parseLong(args[++i]);
+				} else if (spec == null) {
+					spec = args[i];
+				} else {
+					throw new IllegalArgumentException();
+				}
+			}
+			if (spec == null) {
+				throw new IllegalArgumentException();
+			}
+
+			random = new Random(seed);
+			topology = Topology.parse(spec, random);
+		} catch (RuntimeException e) {
+			System.err.println("Usage: simulate <topology> [-f failures] "
+					+ "[-s seed] [-w maxWeight] [-b packetBudget] [-F faults] "
+					+ "[-t timeout] [-r runMillis] [-l latency]");
+			System.exit(1);
+		}
+
+		// A thousand Clients' INFO messages would bury the report
+		if (System.getProperty(ClientOptions.LOG_LEVEL) == null) {
+			Log.setLevel(Log.Level.ERROR);
+		}
+
+		if (maxWeight > 1) {
+			topology.randomizeWeights(maxWeight, random);
+		}
+
+		NetworkSimulator simulator = null;
+		try {
+			long started = System.nanoTime();
+			simulator = new NetworkSimulator(topology, faults, seed, timeout,
+					latency);
+			if (packetBudget > 0) {
+				simulator.setPacketBudget(packetBudget);
+			}
+			System.out.println(spec + ": " + topology.size() + " nodes, "
+					+ topology.getLinks().size() + " links, started in "
+					+ (System.nanoTime() - started) / 1000000 + " ms");
+
+			System.out.println(String.format(
+					"%-16s %9s %7s %11s %14s %9s %11s %8s %9s", "phase",
+					"converged", "rounds", "messages", "bytes", "sim ms",
+					"converge ms", "wrong", "wall ms"));
+			System.out.println(simulator.converge());
+			for (Phase phase : simulator.failRandomLinks(failures, random)) {
+				System.out.println(phase);
+			}
+			if (runMillis > 0) {
+				System.out.println(simulator.run(runMillis));
+			}
+			if (faults != null) {
+				System.out.println("faults: " + simulator.getLost()
+						+ " packets lost, " + simulator.getDuplicated()
+						+ " duplicated");
+			}
+		} catch (IOException e) {
+			Log.error("Could not start the simulated network", e);
+		} catch (IllegalArgumentException e) {
+			Log.error("Could not start the simulated network", e);
+		} catch (OutOfMemoryError e) {
+			/*
+			 * Let go of the network rather than close it, so that there is
+			 * room to report the error, and closing can't hide it behind
+			 * another.
+			 */
+			simulator = null;
+			System.err.println(spec + " ran out of memory: give the JVM "
+					+ "more heap with -Xmx, or simulate fewer nodes");
+			throw e;
+		} finally {
+			if (simulator != null) {
+				simulator.close();
+			}
+			Log.flush();
+		}
+	}
+}
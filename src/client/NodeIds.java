@@ -0,0 +1,52 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns IP:Port node names as small ints, so that routing entries can refer
+ * to a next hop without holding on to (or comparing) Strings. Ids are handed
+ * out in order starting from 0, and are never reused.
+ *
+ * Not thread safe; a Client only touches its NodeIds while holding dvRTLock.
+ */
+public class NodeIds {
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private List<String> names = new ArrayList<String>();
+
+	/**
+	 * @param name
+	 *            IP:Port of a node
+	 * @return The id of name, assigning it a new one if it doesn't have one.
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+
+		return id;
+	}
+
+	/**
+	 * @param id
+	 * @return The name that was interned as id.
+	 * @throws IllegalArgumentException
+	 *             If no name has been given that id.
+	 */
+	public String getName(int id) throws IllegalArgumentException {
+		if (id < 0 || id >= names.size()) {
+			throw new IllegalArgumentException();
+		}
+
+		return names.get(id);
+	}
+
+	public int size() {
+		return names.size();
+	}
+}
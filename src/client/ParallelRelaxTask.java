@@ -0,0 +1,104 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Relaxes the candidates through one neighbor for a large set of destinations
+ * in parallel. Each destination's candidates are independent of every other
+ * destination's, so the destinations are split into ranges that are relaxed
+ * on a ForkJoinPool, and the resulting best routes are handed back to be
+ * applied to the routing table by a single thread.
+ */
+public class ParallelRelaxTask extends RecursiveTask<List<ParallelRelaxTask.RouteChoice>> {
+	private static final long serialVersionUID = 1L;
+	private static final int DESTINATIONS_PER_TASK = 1024;
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	private String[] destinations;
+	private int from;
+	private int to;
+	private String neighbor;
+	private double linkCost;
+	private Map<String, Double> neighborDV;
+	private Map<String, RouteCandidates> routeCandidates;
+
+	/**
+	 * Relax the candidate through neighbor for each of destinations.
+	 * 
+	 * routeCandidates must already hold a RouteCandidates for every one of
+	 * destinations, and none of the maps may be changed structurally until
+	 * this returns.
+	 * 
+	 * @return The new best route to each destination whose candidate through
+	 *         neighbor changed.
+	 */
+	public static List<RouteChoice> relax(String[] destinations,
+			String neighbor, double linkCost, Map<String, Double> neighborDV,
+			Map<String, RouteCandidates> routeCandidates) {
+		return POOL.invoke(new ParallelRelaxTask(destinations, 0,
+				destinations.length, neighbor, linkCost, neighborDV,
+				routeCandidates));
+	}
+
+	private ParallelRelaxTask(String[] destinations, int from, int to,
+			String neighbor, double linkCost, Map<String, Double> neighborDV,
+			Map<String, RouteCandidates> routeCandidates) {
+		this.destinations = destinations;
+		this.from = from;
+		this.to = to;
+		this.neighbor = neighbor;
+		this.linkCost = linkCost;
+		this.neighborDV = neighborDV;
+		this.routeCandidates = routeCandidates;
+	}
+
+	@Override
+	protected List<RouteChoice> compute() {
+		if (to - from > DESTINATIONS_PER_TASK) {
+			int middle = (from + to) >>> 1;
+			ParallelRelaxTask left = new ParallelRelaxTask(destinations, from,
+					middle, neighbor, linkCost, neighborDV, routeCandidates);
+			ParallelRelaxTask right = new ParallelRelaxTask(destinations,
+					middle, to, neighbor, linkCost, neighborDV, routeCandidates);
+			left.fork();
+			List<RouteChoice> choices = right.compute();
+			choices.addAll(left.join());
+			return choices;
+		}
+
+		List<RouteChoice> choices = new ArrayList<RouteChoice>();
+		for (int i = from; i < to; i++) {
+			String destination = destinations[i];
+			RouteCandidates candidates = routeCandidates.get(destination);
+			double cost = RouteCandidates.costThrough(destination, neighbor,
+					linkCost, neighborDV.get(destination));
+
+			if (candidates.update(neighbor, cost)) {
+				choices.add(new RouteChoice(destination, candidates
+						.getBestNeighbor(), candidates.getBestCost()));
+			}
+		}
+
+		return choices;
+	}
+
+	/**
+	 * The best route to a destination after relaxation. nextHop is null if the
+	 * destination is unreachable.
+	 */
+	public static class RouteChoice {
+		final String destination;
+		final String nextHop;
+		final double cost;
+
+		RouteChoice(String destination, String nextHop, double cost) {
+			this.destination = destination;
+			this.nextHop = nextHop;
+			this.cost = cost;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package client;
+
+import java.util.Arrays;
+
+/**
+ * The nodes on a path, for path vector loop detection: the IP:Port names of
+ * the advertiser and every node its route goes through, nearest first. The
+ * path is kept exactly, so a node is only ever taken to be on it if it is,
+ * and a loop-free route is never turned down.
+ *
+ * NodeIds are local to each Client, so they can't be sent to neighbors; the
+ * names are sent instead, separated by the ">" character. That makes an
+ * advertised entry longer by about one name per hop, so path vector mode
+ * suits networks whose routes are tens of hops long, not thousands.
+ */
+public final class PathSummary {
+	/**
+	 * The empty path.
+	 */
+	public static final PathSummary EMPTY = new PathSummary(new String[0]);
+
+	private final String[] nodes;
+
+	private PathSummary(String[] nodes) {
+		this.nodes = nodes;
+	}
+
+	/**
+	 * @param node
+	 *            IP:Port of a node
+	 * @return The path containing only node.
+	 */
+	public static PathSummary of(String node) {
+		return new PathSummary(new String[] { node });
+	}
+
+	/**
+	 * @return This path, with node in front of it.
+	 */
+	public PathSummary prepend(String node) {
+		String[] prepended = new String[nodes.length + 1];
+		prepended[0] = node;
+		System.arraycopy(nodes, 0, prepended, 1, nodes.length);
+
+		return new PathSummary(prepended);
+	}
+
+	/**
+	 * @param node
+	 * @return True if node is on the path.
+	 */
+	public boolean contains(String node) {
+		for (String onPath : nodes) {
+			if (onPath.equals(node)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return The number of nodes on the path.
+	 */
+	public int length() {
+		return nodes.length;
+	}
+
+	public boolean equals(Object other) {
+		return other instanceof PathSummary
+				&& Arrays.equals(nodes, ((PathSummary) other).nodes);
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(nodes);
+	}
+
+	public String toString() {
+		StringBuilder path = new StringBuilder();
+		for (int i = 0; i < nodes.length; i++) {
+			if (i > 0) {
+				path.append('>');
+			}
+			path.append(nodes[i]);
+		}
+
+		return path.toString();
+	}
+
+	/**
+	 * @param path
+	 *            A path written by toString.
+	 */
+	public static PathSummary parse(String path) {
+		if (path.equals("")) {
+			return EMPTY;
+		}
+
+		return new PathSummary(path.split(">"));
+	}
+}
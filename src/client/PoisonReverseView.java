@@ -0,0 +1,86 @@
+package client;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The distance vector a Client advertises to one neighbor: its own DV, with
+ * every destination it routes through that neighbor poisoned to infinity.
+ *
+ * A view is built once, and afterwards only the destinations marked stale
+ * (because their cost or next hop changed) are patched. The serialized
+ * __ROUTEUPDATE__ body is kept until the view changes again.
+ */
+public class PoisonReverseView {
+	private Map<String, Double> advertised = new TreeMap<String, Double>();
+	private Map<String, Double> unmodifiableAdvertised = Collections
+			.unmodifiableMap(advertised);
+	private Set<String> staleDestinations = new HashSet<String>();
+	private String serialized = null;
+
+	/**
+	 * Note that destination's entry has to be recomputed before the view is
+	 * next used.
+	 *
+	 * @param destination
+	 */
+	public void markStale(String destination) {
+		staleDestinations.add(destination);
+	}
+
+	/**
+	 * Hand back the destinations marked stale, and forget about them.
+	 *
+	 * @return Destinations to recompute
+	 */
+	public Set<String> takeStaleDestinations() {
+		if (staleDestinations.isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		Set<String> stale = staleDestinations;
+		staleDestinations = new HashSet<String>();
+		return stale;
+	}
+
+	/**
+	 * Set the weight advertised for destination. A null weight removes it.
+	 *
+	 * @param destination
+	 * @param weight
+	 */
+	public void put(String destination, Double weight) {
+		Double oldWeight;
+		if (weight == null) {
+			oldWeight = advertised.remove(destination);
+		} else {
+			oldWeight = advertised.put(destination, weight);
+		}
+
+		if (oldWeight == null ? weight != null : !oldWeight.equals(weight)) {
+			serialized = null;
+		}
+	}
+
+	/**
+	 * @return A read only view of the advertised distance vector.
+	 */
+	public Map<String, Double> getDistanceVector() {
+		return unmodifiableAdvertised;
+	}
+
+	/**
+	 * @return The serialized distance vector, or null if the view has changed
+	 *         since it was last serialized.
+	 */
+	public String getSerialized() {
+		return serialized;
+	}
+
+	public void setSerialized(String serialized) {
+		this.serialized = serialized;
+	}
+}
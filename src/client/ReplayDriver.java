@@ -0,0 +1,144 @@
+package client;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Feeds a CaptureLog back into a Client, with no sockets: packets go
+ * straight to processPacket, and commands to a ClientReaderThread's
+ * processInput. The Client is put offline, so nothing it would have sent goes
+ * anywhere. Records are replayed either at the speed they were captured at,
+ * or as fast as the Client can take them.
+ *
+ * Run a capture against a build with
+ *
+ * java client.ReplayDriver config capture.bin [--max-speed]
+ *
+ * which prints the Client's metrics and convergence times once the capture
+ * has been replayed.
+ *
+ * The Client's own timers still run during a replay. Their route updates go
+ * nowhere, but they can still have links time out where the original run
+ * did. The command line runs the Client on a VirtualClock, as both its clock
+ * and its scheduler, which is moved on to the time each record was captured
+ * at before the record is fed in; so the timers fire at the same points in
+ * the capture every time, however fast it is replayed.
+ */
+public class ReplayDriver {
+	private final Client client;
+	private final boolean maxSpeed;
+	private final VirtualClock clock;
+	private final ClientReaderThread console;
+
+	/**
+	 * @param client
+	 *            The Client to replay into. It is put offline.
+	 * @param maxSpeed
+	 *            True to replay records back to back, rather than at the
+	 *            speed they were captured at.
+	 */
+	public ReplayDriver(Client client, boolean maxSpeed) {
+		this(client, maxSpeed, null);
+	}
+
+	/**
+	 * @param client
+	 *            The Client to replay into. It is put offline.
+	 * @param maxSpeed
+	 *            True to replay records back to back, rather than at the
+	 *            speed they were captured at.
+	 * @param clock
+	 *            The Client's clock and scheduler, advanced to each record's
+	 *            capture time before it is replayed; or null if the Client
+	 *            runs on real time.
+	 */
+	public ReplayDriver(Client client, boolean maxSpeed, VirtualClock clock) {
+		this.client = client;
+		this.maxSpeed = maxSpeed;
+		this.clock = clock;
+		this.console = new ClientReaderThread(client);
+		client.setOffline(true);
+	}
+
+	/**
+	 * Replay every record in log. A CLOSE command is skipped, since it would
+	 * end the replay (and, outside of tests, the JVM) early.
+	 *
+	 * @return The number of records replayed.
+	 */
+	public int replay(InputStream log) throws IOException,
+			InterruptedException {
+		CaptureLog.Reader reader = new CaptureLog.Reader(log);
+		long startNanos = System.nanoTime();
+		long startMillis = clock == null ? 0 : clock.currentTimeMillis();
+		int replayed = 0;
+
+		try {
+			CaptureLog.Record record;
+			while ((record = reader.next()) != null) {
+				if (!maxSpeed) {
+					long wait = record.getNanos()
+							- (System.nanoTime() - startNanos);
+					if (wait > 0) {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					}
+				}
+				if (clock != null) {
+					clock.advance(startMillis + record.getNanos() / 1000000
+							- clock.currentTimeMillis());
+				}
+
+				if (record.getType() == CaptureLog.PACKET) {
+					client.processPacket(record.getData(),
+							record.getData().length);
+				} else if (record.getType() == CaptureLog.COMMAND) {
+					String command = record.getCommand();
+					if (!command.trim().equalsIgnoreCase("close")) {
+						console.processInput(command);
+					}
+				} else {
+					Log.warn("Skipping capture record of unknown type {}",
+							record.getType());
+					continue;
+				}
+				replayed++;
+			}
+		} finally {
+			reader.close();
+		}
+
+		return replayed;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 3
+				|| (args.length == 3 && !args[2].equals("--max-speed"))) {
+			System.err.println("Usage: replay <config-file> <capture-file> "
+					+ "[--max-speed]");
+			System.exit(1);
+		}
+
+		VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+		Client client = new Client(args[0].trim(), false, clock,
+				new InMemoryNetwork().createTransport(), clock);
+		ReplayDriver driver = new ReplayDriver(client, args.length == 3, clock);
+
+		try {
+			long started = System.nanoTime();
+			int replayed = driver.replay(new FileInputStream(args[1].trim()));
+			long elapsedMillis = (System.nanoTime() - started) / 1000000;
+
+			Log.info("Replayed {} records in {} ms", replayed, elapsedMillis);
+			Log.flush();
+			System.out.print(client.getMetrics().describe());
+			System.out.print(client.getConvergenceTracker().describe());
+		} catch (IOException e) {
+			Log.error("Could not replay " + args[1], e);
+		} catch (InterruptedException e) {
+			Log.error("Replay interrupted", e);
+		}
+
+		client.close();
+	}
+}
@@ -0,0 +1,154 @@
+package client;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The candidate costs to a single destination, one per neighbor, where a
+ * neighbor's candidate cost is c(x, v) + d_v(y). Candidates are kept ordered
+ * by cost, so the Bellman-Ford minimum can be read off directly, and changing
+ * one neighbor's candidate costs O(log N) rather than a loop over every
+ * neighbor.
+ *
+ * A neighbor without a candidate is treated as having an infinite cost.
+ */
+public class RouteCandidates {
+	private Map<String, Candidate> byNeighbor = new HashMap<String, Candidate>();
+	private TreeSet<Candidate> byCost = new TreeSet<Candidate>();
+
+	/**
+	 * Set the candidate cost to this destination through neighbor.
+	 *
+	 * @param neighbor
+	 * @param cost
+	 * @return True if the candidate changed, false if it already had this
+	 *         cost.
+	 */
+	public boolean update(String neighbor, double cost) {
+		Candidate old = byNeighbor.get(neighbor);
+		if (old == null && cost == Double.POSITIVE_INFINITY) {
+			return false;
+		}
+		if (old != null && old.cost == cost) {
+			return false;
+		}
+
+		if (old != null) {
+			byCost.remove(old);
+			byNeighbor.remove(neighbor);
+		}
+		if (cost != Double.POSITIVE_INFINITY) {
+			Candidate candidate = new Candidate(neighbor, cost);
+			byNeighbor.put(neighbor, candidate);
+			byCost.add(candidate);
+		}
+
+		return true;
+	}
+
+	/**
+	 * The candidate cost to destination through neighbor, c(x, v) + d_v(y). A
+	 * neighbor is always at distance 0 from itself, whatever its distance
+	 * vector says.
+	 *
+	 * @param destination
+	 * @param neighbor
+	 * @param linkCost
+	 *            c(x, v)
+	 * @param neighborWeightToDestination
+	 *            d_v(y), or null if neighbor has no entry for destination.
+	 */
+	public static double costThrough(String destination, String neighbor,
+			double linkCost, Double neighborWeightToDestination) {
+		if (destination.equals(neighbor)) {
+			return linkCost;
+		} else if (neighborWeightToDestination == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return linkCost + neighborWeightToDestination;
+	}
+
+	/**
+	 * @return The neighbor with the cheapest candidate, or null if every
+	 *         candidate is infinite.
+	 */
+	public String getBestNeighbor() {
+		if (byCost.isEmpty()) {
+			return null;
+		}
+
+		return byCost.first().neighbor;
+	}
+
+	/**
+	 * @return The cheapest candidate cost, or Double.POSITIVE_INFINITY if
+	 *         there is none.
+	 */
+	public double getBestCost() {
+		if (byCost.isEmpty()) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return byCost.first().cost;
+	}
+
+	/**
+	 * @return The candidate cost through neighbor, or Double.POSITIVE_INFINITY
+	 *         if there is none.
+	 */
+	public double getCost(String neighbor) {
+		Candidate candidate = byNeighbor.get(neighbor);
+		if (candidate == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return candidate.cost;
+	}
+
+	/**
+	 * @return The neighbors that have a candidate, cheapest first.
+	 */
+	public Iterator<String> neighborsByCost() {
+		final Iterator<Candidate> candidates = byCost.iterator();
+
+		return new Iterator<String>() {
+			public boolean hasNext() {
+				return candidates.hasNext();
+			}
+
+			public String next() {
+				return candidates.next().neighbor;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+		private final String neighbor;
+		private final double cost;
+
+		private Candidate(String neighbor, double cost) {
+			this.neighbor = neighbor;
+			this.cost = cost;
+		}
+
+		/**
+		 * Order by cost, breaking ties by neighbor so that equal-cost
+		 * candidates from different neighbors can live in the same set.
+		 */
+		public int compareTo(Candidate other) {
+			int byCost = Double.compare(cost, other.cost);
+			if (byCost != 0) {
+				return byCost;
+			}
+
+			return neighbor.compareTo(other.neighbor);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package client;
+
+/**
+ * A single routing table entry: the next hop towards a destination (as a
+ * NodeIds id) and the cost of getting there. Entries are updated in place
+ * when a route changes, rather than being replaced.
+ *
+ * The version is a stamp of the last change to this entry. It is up to the
+ * owner of the entry to hand out increasing versions.
+ *
+ * An entry may also carry a backup next hop: a loop-free alternate that
+ * forwarding can switch to straight away if the link to the next hop fails.
+ * Changing the backup doesn't move the version on.
+ */
+public class RouteEntry {
+	private int nextHop;
+	private double cost;
+	private long version;
+	private int backupNextHop = NO_BACKUP;
+	private double backupCost = Double.POSITIVE_INFINITY;
+
+	/**
+	 * The backupNextHop of an entry without a backup.
+	 */
+	public static final int NO_BACKUP = -1;
+
+	public RouteEntry(int nextHop, double cost) {
+		this(nextHop, cost, 0);
+	}
+
+	public RouteEntry(int nextHop, double cost, long version) {
+		this.nextHop = nextHop;
+		this.cost = cost;
+		this.version = version;
+	}
+
+	/**
+	 * Copy constructor.
+	 */
+	public RouteEntry(RouteEntry other) {
+		this.nextHop = other.nextHop;
+		this.cost = other.cost;
+		this.version = other.version;
+		this.backupNextHop = other.backupNextHop;
+		this.backupCost = other.backupCost;
+	}
+
+	/**
+	 * Change this entry in place. The version is only moved on if the next
+	 * hop or cost actually changed.
+	 *
+	 * @param nextHop
+	 * @param cost
+	 * @param version
+	 * @return True if the entry changed.
+	 */
+	public boolean set(int nextHop, double cost, long version) {
+		if (this.nextHop == nextHop && this.cost == cost) {
+			return false;
+		}
+
+		this.nextHop = nextHop;
+		this.cost = cost;
+		this.version = version;
+		return true;
+	}
+
+	/**
+	 * Change this entry's backup next hop in place.
+	 *
+	 * @param backupNextHop
+	 *            NodeIds id of the backup, or NO_BACKUP
+	 * @param backupCost
+	 *            The cost to the destination through the backup
+	 * @return True if the backup changed.
+	 */
+	public boolean setBackup(int backupNextHop, double backupCost) {
+		if (this.backupNextHop == backupNextHop
+				&& this.backupCost == backupCost) {
+			return false;
+		}
+
+		this.backupNextHop = backupNextHop;
+		this.backupCost = backupCost;
+		return true;
+	}
+
+	public int getNextHop() {
+		return nextHop;
+	}
+
+	public double getCost() {
+		return cost;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int getBackupNextHop() {
+		return backupNextHop;
+	}
+
+	public double getBackupCost() {
+		return backupCost;
+	}
+}
@@ -0,0 +1,113 @@
+package client;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The routing algorithm a Client runs. An engine owns the Client's routes and
+ * link costs, decides what goes in the body of a __ROUTEUPDATE__ message, and
+ * what to do with one when it arrives. The Client owns everything else:
+ * sockets, timers, and the command line.
+ *
+ * Engines are not thread safe. The Client only calls into its engine while
+ * holding dvRTLock, except for getForwardingTable, which is safe to call from
+ * any thread.
+ */
+public interface RoutingEngine {
+	/**
+	 * Build the initial routes from the neighbors read in from the config
+	 * file.
+	 *
+	 * @param neighbors
+	 *            Map of <IPPort, weights> to neighbors
+	 */
+	public void initialize(Map<String, Double> neighbors);
+
+	/**
+	 * @param ipPort
+	 * @return True if ipPort is (or was) one of our direct links.
+	 */
+	public boolean hasLink(String ipPort);
+
+	/**
+	 * @param neighbor
+	 * @return The cost of our direct link to neighbor, or
+	 *         Double.POSITIVE_INFINITY if there is no such link.
+	 */
+	public double getLinkCost(String neighbor);
+
+	/**
+	 * Change the cost of our direct link to neighbor, and re-evaluate our
+	 * routes.
+	 *
+	 * @param neighbor
+	 * @param linkCost
+	 * @return True if our neighbors should be sent a __ROUTEUPDATE__.
+	 */
+	public boolean updateLinkCost(String neighbor, double linkCost);
+
+	/**
+	 * Handle the body of a __ROUTEUPDATE__ message from sender.
+	 *
+	 * @param sender
+	 * @param body
+	 * @return True if our neighbors should be sent a __ROUTEUPDATE__.
+	 */
+	public boolean processRouteUpdate(String sender, String body);
+
+	/**
+	 * @param neighbor
+	 * @return The body of the next __ROUTEUPDATE__ message for neighbor.
+	 */
+	public String createRouteUpdateBody(String neighbor);
+
+	/**
+	 * @param destination
+	 * @return The next hop towards destination, or null if destination is not
+	 *         in the routing table.
+	 */
+	public String getNextHop(String destination);
+
+	/**
+	 * @param nextHop
+	 * @return Every destination routed through nextHop.
+	 */
+	public Set<String> getDestinationsByNextHop(String nextHop);
+
+	/**
+	 * @return Every client used as a next hop.
+	 */
+	public Set<String> getNextHopClients();
+
+	public Map<String, RouteEntry> getRoutingTable();
+
+	public void setRoutingTable(Map<String, RouteEntry> routingTable);
+
+	/**
+	 * @return How many times a route has changed, so that callers can tell
+	 *         whether (and how many) routes a piece of work changed.
+	 */
+	public long getRoutingTableVersion();
+
+	/**
+	 * @return The ids that next hops in the routing table are interned as.
+	 */
+	public NodeIds getNodeIds();
+
+	/**
+	 * @return The most recently published copy of the routing table.
+	 */
+	public ForwardingTable getForwardingTable();
+
+	/**
+	 * @return The prefix length of the areas destinations outside our own are
+	 *         summarized into (see Areas), or 0 if they aren't. Like
+	 *         getForwardingTable, this is safe to call from any thread.
+	 */
+	public int getAreaPrefixLength();
+
+	/**
+	 * @return A printable dump of the engine's state, for the SHOWDV command.
+	 */
+	public String describe();
+}
@@ -0,0 +1,110 @@
+package client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for what a Client spends its time on. Record a
+ * running Client with e.g.
+ *
+ * jcmd <pid> JFR.start name=bellhop settings=profile filename=bellhop.jfr
+ *
+ * and the events show up under "BellHop" in JDK Mission Control, or through
+ * "jfr print --categories BellHop bellhop.jfr".
+ *
+ * While no recording is running, creating an event and calling begin/end on
+ * it is close to free, and shouldCommit is false, so the fields should only
+ * be filled in once shouldCommit has returned true. Stack traces are left out
+ * to keep recording cheap.
+ */
+public final class RoutingEvents {
+	private RoutingEvents() {
+	}
+
+	@Name("bellhop.PacketReceived")
+	@Label("Packet Received")
+	@Category({ "BellHop", "Network" })
+	@Description("A packet read off the socket, and how long handling it took")
+	@StackTrace(false)
+	public static final class PacketReceived extends Event {
+		@Label("Type")
+		public String type;
+
+		@Label("Sender")
+		public String sender;
+
+		@Label("Size")
+		@DataAmount
+		public int bytes;
+	}
+
+	@Name("bellhop.RouteRecompute")
+	@Label("Route Recompute")
+	@Category({ "BellHop", "Routing" })
+	@Description("A routing engine recomputing its routes, after a route update or a link cost change")
+	@StackTrace(false)
+	public static final class RouteRecompute extends Event {
+		/*
+		 * Who sent the route update, or the neighbor at the other end of the
+		 * link whose cost changed
+		 */
+		@Label("Sender")
+		public String sender;
+
+		// The destinations whose routes were re-evaluated
+		@Label("Destinations Touched")
+		public int destinationsTouched;
+
+		@Label("Routes Changed")
+		public long routesChanged;
+
+		// Whether there is anything new to send the neighbors
+		@Label("Changed")
+		public boolean changed;
+	}
+
+	@Name("bellhop.RouteUpdateFanOut")
+	@Label("Route Update Fan Out")
+	@Category({ "BellHop", "Routing" })
+	@Description("Sending a __ROUTEUPDATE__ to every neighbor")
+	@StackTrace(false)
+	public static final class RouteUpdateFanOut extends Event {
+		@Label("Neighbors")
+		public int neighbors;
+
+		@Label("Updates Sent")
+		public int sent;
+	}
+
+	@Name("bellhop.TransferSegment")
+	@Label("Transfer Segment")
+	@Category({ "BellHop", "Transfer" })
+	@Description("A chunk being sent, forwarded, or delivered")
+	@StackTrace(false)
+	public static final class TransferSegment extends Event {
+		public static final String SEND = "send";
+		public static final String FORWARD = "forward";
+		public static final String DELIVER = "deliver";
+
+		@Label("Action")
+		public String action;
+
+		@Label("Destination")
+		public String destination;
+
+		@Label("Next Hop")
+		public String nextHop;
+
+		@Label("Sequence Number")
+		public int sequenceNumber;
+
+		@Label("Size")
+		@DataAmount
+		public int bytes;
+	}
+}
@@ -0,0 +1,21 @@
+package client;
+
+/**
+ * Sends a Client's neighbors a __HELLO__ every hello interval, so that they
+ * can tell it is still alive without waiting for its next __ROUTEUPDATE__.
+ */
+public class SendHelloTask implements Runnable {
+	private Client client;
+
+	public SendHelloTask(Client client) {
+		this.client = client;
+	}
+
+	public void run() {
+		try {
+			client.sendHellos();
+		} catch (RuntimeException e) {
+			Log.error("Error sending __HELLO__ messages", e);
+		}
+	}
+}
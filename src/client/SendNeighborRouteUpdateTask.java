@@ -1,22 +1,33 @@
 package client;
 
-import java.util.TimerTask;
-
-public class SendNeighborRouteUpdateTask extends TimerTask {
+/**
+ * Sends one neighbor its periodic __ROUTEUPDATE__. Sending the update
+ * schedules the next one, with fresh jitter.
+ */
+public class SendNeighborRouteUpdateTask implements Runnable {
 	private Client client;
+	private String neighbor;
 	
-	public SendNeighborRouteUpdateTask(Client client) {
-		super();
-		
+	public SendNeighborRouteUpdateTask(Client client, String neighbor) {
 		this.client = client;
+		this.neighbor = neighbor;
 	}
 	
 	/**
-	 * When timeout (parameter of Client class) expires on the Timer registered 
-	 * to this task, remove the link associated with neighbor.
+	 * About every timeout (parameter of Client class), send neighbor a
+	 * __ROUTEUPDATE__. An exception escaping the task would leave neighbor
+	 * without periodic updates, so it is reported and the next update is
+	 * scheduled anyway.
 	 */
 	public void run() {
-		client.sendRouteUpdates();
+		try {
+			client.sendRouteUpdate(neighbor);
+		} catch (RuntimeException e) {
+			Log.error("Error sending periodic __ROUTEUPDATE__ "
+					+ "message to " + neighbor, e);
+		} finally {
+			client.scheduleRouteUpdate(neighbor);
+		}
 	}
 
 }
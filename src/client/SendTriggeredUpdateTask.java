@@ -0,0 +1,21 @@
+package client;
+
+/**
+ * Sends a Client's neighbors the triggered __ROUTEUPDATE__ that
+ * Client.scheduleTriggeredUpdate put off, with every route change made since.
+ */
+public class SendTriggeredUpdateTask implements Runnable {
+	private Client client;
+
+	public SendTriggeredUpdateTask(Client client) {
+		this.client = client;
+	}
+
+	public void run() {
+		try {
+			client.sendTriggeredUpdate();
+		} catch (RuntimeException e) {
+			Log.error("Error sending triggered __ROUTEUPDATE__ messages", e);
+		}
+	}
+}
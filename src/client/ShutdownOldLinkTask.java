@@ -1,28 +1,27 @@
 package client;
 
-import java.util.TimerTask;
-
-public class ShutdownOldLinkTask extends TimerTask {
+/**
+ * Periodically takes down the links to every neighbor that the Client's
+ * FailureDetector suspects of having failed. One task covers all of a
+ * Client's neighbors.
+ */
+public class ShutdownOldLinkTask implements Runnable {
 
 	private Client client;
-	private String ip;
-	private int portNum;
 	
-	public ShutdownOldLinkTask(Client client, String neighbor) {
-		super();
-		
+	public ShutdownOldLinkTask(Client client) {
 		this.client = client;
-		String[] neighborArgs = neighbor.split(":");
-		
-		this.ip = neighborArgs[0];
-		this.portNum = Integer.parseInt(neighborArgs[1]);
 	}
 	
 	/**
-	 * When timeout (parameter of Client class) expires on the Timer registered 
-	 * to this task, remove the link associated with neighbor.
+	 * Every timeout (parameter of Client class), sweep the Client's
+	 * neighbors for links that have gone quiet.
 	 */
 	public void run() {
-		client.linkdown(ip, portNum, false);
+		try {
+			client.shutDownSuspectedLinks();
+		} catch (RuntimeException e) {
+			Log.error("Error taking down suspected links", e);
+		}
 	}
 }
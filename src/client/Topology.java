@@ -0,0 +1,277 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * An undirected, weighted graph of numbered nodes, for NetworkSimulator to
+ * build a network of Clients from. Node i becomes the Client listening on
+ * 0.0.0.0:(basePort + i), and configFor writes out the config file that
+ * Client would be started with.
+ *
+ * Ring, grid, random and scale-free topologies can be generated, all with
+ * links of weight 1 until randomizeWeights is called. Generators that take a
+ * Random are reproducible from its seed.
+ */
+public class Topology {
+	private final int size;
+	private final List<Link> links = new ArrayList<Link>();
+	private final Set<Long> linked = new HashSet<Long>();
+
+	public Topology(int size) {
+		if (size < 2) {
+			throw new IllegalArgumentException("A topology needs at least "
+					+ "two nodes");
+		}
+		this.size = size;
+	}
+
+	/**
+	 * @return Nodes 0..size-1, each linked to the next and the last to the
+	 *         first.
+	 */
+	public static Topology ring(int size) {
+		Topology ring = new Topology(size);
+		for (int i = 0; i < size; i++) {
+			ring.addLink(i, (i + 1) % size, 1.0);
+		}
+
+		return ring;
+	}
+
+	/**
+	 * @return A rows by columns mesh, where node r * columns + c is linked to
+	 *         the nodes above, below, left and right of it.
+	 */
+	public static Topology grid(int rows, int columns) {
+		Topology grid = new Topology(rows * columns);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				int node = r * columns + c;
+				if (c + 1 < columns) {
+					grid.addLink(node, node + 1, 1.0);
+				}
+				if (r + 1 < rows) {
+					grid.addLink(node, node + columns, 1.0);
+				}
+			}
+		}
+
+		return grid;
+	}
+
+	/**
+	 * A connected random graph: a random spanning tree, with further links
+	 * added between random pairs of nodes until the average degree is
+	 * averageDegree (or the graph is complete).
+	 */
+	public static Topology random(int size, double averageDegree,
+			Random random) {
+		Topology graph = new Topology(size);
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < size; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, random);
+		for (int i = 1; i < size; i++) {
+			graph.addLink(order.get(i), order.get(random.nextInt(i)), 1.0);
+		}
+
+		long wanted = Math.min((long) (averageDegree * size / 2),
+				(long) size * (size - 1) / 2);
+		while (graph.links.size() < wanted) {
+			int a = random.nextInt(size);
+			int b = random.nextInt(size);
+			if (a != b && !graph.hasLink(a, b)) {
+				graph.addLink(a, b, 1.0);
+			}
+		}
+
+		return graph;
+	}
+
+	/**
+	 * A Barabasi-Albert scale-free graph: starting from a clique of
+	 * linksPerNode + 1 nodes, each new node is linked to linksPerNode
+	 * existing nodes, chosen with probability proportional to their degree.
+	 * A few nodes end up as well connected hubs.
+	 */
+	public static Topology scaleFree(int size, int linksPerNode, Random random) {
+		if (linksPerNode < 1 || linksPerNode >= size) {
+			throw new IllegalArgumentException("linksPerNode must be between "
+					+ "1 and size - 1");
+		}
+
+		Topology graph = new Topology(size);
+		// Every link's two ends, so that picking uniformly from this list
+		// picks a node in proportion to its degree
+		List<Integer> ends = new ArrayList<Integer>();
+		for (int a = 0; a <= linksPerNode; a++) {
+			for (int b = a + 1; b <= linksPerNode; b++) {
+				graph.addLink(a, b, 1.0);
+				ends.add(a);
+				ends.add(b);
+			}
+		}
+
+		for (int node = linksPerNode + 1; node < size; node++) {
+			Set<Integer> targets = new HashSet<Integer>();
+			while (targets.size() < linksPerNode) {
+				targets.add(ends.get(random.nextInt(ends.size())));
+			}
+			for (int target : targets) {
+				graph.addLink(node, target, 1.0);
+				ends.add(node);
+				ends.add(target);
+			}
+		}
+
+		return graph;
+	}
+
+	/**
+	 * Build a topology from a spec, as given to NetworkSimulator on the
+	 * command line:
+	 *
+	 * ring:size | grid:rowsxcolumns | random:size:averageDegree |
+	 * scale-free:size:linksPerNode
+	 *
+	 * @throws IllegalArgumentException
+	 *             If spec isn't one of these.
+	 */
+	public static Topology parse(String spec, Random random)
+			throws IllegalArgumentException {
+		String[] parts = spec.trim().toLowerCase().split(":");
+		try {
+			if (parts[0].equals("ring") && parts.length == 2) {
+				return ring(Integer.parseInt(parts[1]));
+			} else if (parts[0].equals("grid") && parts.length == 2) {
+				String[] dimensions = parts[1].split("x");
+				if (dimensions.length == 2) {
+					return grid(Integer.parseInt(dimensions[0]),
+							Integer.parseInt(dimensions[1]));
+				}
+			} else if (parts[0].equals("random") && parts.length == 3) {
+				return random(Integer.parseInt(parts[1]),
+						Double.parseDouble(parts[2]), random);
+			} else if (parts[0].equals("scale-free") && parts.length == 3) {
+				return scaleFree(Integer.parseInt(parts[1]),
+						Integer.parseInt(parts[2]), random);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad topology: " + spec);
+		}
+
+		throw new IllegalArgumentException("Bad topology: " + spec);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If a and b are the same node, or are already linked.
+	 */
+	public void addLink(int a, int b, double weight)
+			throws IllegalArgumentException {
+		if (a == b || a < 0 || b < 0 || a >= size || b >= size) {
+			throw new IllegalArgumentException("Bad link " + a + "-" + b);
+		}
+		if (!linked.add(key(a, b))) {
+			throw new IllegalArgumentException("Nodes " + a + " and " + b
+					+ " are already linked");
+		}
+
+		links.add(new Link(a, b, weight));
+	}
+
+	public boolean hasLink(int a, int b) {
+		return linked.contains(key(a, b));
+	}
+
+	/**
+	 * Give every link a whole number weight from 1 to maxWeight, at random.
+	 */
+	public void randomizeWeights(int maxWeight, Random random) {
+		for (int i = 0; i < links.size(); i++) {
+			Link link = links.get(i);
+			links.set(i, new Link(link.a, link.b, 1 + random.nextInt(maxWeight)));
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public List<Link> getLinks() {
+		return Collections.unmodifiableList(links);
+	}
+
+	/**
+	 * @return The id of node's Client, when node 0 listens on basePort.
+	 */
+	public static String nodeId(int node, int basePort) {
+		return "0.0.0.0:" + (basePort + node);
+	}
+
+	/**
+	 * @return The contents of node's Client config file: its port and
+	 *         timeout, then one "IP:Port weight" line per neighbor.
+	 */
+	public String configFor(int node, int basePort, int timeout) {
+		StringBuilder config = new StringBuilder();
+		config.append(basePort + node).append(' ').append(timeout)
+				.append('\n');
+		for (Link link : links) {
+			if (link.a == node || link.b == node) {
+				config.append(nodeId(link.other(node), basePort)).append(' ')
+						.append(link.weight).append('\n');
+			}
+		}
+
+		return config.toString();
+	}
+
+	private long key(int a, int b) {
+		return (long) Math.min(a, b) * size + Math.max(a, b);
+	}
+
+	/**
+	 * A link between nodes a and b.
+	 */
+	public static final class Link {
+		private final int a;
+		private final int b;
+		private final double weight;
+
+		public Link(int a, int b, double weight) {
+			this.a = a;
+			this.b = b;
+			this.weight = weight;
+		}
+
+		public int getA() {
+			return a;
+		}
+
+		public int getB() {
+			return b;
+		}
+
+		public double getWeight() {
+			return weight;
+		}
+
+		/**
+		 * @return The node at the other end of this link from node.
+		 */
+		public int other(int node) {
+			return node == a ? b : a;
+		}
+
+		public String toString() {
+			return a + "-" + b + " (" + weight + ")";
+		}
+	}
+}
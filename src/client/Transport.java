@@ -0,0 +1,52 @@
+package client;
+
+import java.io.IOException;
+
+/**
+ * How a Client's packets get to and from other nodes. A Client only ever
+ * addresses other nodes by their IP:Port node ids; the transport decides what
+ * that means. UdpTransport sends real datagrams, and InMemoryTransport hands
+ * packets to other Clients in the same JVM.
+ */
+public interface Transport {
+	/**
+	 * Called with every packet that arrives for the local node.
+	 */
+	public interface Receiver {
+		/**
+		 * @param data
+		 * @param length
+		 *            Number of bytes of data that make up the packet
+		 * @throws IOException
+		 *             If handling the packet fails in a way the transport
+		 *             should report.
+		 */
+		public void receive(byte[] data, int length) throws IOException;
+	}
+
+	/**
+	 * Start delivering packets addressed to localId to receiver.
+	 * 
+	 * @param localId
+	 *            IP:Port of the local node
+	 * @param receiver
+	 * @throws IOException
+	 *             If the transport can't listen as localId.
+	 */
+	public void start(String localId, Receiver receiver) throws IOException;
+
+	/**
+	 * Send a packet to the node with id destination. Delivery isn't
+	 * guaranteed, as with UDP, and failures are logged rather than thrown.
+	 * 
+	 * @param destination
+	 *            IP:Port of the receiving node
+	 * @param data
+	 */
+	public void send(String destination, byte[] data);
+
+	/**
+	 * Stop sending and receiving, and let go of any resources held.
+	 */
+	public void close();
+}
@@ -0,0 +1,94 @@
+package client;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The real network: packets are UDP datagrams. Each destination gets its own
+ * ClientDatagramSender, created the first time something is sent to it, and
+ * packets for the local node are read off a socket bound to its IP:Port by a
+ * dedicated receive thread.
+ */
+public class UdpTransport implements Transport {
+	private static final int MAX_PACKET = 64000;
+
+	private ConcurrentMap<String, ClientDatagramSender> senders = new ConcurrentHashMap<String, ClientDatagramSender>();
+	private volatile DatagramSocket socket = null;
+
+	/**
+	 * Bind to localId, and start a thread that hands every datagram that
+	 * arrives to receiver. If receiving or handling a packet fails with an
+	 * IOException, the error is logged and the application exits, as there
+	 * is no way to carry on without the socket.
+	 */
+	public void start(final String localId, final Receiver receiver)
+			throws IOException {
+		String[] ipAndPort = localId.split(":");
+		final InetSocketAddress address = new InetSocketAddress(ipAndPort[0],
+				Integer.parseInt(ipAndPort[1]));
+		socket = new DatagramSocket(address);
+
+		Thread receiveThread = new Thread(new Runnable() {
+			public void run() {
+				DatagramSocket listening = socket;
+				try {
+					while (true) {
+						byte[] data = new byte[MAX_PACKET];
+						DatagramPacket packet = new DatagramPacket(data,
+								data.length, address);
+						listening.receive(packet);
+
+						receiver.receive(packet.getData(), packet.getLength());
+					}
+				} catch (IOException e) {
+					if (listening.isClosed()) {
+						return;
+					}
+					Log.error("There was an error performing IO, either "
+							+ "while listening on " + localId
+							+ ", or sending a datagram. Closing the "
+							+ "application now.", e);
+					Log.flush();
+					System.exit(1);
+				}
+			}
+		}, "bellhop-receive");
+		receiveThread.start();
+	}
+
+	public void send(String destination, byte[] data) {
+		ClientDatagramSender sender = senders.get(destination);
+		if (sender == null) {
+			// Cheap to create, since the socket is only opened on first send
+			ClientDatagramSender created = new ClientDatagramSender(
+					destination);
+			sender = senders.putIfAbsent(destination, created);
+			if (sender == null) {
+				sender = created;
+			}
+		}
+
+		sender.sendPacketToNeighbor(data);
+	}
+
+	public void close() {
+		if (socket != null) {
+			socket.close();
+		}
+		for (ClientDatagramSender sender : senders.values()) {
+			sender.close();
+		}
+		senders.clear();
+	}
+
+	/**
+	 * @return The socket packets are received on, or null if not started.
+	 */
+	public DatagramSocket getSocket() {
+		return socket;
+	}
+}
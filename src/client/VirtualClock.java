@@ -0,0 +1,326 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Clock that only moves when it is told to, and a ScheduledExecutorService
+ * whose tasks run when the clock reaches them. Give one to a Client as both
+ * its scheduler and its clock, and its timers (route updates, link timeouts,
+ * hellos) fire as the clock is advanced, on the thread advancing it, without
+ * anyone having to wait.
+ *
+ * Tasks run in order of the time they are due, and tasks due at the same
+ * time run in the order they were scheduled, so a run driven from one thread
+ * is fully deterministic. Time is kept to the millisecond.
+ *
+ * Cancelled tasks are left in the queue, and skipped, until they make up
+ * half of it; Clients cancel and reschedule a route update timer with every
+ * update they send, so removing each one straight away would cost a scan of
+ * the queue per update. Unlike a ScheduledThreadPoolExecutor, a VirtualClock
+ * drops every pending task when it is shut down.
+ */
+public class VirtualClock extends AbstractExecutorService implements
+		ScheduledExecutorService, Clock {
+	private PriorityQueue<Task<?>> tasks = new PriorityQueue<Task<?>>();
+	private int cancelled = 0;
+	private long now;
+	private long nextSequence = 0;
+	private boolean shutdown = false;
+
+	/**
+	 * A clock starting at the epoch.
+	 */
+	public VirtualClock() {
+		this(0);
+	}
+
+	public VirtualClock(long startMillis) {
+		this.now = startMillis;
+	}
+
+	public synchronized long currentTimeMillis() {
+		return now;
+	}
+
+	/**
+	 * Move the clock forward by millis, running every task that falls due on
+	 * the way, each with the clock set to when it was due.
+	 *
+	 * @return The number of tasks run.
+	 */
+	public int advance(long millis) {
+		long until;
+		synchronized (this) {
+			until = now + millis;
+		}
+
+		int run = 0;
+		while (runNext(until)) {
+			run++;
+		}
+		synchronized (this) {
+			now = Math.max(now, until);
+		}
+
+		return run;
+	}
+
+	/**
+	 * Run the next task, if it is due no later than deadline, first moving
+	 * the clock on to when it is due.
+	 *
+	 * @return False if there was no such task.
+	 */
+	public boolean runNext(long deadline) {
+		Task<?> next;
+		synchronized (this) {
+			next = peek();
+			if (next == null || next.time > deadline) {
+				return false;
+			}
+
+			tasks.poll();
+			next.queued = false;
+			now = Math.max(now, next.time);
+		}
+
+		next.run();
+		return true;
+	}
+
+	/**
+	 * @return When the next task is due, or -1 if there are none.
+	 */
+	public synchronized long getNextTaskMillis() {
+		Task<?> next = peek();
+		return next == null ? -1 : next.time;
+	}
+
+	/**
+	 * @return The number of tasks waiting to run, periodic ones included.
+	 */
+	public synchronized int getTaskCount() {
+		return tasks.size() - cancelled;
+	}
+
+	/**
+	 * @return The next task that hasn't been cancelled, dropping any
+	 *         cancelled ones ahead of it. Call with the clock locked.
+	 */
+	private Task<?> peek() {
+		Task<?> next = tasks.peek();
+		while (next != null && next.isCancelled()) {
+			tasks.poll();
+			next.queued = false;
+			cancelled--;
+			next = tasks.peek();
+		}
+
+		return next;
+	}
+
+	public ScheduledFuture<?> schedule(Runnable command, long delay,
+			TimeUnit unit) {
+		return schedule(Executors.callable(command), delay, unit);
+	}
+
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay,
+			TimeUnit unit) {
+		Task<V> task = new Task<V>(callable, 0);
+		enqueue(task, unit.toMillis(delay));
+
+		return task;
+	}
+
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+			long initialDelay, long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException();
+		}
+
+		Task<Object> task = new Task<Object>(Executors.callable(command),
+				unit.toMillis(period));
+		enqueue(task, unit.toMillis(initialDelay));
+
+		return task;
+	}
+
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+			long initialDelay, long delay, TimeUnit unit) {
+		if (delay <= 0) {
+			throw new IllegalArgumentException();
+		}
+
+		Task<Object> task = new Task<Object>(Executors.callable(command),
+				-unit.toMillis(delay));
+		enqueue(task, unit.toMillis(initialDelay));
+
+		return task;
+	}
+
+	/**
+	 * Run command the next time the clock is advanced, without moving it on.
+	 */
+	public void execute(Runnable command) {
+		schedule(command, 0, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void enqueue(Task<?> task, long delayMillis) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Clock has been shut down");
+		}
+
+		task.time = now + Math.max(delayMillis, 0);
+		task.sequence = nextSequence++;
+		task.queued = true;
+		tasks.add(task);
+	}
+
+	private synchronized void requeue(Task<?> task) {
+		if (shutdown || task.isCancelled()) {
+			return;
+		}
+
+		task.time = task.period > 0 ? task.time + task.period : now
+				- task.period;
+		task.sequence = nextSequence++;
+		task.queued = true;
+		tasks.add(task);
+	}
+
+	/**
+	 * Note that a queued task has been cancelled, and purge the queue of
+	 * cancelled tasks once they make up half of it.
+	 */
+	private synchronized void noteCancelled(Task<?> task) {
+		if (!task.queued) {
+			return;
+		}
+
+		cancelled++;
+		if (cancelled > 64 && cancelled > tasks.size() / 2) {
+			PriorityQueue<Task<?>> live = new PriorityQueue<Task<?>>(
+					Math.max(tasks.size() - cancelled, 1));
+			for (Task<?> queued : tasks) {
+				if (queued.isCancelled()) {
+					queued.queued = false;
+				} else {
+					live.add(queued);
+				}
+			}
+			tasks = live;
+			cancelled = 0;
+		}
+	}
+
+	/**
+	 * Drop every pending task, as shutdownNow does, but without building a
+	 * list of them, so that it can be called with little memory to spare.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		for (Task<?> task : tasks) {
+			task.queued = false;
+		}
+		tasks.clear();
+		cancelled = 0;
+	}
+
+	public synchronized List<Runnable> shutdownNow() {
+		shutdown = true;
+		List<Runnable> pending = new ArrayList<Runnable>();
+		for (Task<?> task : tasks) {
+			task.queued = false;
+			if (!task.isCancelled()) {
+				pending.add(task);
+			}
+		}
+		tasks.clear();
+		cancelled = 0;
+
+		return pending;
+	}
+
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	public synchronized boolean isTerminated() {
+		return shutdown;
+	}
+
+	/**
+	 * Nothing runs unless the clock is advanced, so there is never anything
+	 * to wait for.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return isTerminated();
+	}
+
+	/**
+	 * A task, due at time. period is 0 for a one shot task, positive for a
+	 * fixed rate and negative for a fixed delay.
+	 */
+	private final class Task<V> extends FutureTask<V> implements
+			ScheduledFuture<V> {
+		private final long period;
+		private long time;
+		private long sequence;
+		private boolean queued = false;
+
+		private Task(Callable<V> callable, long period) {
+			super(callable);
+			this.period = period;
+		}
+
+		public void run() {
+			if (period == 0) {
+				super.run();
+			} else if (runAndReset()) {
+				requeue(this);
+			}
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean wasCancelled = super.cancel(mayInterruptIfRunning);
+			if (wasCancelled) {
+				noteCancelled(this);
+			}
+
+			return wasCancelled;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - currentTimeMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+
+		public int compareTo(Delayed other) {
+			if (other == this) {
+				return 0;
+			}
+			if (other instanceof Task) {
+				Task<?> task = (Task<?>) other;
+				if (time != task.time) {
+					return time < task.time ? -1 : 1;
+				}
+				return sequence < task.sequence ? -1 : 1;
+			}
+
+			long difference = getDelay(TimeUnit.MILLISECONDS)
+					- other.getDelay(TimeUnit.MILLISECONDS);
+			return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+		}
+	}
+}
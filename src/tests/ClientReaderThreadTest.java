@@ -36,6 +36,8 @@ public class ClientReaderThreadTest {
 		assertTrue(realThread.processInput("linkup 74.73.139.233 7881 3.8"));
 		assertTrue(realThread.processInput("close"));
 		assertTrue(realThread.processInput("showrt"));
+		assertTrue(realThread.processInput("stats"));
+		assertTrue(realThread.processInput("convergence"));
 
 		// Assert incorrect commands return false
 		assertFalse(realThread.processInput(null));
@@ -50,5 +52,6 @@ public class ClientReaderThreadTest {
 		assertFalse(realThread.processInput("linkup 74.73.139.233 7881 3.8"));
 		assertFalse(realThread.processInput("close 74.73.139.233"));
 		assertFalse(realThread.processInput("showrt k"));
+		assertFalse(realThread.processInput("stats k"));
 	}
 }
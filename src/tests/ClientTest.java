@@ -3,16 +3,36 @@ package tests;
 import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StreamCorruptedException;
 import java.net.BindException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.IllegalFormatException;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ReflectionException;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -20,7 +40,27 @@ import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import client.CaptureLog;
 import client.Client;
+import client.ClientOptions;
+import client.ConvergenceTracker;
+import client.DistanceVectorEngine;
+import client.FaultInjectingTransport;
+import client.FailureDetector;
+import client.ForwardingTable;
+import client.Histogram;
+import client.InMemoryNetwork;
+import client.LinkStateEngine;
+import client.Log;
+import client.Metrics;
+import client.NetworkSimulator;
+import client.NodeIds;
+import client.PathSummary;
+import client.ReplayDriver;
+import client.RouteEntry;
+import client.Topology;
+import client.Transport;
+import client.VirtualClock;
 
 @SuppressWarnings("unused")
 public class ClientTest {
@@ -309,29 +349,29 @@ public class ClientTest {
 		 * Should have routing table with entries: <neighbor1, { neighbor1, 1.4
 		 * }> <neighbor2, { neighbor2, 2.3 }> <neighbor3, { neighbor3, 10.0 }>
 		 */
-		Map<String, String[]> table1 = new TreeMap<String, String[]>();
+		Map<String, RouteEntry> table1 = new TreeMap<String, RouteEntry>();
 		table1 = clientThreeNeighbors.createRoutingTableInitialDV();
 
 		String clientID = clientThreeNeighbors.getLocalClientID();
 		assertTrue(table1.get(clientID) != null);
-		String[] localEntry = table1.get(clientID);
-		assertEquals(localEntry[0], clientID);
-		assertTrue(Double.parseDouble(localEntry[1]) == 0.0);
+		RouteEntry localEntry = table1.get(clientID);
+		assertEquals(nextHop(clientThreeNeighbors, localEntry), clientID);
+		assertTrue(localEntry.getCost() == 0.0);
 
 		assertTrue(table1.get(neighbor1) != null);
-		String[] neighbor1Entry = table1.get(neighbor1);
-		assertEquals(neighbor1Entry[0], neighbor1);
-		assertTrue(Double.parseDouble(neighbor1Entry[1]) == 1.4);
+		RouteEntry neighbor1Entry = table1.get(neighbor1);
+		assertEquals(nextHop(clientThreeNeighbors, neighbor1Entry), neighbor1);
+		assertTrue(neighbor1Entry.getCost() == 1.4);
 
 		assertTrue(table1.get(neighbor2) != null);
-		String[] neighbor2Entry = table1.get(neighbor2);
-		assertEquals(neighbor2Entry[0], neighbor2);
-		assertTrue(Double.parseDouble(neighbor2Entry[1]) == 2.3);
+		RouteEntry neighbor2Entry = table1.get(neighbor2);
+		assertEquals(nextHop(clientThreeNeighbors, neighbor2Entry), neighbor2);
+		assertTrue(neighbor2Entry.getCost() == 2.3);
 
 		assertTrue(table1.get(neighbor3) != null);
-		String[] neighbor3Entry = table1.get(neighbor3);
-		assertEquals(neighbor3Entry[0], neighbor3);
-		assertTrue(Double.parseDouble(neighbor3Entry[1]) == 10.0);
+		RouteEntry neighbor3Entry = table1.get(neighbor3);
+		assertEquals(nextHop(clientThreeNeighbors, neighbor3Entry), neighbor3);
+		assertTrue(neighbor3Entry.getCost() == 10.0);
 	}
 
 	@Test
@@ -354,7 +394,7 @@ public class ClientTest {
 
 		Map<String, Map<String, Double>> newDV = clientNormal
 				.getDistanceVector();
-		Map<String, String[]> newRT = clientNormal.getRoutingTable();
+		Map<String, RouteEntry> newRT = clientNormal.getRoutingTable();
 
 		/* ************************************************
 		 * Tests for adding neighbor2 from neighbor1's DV:
@@ -381,18 +421,18 @@ public class ClientTest {
 		 * Test that routing table has correct next hops and weights
 		 */
 		// First test next hops:
-		String[] normalEntry = newRT.get(clientNormalID);
-		String[] neighbor1Entry = newRT.get(neighbor1);
-		String[] neighbor2Entry = newRT.get(neighbor2);
+		RouteEntry normalEntry = newRT.get(clientNormalID);
+		RouteEntry neighbor1Entry = newRT.get(neighbor1);
+		RouteEntry neighbor2Entry = newRT.get(neighbor2);
 
-		assertEquals(normalEntry[0], clientNormalID);
-		assertEquals(neighbor1Entry[0], neighbor1);
-		assertEquals(neighbor2Entry[0], neighbor1);
+		assertEquals(nextHop(clientNormal, normalEntry), clientNormalID);
+		assertEquals(nextHop(clientNormal, neighbor1Entry), neighbor1);
+		assertEquals(nextHop(clientNormal, neighbor2Entry), neighbor1);
 
 		// Now test weights:
-		assertTrue(Double.parseDouble(normalEntry[1]) == 0.0);
-		assertTrue(Double.parseDouble(neighbor1Entry[1]) == 1.4);
-		assertTrue(Double.parseDouble(neighbor2Entry[1]) == 4.0);
+		assertTrue(normalEntry.getCost() == 0.0);
+		assertTrue(neighbor1Entry.getCost() == 1.4);
+		assertTrue(neighbor2Entry.getCost() == 4.0);
 
 		/* ******************************************
 		 * Test that if neighbor1's weight changes, so does local DV & RT
@@ -417,10 +457,10 @@ public class ClientTest {
 		assertTrue(newDV.get(clientNormalID).get(neighbor2) == 15.0);
 
 		// Test that weight in RT is correct:
-		assertTrue(Double.parseDouble(neighbor2Entry[1]) == 15.0);
+		assertTrue(neighbor2Entry.getCost() == 15.0);
 
 		// Test that predecessor is still neighbor1:
-		assertEquals(neighbor2Entry[0], neighbor1);
+		assertEquals(nextHop(clientNormal, neighbor2Entry), neighbor1);
 
 		/* ****************************************************
 		 * Test that changing local weight to neighbor1 also affect's
@@ -450,7 +490,7 @@ public class ClientTest {
 		assertTrue(newDV.get(neighbor1).get(neighbor1) == 0.0);
 		assertTrue(newDV.get(neighbor1).get(neighbor2) == 13.6);
 
-		assertTrue(Double.parseDouble(neighbor2Entry[1]) == 27.0);
+		assertTrue(neighbor2Entry.getCost() == 27.0);
 
 		/* **************************************************
 		 * Test that when a neighbor obtains a shorter path * to another
@@ -472,7 +512,7 @@ public class ClientTest {
 						neighbor1, dvCloserTo3);
 		newDV = clientThreeNeighbors.getDistanceVector();
 		newRT = clientThreeNeighbors.getRoutingTable();
-		String[] neighbor3Entry = newRT.get(neighbor3);
+		RouteEntry neighbor3Entry = newRT.get(neighbor3);
 
 		// Test that local DV has correct weights
 		assertTrue(newDV.get(clientThreeID).get(clientThreeID) == 0.0);
@@ -487,8 +527,97 @@ public class ClientTest {
 		assertTrue(newDV.get(neighbor1).get(neighbor3) == 1.0);
 
 		// Test that RT has correct nextHop and weights
-		assertEquals(neighbor3Entry[0], neighbor1);
-		assertTrue(Double.parseDouble(neighbor3Entry[1]) == 2.4);
+		assertEquals(nextHop(clientThreeNeighbors, neighbor3Entry), neighbor1);
+		assertTrue(neighbor3Entry.getCost() == 2.4);
+	}
+
+	@Test
+	public void testUpdateOnlyReportsChangesToLocalDV() {
+		Map<String, Double> otherDV = giveClientNormalDVAndRTWithNewNeighbor();
+
+		/*
+		 * Receiving the same DV again changes nothing, so no __ROUTEUPDATE__
+		 * needs to be triggered.
+		 */
+		assertFalse(clientNormal
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, new TreeMap<String, Double>(otherDV)));
+
+		/*
+		 * A change in neighbor1's cost to neighbor2 is reflected locally, and
+		 * leaves the other routes alone.
+		 */
+		otherDV.put(neighbor2, 1.6);
+		assertTrue(clientNormal
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, otherDV));
+		assertTrue(clientNormal.getDistanceVector().get(clientNormalID)
+				.get(neighbor2) == 3.0);
+		assertTrue(clientNormal.distanceVectorHasWeight(neighbor1, 1.4));
+		assertEquals(neighbor1, nextHop(clientNormal, clientNormal.getRoutingTable().get(neighbor2)));
+	}
+
+	@Test
+	public void testForwardingTableIsPublishedAfterUpdate() {
+		ForwardingTable before = clientNormal.getForwardingTable();
+		assertFalse(before.contains(neighbor2));
+
+		giveClientNormalDVAndRTWithNewNeighbor();
+
+		ForwardingTable after = clientNormal.getForwardingTable();
+		assertEquals(neighbor1, after.getNextHop(neighbor2));
+		assertTrue(after.getCost(neighbor2) == 4.0);
+
+		// Earlier snapshots are never changed underneath their readers
+		assertFalse(before.contains(neighbor2));
+	}
+
+	/*
+	 * A table made from another with a few routes changed has those routes,
+	 * and leaves the one it was made from as it was. "Aa" and "BB" (and so
+	 * "AaBB" and "BBAa") have the same hash code, so they share every slot
+	 * of the trie.
+	 */
+	@Test
+	public void testForwardingTableCopiesOnlyChangedRoutes() {
+		NodeIds nodeIds = new NodeIds();
+		int hop1 = nodeIds.intern(neighbor1);
+		int hop2 = nodeIds.intern(neighbor2);
+		Map<String, RouteEntry> routingTable = new TreeMap<String, RouteEntry>();
+		for (int i = 0; i < 2000; i++) {
+			routingTable.put("10.0." + (i / 256) + "." + (i % 256) + ":80",
+					new RouteEntry(hop1, i));
+		}
+		for (String colliding : Arrays.asList("Aa", "BB", "AaBB", "BBAa")) {
+			routingTable.put(colliding, new RouteEntry(hop1, 1.0));
+		}
+
+		ForwardingTable before = new ForwardingTable(routingTable, nodeIds);
+		assertEquals(2004, before.size());
+		assertEquals(routingTable.keySet(), before.getDestinations());
+		assertEquals(1.0, before.getCost("BB"), 0);
+		assertFalse(before.contains("AaAa"));
+
+		routingTable.get("10.0.0.7:80").set(hop2, 0.5, 1);
+		routingTable.get("BB").set(hop2, 2.0, 1);
+		routingTable.put("AaAa", new RouteEntry(hop2, 3.0));
+		ForwardingTable after = before.withRoutes(routingTable,
+				Arrays.asList("10.0.0.7:80", "BB", "AaAa"), nodeIds);
+
+		assertEquals(2005, after.size());
+		assertEquals(neighbor2, after.getNextHop("10.0.0.7:80"));
+		assertEquals(0.5, after.getCost("10.0.0.7:80"), 0);
+		assertEquals(2.0, after.getCost("BB"), 0);
+		assertEquals(1.0, after.getCost("Aa"), 0);
+		assertEquals(3.0, after.getCost("AaAa"), 0);
+		assertEquals(1999.0, after.getCost("10.0.7.207:80"), 0);
+		assertEquals(routingTable.keySet(), after.getDestinations());
+
+		assertEquals(neighbor1, before.getNextHop("10.0.0.7:80"));
+		assertEquals(1.0, before.getCost("BB"), 0);
+		assertFalse(before.contains("AaAa"));
+		assertSame(after, after.withRoutes(routingTable,
+				new ArrayList<String>(), nodeIds));
 	}
 
 	@Test
@@ -513,87 +642,73 @@ public class ClientTest {
 		 * neighbor than a direct link, that the * shorter path is used *
 		 * *************************************************
 		 */
-
-		/*
-		 * Start by changing neighbor1 (port 7881)'s DV by giving it a shorter
-		 * path to neighbor3
-		 */
-		// Start by giving correct DV for clientThree
-		Map<String, Double> dvFurtherFrom1 = new TreeMap<String, Double>();
-		dvFurtherFrom1.put(clientThreeID, 0.0);
-		dvFurtherFrom1.put(neighbor1, 5.4);
-		dvFurtherFrom1.put(neighbor3, 10.0);
-		dvFurtherFrom1.put(neighbor2, 2.3);
-		clientThreeNeighbors.getDistanceVector().put(clientThreeID,
-				dvFurtherFrom1);
-		String[] routingEntry = new String[2];
-		routingEntry[0] = neighbor1;
-		routingEntry[1] = dvFurtherFrom1.get(neighbor1).toString();
-		clientThreeNeighbors.getRoutingTable().put(neighbor1, routingEntry);
-
 		Map<String, Double> dvCloserTo3 = new TreeMap<String, Double>();
 		dvCloserTo3.put(neighbor1, 0.0);
 		dvCloserTo3.put(neighbor2, 3.1);
-		dvCloserTo3.put(clientThreeID, 5.4);
+		dvCloserTo3.put(clientThreeID, 1.4);
 		dvCloserTo3.put(neighbor3, 1.0);
 		clientThreeNeighbors.getDistanceVector().put(neighbor1, dvCloserTo3);
-		clientThreeNeighbors.findShorterPathAmongNeighbors(neighbor3);
+		assertTrue(clientThreeNeighbors
+				.findShorterPathAmongNeighbors(neighbor3));
 
 		Map<String, Double> newDV = clientThreeNeighbors.getDistanceVector()
 				.get(clientThreeID);
-		Map<String, String[]> newRT = clientThreeNeighbors.getRoutingTable();
-		String[] neighbor1Entry = newRT.get(neighbor1);
-		String[] neighbor2Entry = newRT.get(neighbor2);
-		String[] neighbor3Entry = newRT.get(neighbor3);
+		Map<String, RouteEntry> newRT = clientThreeNeighbors.getRoutingTable();
+		RouteEntry neighbor1Entry = newRT.get(neighbor1);
+		RouteEntry neighbor2Entry = newRT.get(neighbor2);
+		RouteEntry neighbor3Entry = newRT.get(neighbor3);
 
 		// Test that localDV has correct weights
-		assertTrue(newDV.get(neighbor3) == 6.4);
-		assertTrue(newDV.get(neighbor1) == 5.4);
+		assertTrue(newDV.get(neighbor3) == 2.4);
+		assertTrue(newDV.get(neighbor1) == 1.4);
 		assertTrue(newDV.get(neighbor2) == 2.3);
 
 		// Test that RT has correct next hops:
-		assertEquals(neighbor3Entry[0], neighbor1);
-		assertTrue(Double.parseDouble(neighbor3Entry[1]) == 6.4);
-		assertEquals(neighbor1Entry[0], neighbor1);
-		assertTrue(Double.parseDouble(neighbor1Entry[1]) == 5.4);
-		assertEquals(neighbor2Entry[0], neighbor2);
-		assertTrue(Double.parseDouble(neighbor2Entry[1]) == 2.3);
+		assertEquals(nextHop(clientThreeNeighbors, neighbor3Entry), neighbor1);
+		assertTrue(neighbor3Entry.getCost() == 2.4);
+		assertEquals(nextHop(clientThreeNeighbors, neighbor1Entry), neighbor1);
+		assertTrue(neighbor1Entry.getCost() == 1.4);
+		assertEquals(nextHop(clientThreeNeighbors, neighbor2Entry), neighbor2);
+		assertTrue(neighbor2Entry.getCost() == 2.3);
+
+		// Relaxing again finds nothing new
+		assertFalse(clientThreeNeighbors
+				.findShorterPathAmongNeighbors(neighbor3));
 
 		/*
-		 * Now test that shortening neighbor2's link to neighbor1 correctly
-		 * updates neighbor1's weight in local DV, and neighbor1's entry in RT.
-		 * After shortening, neighbor1's weight in local DV should be
-		 * weightToNeighbor2 + neighbor2's weight to neighbor1 and next entry in
-		 * RT should be neighbor1
+		 * Now neighbor1 loses its path to neighbor3, and neighbor2 offers one
+		 * that is longer, but still shorter than our direct link. As with a
+		 * __ROUTEUPDATE__, the cheapest path left is taken.
 		 */
-		Map<String, Double> dvCloserTo1 = new TreeMap<String, Double>();
-		dvCloserTo1.put(neighbor2, 0.0);
-		dvCloserTo1.put(neighbor3, 7.6);
-		dvCloserTo1.put(clientThreeID, 2.3);
-		dvCloserTo1.put(neighbor1, 1.0);
-		clientThreeNeighbors.getDistanceVector().put(neighbor2, dvCloserTo1);
-
-		clientThreeNeighbors.findShorterPathAmongNeighbors(neighbor1);
-
-		newDV = clientThreeNeighbors.getDistanceVector().get(clientThreeID);
-		newRT = clientThreeNeighbors.getRoutingTable();
-		neighbor1Entry = newRT.get(neighbor1);
-		neighbor2Entry = newRT.get(neighbor2);
-		neighbor3Entry = newRT.get(neighbor3);
+		dvCloserTo3.put(neighbor3, Double.POSITIVE_INFINITY);
+		Map<String, Double> dvFrom2 = new TreeMap<String, Double>();
+		dvFrom2.put(neighbor2, 0.0);
+		dvFrom2.put(neighbor3, 7.6);
+		dvFrom2.put(clientThreeID, 2.3);
+		dvFrom2.put(neighbor1, 3.1);
+		clientThreeNeighbors.getDistanceVector().put(neighbor2, dvFrom2);
+		assertTrue(clientThreeNeighbors
+				.findShorterPathAmongNeighbors(neighbor3));
 
-		// Test that localDV has correct weights
-		assertTrue(newDV.get(neighbor3) == 4.3);
-		assertTrue(newDV.get(neighbor1) == 3.3);
-		assertTrue(newDV.get(neighbor2) == 2.3);
-
-		// Test that RT has correct next hops:
-		assertEquals(neighbor3Entry[0], neighbor2);
-		assertTrue(Double.parseDouble(neighbor3Entry[1]) == 4.3);
-		assertEquals(neighbor1Entry[0], neighbor2);
-		assertTrue(Double.parseDouble(neighbor1Entry[1]) == 3.3);
-		assertEquals(neighbor2Entry[0], neighbor2);
-		assertTrue(Double.parseDouble(neighbor2Entry[1]) == 2.3);
+		neighbor3Entry = clientThreeNeighbors.getRoutingTable().get(neighbor3);
+		assertEquals(neighbor2, nextHop(clientThreeNeighbors, neighbor3Entry));
+		assertEquals(9.9, neighbor3Entry.getCost(), 0.0001);
+		assertEquals(Double.POSITIVE_INFINITY, clientThreeNeighbors
+				.poisonReversedDistanceVector(neighbor2).get(neighbor3), 0);
 
+		/*
+		 * The candidates were kept in step with the routes, so a later
+		 * __ROUTEUPDATE__ from neighbor1 picks up where this left off.
+		 */
+		dvCloserTo3 = new TreeMap<String, Double>(dvCloserTo3);
+		dvCloserTo3.put(neighbor3, 1.0);
+		assertTrue(clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, dvCloserTo3));
+		assertEquals(neighbor1, clientThreeNeighbors.getForwardingTable()
+				.getNextHop(neighbor3));
+		assertEquals(2.4, clientThreeNeighbors.getForwardingTable()
+				.getCost(neighbor3), 0.0001);
 	}
 
 	@Test
@@ -621,28 +736,28 @@ public class ClientTest {
 		newDVNeighbor2.put(neighbor1, 0.0);
 		clientNormal.addNewDVEntriesToOtherDVs(neighbor1, newDVNeighbor2);
 
-		String[] routingEntry = new String[2];
+		RouteEntry routingEntry;
 		Map<String, Map<String, Double>> newDV = clientNormal
 				.getDistanceVector();
 
 		// First test that clientDV's values are as expected
 		Map<String, Double> clientDV = newDV.get(clientNormalID);
-		Map<String, String[]> clientRT = clientNormal.getRoutingTable();
+		Map<String, RouteEntry> clientRT = clientNormal.getRoutingTable();
 		assertTrue(clientDV.get(clientNormalID) == 0.0); // 0.0 weight to
 		// himself
 		assertTrue(clientDV.get(neighbor1) == 1.4); // same weight to neighbor1
 		assertTrue(clientDV.get(neighbor2) == 5.0); // Correct weight to
 		// neighbor2
 		routingEntry = clientRT.get(neighbor2);
-		assertEquals(routingEntry[0], neighbor1); // Correct nextHop to
+		assertEquals(nextHop(clientNormal, routingEntry), neighbor1); // Correct nextHop to
 		// neighbor2
-		assertTrue(Double.parseDouble(routingEntry[1]) == 5.0); // Correct
+		assertTrue(routingEntry.getCost() == 5.0); // Correct
 		// weight to
 		// neighbor 2
 		routingEntry = clientRT.get(neighbor1);
-		assertEquals(routingEntry[0], neighbor1); // Correct nextHop to
+		assertEquals(nextHop(clientNormal, routingEntry), neighbor1); // Correct nextHop to
 		// neighbor1
-		assertTrue(Double.parseDouble(routingEntry[1]) == 1.4); // Correct
+		assertTrue(routingEntry.getCost() == 1.4); // Correct
 		// weight to
 		// neighbor1
 
@@ -675,9 +790,9 @@ public class ClientTest {
 		Map<String, Double> poisonReverseDV = clientNormal
 				.poisonReversedDistanceVector(neighbor1);
 		assertTrue(poisonReverseDV.get(neighbor2) == Double.POSITIVE_INFINITY);
-		String[] routingEntry = clientNormal.getRoutingTable().get(neighbor2);
-		assertEquals(routingEntry[0], neighbor1);
-		assertTrue(Double.parseDouble(routingEntry[1]) == clientNormal
+		RouteEntry routingEntry = clientNormal.getRoutingTable().get(neighbor2);
+		assertEquals(nextHop(clientNormal, routingEntry), neighbor1);
+		assertTrue(routingEntry.getCost() == clientNormal
 				.getDistanceVector().get(clientNormal.getLocalClientID())
 				.get(neighbor2));
 
@@ -688,18 +803,1339 @@ public class ClientTest {
 
 		poisonReverseDV = clientNormal.poisonReversedDistanceVector(neighbor1);
 		routingEntry = clientNormal.getRoutingTable().get(neighbor2);
-		assertEquals(routingEntry[0], neighbor1);
-		assertTrue(Double.parseDouble(routingEntry[1]) == clientNormal
+		assertEquals(nextHop(clientNormal, routingEntry), neighbor1);
+		assertTrue(routingEntry.getCost() == clientNormal
 				.getDistanceVector().get(clientNormal.getLocalClientID())
 				.get(neighbor2));
 
 		routingEntry = clientNormal.getRoutingTable().get(neighbor4);
-		assertEquals(routingEntry[0], neighbor1);
-		assertTrue(Double.parseDouble(routingEntry[1]) == clientNormal
+		assertEquals(nextHop(clientNormal, routingEntry), neighbor1);
+		assertTrue(routingEntry.getCost() == clientNormal
 				.getDistanceVector().get(clientNormal.getLocalClientID())
 				.get(neighbor4));
 	}
 
+	@Test
+	public void testPoisonReverseViewFollowsRouteChanges() {
+		Map<String, Double> viewFor1 = clientThreeNeighbors
+				.poisonReversedDistanceVector(neighbor1);
+		Map<String, Double> viewFor2 = clientThreeNeighbors
+				.poisonReversedDistanceVector(neighbor2);
+		assertTrue(viewFor1.get(neighbor1) == Double.POSITIVE_INFINITY);
+		assertTrue(viewFor1.get(neighbor3) == 10.0);
+		assertTrue(viewFor2.get(neighbor3) == 10.0);
+
+		/*
+		 * neighbor1 gives us a shorter path to neighbor3, so neighbor3 is now
+		 * poisoned towards neighbor1 only.
+		 */
+		Map<String, Double> dvCloserTo3 = new TreeMap<String, Double>();
+		dvCloserTo3.put(neighbor1, 0.0);
+		dvCloserTo3.put(neighbor2, 3.1);
+		dvCloserTo3.put(clientThreeID, 1.4);
+		dvCloserTo3.put(neighbor3, 1.0);
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, dvCloserTo3);
+
+		viewFor1 = clientThreeNeighbors.poisonReversedDistanceVector(neighbor1);
+		viewFor2 = clientThreeNeighbors.poisonReversedDistanceVector(neighbor2);
+		assertTrue(viewFor1.get(neighbor3) == Double.POSITIVE_INFINITY);
+		assertTrue(viewFor2.get(neighbor3) == 2.4);
+		assertEquals(clientThreeNeighbors.createDVStringForRouteUpdate(viewFor2),
+				clientThreeNeighbors.createRouteUpdateBody(neighbor2));
+	}
+
+	@Test
+	public void testParallelRecomputeMatchesSequential() {
+		Client sequential = clientThreeNeighbors;
+		Client parallel = new Client(configThreeNeighbors.getAbsolutePath(),
+				true);
+		sequential.setParallelRecomputeThreshold(Integer.MAX_VALUE);
+		parallel.setParallelRecomputeThreshold(1);
+
+		/*
+		 * Give neighbor1 and neighbor2 a few thousand destinations each, at
+		 * costs that make the best next hop differ between destinations.
+		 */
+		Map<String, Double> dv1 = new TreeMap<String, Double>();
+		Map<String, Double> dv2 = new TreeMap<String, Double>();
+		for (int i = 0; i < 3000; i++) {
+			String destination = "10.0." + (i / 250) + "." + (i % 250) + ":80";
+			dv1.put(destination, (double) (i % 7));
+			dv2.put(destination, (double) (i % 5));
+		}
+		dv1.put(clientThreeID, 1.4);
+		dv1.put(neighbor1, 0.0);
+		dv1.put(neighbor2, 1.0);
+		dv1.put(neighbor3, 9.0);
+		dv2.put(clientThreeID, 2.3);
+		dv2.put(neighbor1, 1.0);
+		dv2.put(neighbor2, 0.0);
+		dv2.put(neighbor3, 9.0);
+		for (Client client : new Client[] { sequential, parallel }) {
+			client.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+					neighbor1, new TreeMap<String, Double>(dv1));
+			client.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+					neighbor2, new TreeMap<String, Double>(dv2));
+
+			client.linkdown("74.73.139.233", 7881, true);
+			client.linkup("74.73.139.233", 7881, 0.5, true);
+		}
+
+		assertEquals(sequential.getDistanceVector().get(clientThreeID),
+				parallel.getDistanceVector().get(clientThreeID));
+		for (String destination : sequential.getRoutingTable().keySet()) {
+			assertEquals(sequential.getNextHop(destination),
+					parallel.getNextHop(destination));
+		}
+	}
+
+	/*
+	 * neighbor1 and neighbor2 both offer a path to destination, and neighbor2
+	 * is closer to it than we are, so it is a loop-free backup for our route
+	 * through neighbor1. neighbor3 is further from destination than we are,
+	 * so it can't be a backup.
+	 */
+	@Test
+	public void testBackupNextHopTakesOverOnLinkdown() {
+		String destination = "10.0.0.1:80";
+		Map<String, Double> dv1 = new TreeMap<String, Double>();
+		dv1.put(clientThreeID, 1.4);
+		dv1.put(neighbor1, 0.0);
+		dv1.put(neighbor2, 3.0);
+		dv1.put(neighbor3, 9.0);
+		dv1.put(destination, 1.0);
+		Map<String, Double> dv2 = new TreeMap<String, Double>(dv1);
+		dv2.put(clientThreeID, 2.3);
+		dv2.put(neighbor1, 3.0);
+		dv2.put(neighbor2, 0.0);
+		dv2.put(destination, 2.0);
+		Map<String, Double> dv3 = new TreeMap<String, Double>(dv1);
+		dv3.put(clientThreeID, 10.0);
+		dv3.put(neighbor1, 9.0);
+		dv3.put(neighbor3, 0.0);
+		dv3.put(destination, 5.0);
+
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor3, dv3);
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, dv1);
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor2, dv2);
+
+		ForwardingTable table = clientThreeNeighbors.getForwardingTable();
+		assertEquals(neighbor1, table.getNextHop(destination));
+		assertEquals(neighbor2, table.getBackupNextHop(destination));
+
+		assertTrue(clientThreeNeighbors.linkdown("74.73.139.233", 7881, true));
+		ForwardingTable repaired = clientThreeNeighbors.getForwardingTable();
+		assertEquals(neighbor2, repaired.getNextHop(destination));
+		assertEquals(4.3, repaired.getCost(destination), 0.0001);
+	}
+
+	/*
+	 * Once neighbor1's link fails, neighbor2 offers the cheapest remaining
+	 * path to destination (2.3 + 2.5), but it is no closer to destination
+	 * than we were (2.4), so it may be routing through us. neighbor3 is
+	 * further away (10.0 + 1.5), but closer to destination than we were, so
+	 * linkdown moves the route to it rather than to neighbor2.
+	 */
+	@Test
+	public void testLinkdownPrefersFeasibleBackup() {
+		String destination = "10.0.0.1:80";
+		Map<String, Double> dv1 = dvWithDestination(neighbor1, 1.4,
+				destination, 1.0);
+		Map<String, Double> dv2 = dvWithDestination(neighbor2, 2.3,
+				destination, 2.5);
+		Map<String, Double> dv3 = dvWithDestination(neighbor3, 10.0,
+				destination, 1.5);
+
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, dv1);
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor2, dv2);
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor3, dv3);
+		assertEquals(neighbor3, clientThreeNeighbors.getForwardingTable()
+				.getBackupNextHop(destination));
+
+		assertTrue(clientThreeNeighbors.linkdown("74.73.139.233", 7881, true));
+		assertEquals(neighbor3, clientThreeNeighbors.getNextHop(destination));
+		assertEquals(11.5, clientThreeNeighbors.getForwardingTable().getCost(
+				destination), 0.0001);
+
+		// The next DV heard, even an unchanged one, restores the cheapest path
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor2, dv2);
+		assertEquals(neighbor2, clientThreeNeighbors.getNextHop(destination));
+		assertEquals(4.8, clientThreeNeighbors.getForwardingTable().getCost(
+				destination), 0.0001);
+	}
+
+	/*
+	 * A DV for clientThreeNeighbors from neighbor, which is weightToUs from us
+	 * and weightToDestination from destination.
+	 */
+	private Map<String, Double> dvWithDestination(String neighbor,
+			double weightToUs, String destination, double weightToDestination) {
+		Map<String, Double> dv = new TreeMap<String, Double>();
+		dv.put(clientThreeID, weightToUs);
+		dv.put(neighbor1, Double.POSITIVE_INFINITY);
+		dv.put(neighbor2, Double.POSITIVE_INFINITY);
+		dv.put(neighbor3, Double.POSITIVE_INFINITY);
+		dv.put(neighbor, 0.0);
+		dv.put(destination, weightToDestination);
+
+		return dv;
+	}
+
+	@Test
+	public void testRouteAtMaxMetricIsUnreachable() {
+		String destination = "10.0.0.1:80";
+		DistanceVectorEngine engine = (DistanceVectorEngine) clientThreeNeighbors
+				.getRoutingEngine();
+		engine.setMaxMetric(10.0);
+
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1,
+						dvWithDestination(neighbor1, 1.4, destination, 8.0));
+		assertEquals(9.4, clientThreeNeighbors.getForwardingTable().getCost(
+				destination), 0.0001);
+
+		// 1.4 + 9.0 is past the max metric
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1,
+						dvWithDestination(neighbor1, 1.4, destination, 9.0));
+		assertEquals(Double.POSITIVE_INFINITY, clientThreeNeighbors
+				.getForwardingTable().getCost(destination), 0);
+		assertEquals(Double.POSITIVE_INFINITY, clientThreeNeighbors
+				.poisonReversedDistanceVector(neighbor2).get(destination), 0);
+	}
+
+	@Test
+	public void testWithdrawnRouteIsHeldDown() {
+		String destination = "10.0.0.1:80";
+		DistanceVectorEngine engine = (DistanceVectorEngine) clientThreeNeighbors
+				.getRoutingEngine();
+		engine.setHoldDownMillis(60000);
+
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1,
+						dvWithDestination(neighbor1, 1.4, destination, 1.0));
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, dvWithDestination(neighbor1, 1.4,
+								destination, Double.POSITIVE_INFINITY));
+		assertEquals(Double.POSITIVE_INFINITY, clientThreeNeighbors
+				.getForwardingTable().getCost(destination), 0);
+
+		// A worse path than the 2.4 we lost is ignored while held down...
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor2,
+						dvWithDestination(neighbor2, 2.3, destination, 5.0));
+		assertEquals(Double.POSITIVE_INFINITY, clientThreeNeighbors
+				.getForwardingTable().getCost(destination), 0);
+
+		// ...but one at least as good is taken up
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor2,
+						dvWithDestination(neighbor2, 2.3, destination, 0.05));
+		assertEquals(neighbor2, clientThreeNeighbors.getForwardingTable()
+				.getNextHop(destination));
+		assertEquals(2.35, clientThreeNeighbors.getForwardingTable().getCost(
+				destination), 0.0001);
+	}
+
+	/*
+	 * In path vector mode, a route whose advertised path runs back through us
+	 * is turned down, and the routes we advertise carry our own paths.
+	 */
+	@Test
+	public void testPathVectorRejectsRoutesThroughUs() {
+		String destination = "10.0.0.1:80";
+		String farAway = "10.0.0.2:80";
+		DistanceVectorEngine engine = (DistanceVectorEngine) clientThreeNeighbors
+				.getRoutingEngine();
+		engine.setPathVector(true);
+
+		PathSummary throughUs = PathSummary.of(clientThreeID).prepend(
+				neighbor1);
+		PathSummary notThroughUs = PathSummary.of(farAway).prepend(neighbor1);
+		String body = clientThreeID + "=1.4=" + throughUs + "~" + neighbor1
+				+ "=0.0=" + PathSummary.of(neighbor1) + "~" + neighbor2
+				+ "=Infinity~" + neighbor3 + "=Infinity~" + destination
+				+ "=1.0=" + throughUs + "~" + farAway + "=2.0=" + notThroughUs
+				+ "~";
+
+		assertTrue(engine.processRouteUpdate(neighbor1, body));
+		assertEquals(Double.POSITIVE_INFINITY, engine.getForwardingTable()
+				.getCost(destination), 0);
+		assertEquals(3.4, engine.getForwardingTable().getCost(farAway), 0.0001);
+
+		PathSummary advertised = engine.getPathsFromRouteUpdateMessage(
+				engine.createRouteUpdateBody(neighbor2)).get(farAway);
+		assertEquals(clientThreeID + ">" + neighbor1 + ">" + farAway,
+				advertised.toString());
+	}
+
+	/*
+	 * Paths are kept exactly: however long a path is, a node is only found
+	 * on it if it is there.
+	 */
+	@Test
+	public void testLongPathsHaveNoFalsePositives() {
+		PathSummary path = PathSummary.EMPTY;
+		for (int hop = 0; hop < 200; hop++) {
+			path = path.prepend("10.0." + (hop / 250) + "." + (hop % 250)
+					+ ":80");
+		}
+		assertEquals(200, path.length());
+		assertEquals(path, PathSummary.parse(path.toString()));
+
+		for (int node = 200; node < 10000; node++) {
+			assertFalse(path.contains("10.0." + (node / 250) + "."
+					+ (node % 250) + ":80"));
+		}
+		assertTrue(path.contains("10.0.0.0:80"));
+	}
+
+	/*
+	 * With /24 areas, all three of clientThreeNeighbors' neighbors share an
+	 * area, so nodes outside it are advertised to them as one summary route
+	 * per area, and are reached through those summaries.
+	 */
+	@Test
+	public void testAreasAreSummarized() {
+		DistanceVectorEngine engine = (DistanceVectorEngine) clientThreeNeighbors
+				.getRoutingEngine();
+		engine.setAreaPrefixLength(24);
+
+		Map<String, Double> dv1 = new TreeMap<String, Double>();
+		dv1.put(clientThreeID, 1.4);
+		dv1.put(neighbor1, 0.0);
+		dv1.put("10.1.0.5:80", 1.0);
+		dv1.put("10.1.0.6:80", 2.0);
+		clientThreeNeighbors
+				.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+						neighbor1, dv1);
+
+		Map<String, Double> advertised = engine
+				.getDVFromRouteUpdateMessage(engine
+						.createRouteUpdateBody(neighbor2));
+		assertEquals(2.4, advertised.get("10.1.0.0/24"), 0.0001);
+		assertFalse(advertised.containsKey("10.1.0.5:80"));
+		assertFalse(advertised.containsKey("10.1.0.6:80"));
+		assertTrue(advertised.containsKey(neighbor1));
+
+		// A summary learned from neighbor2 routes every node in its area
+		assertTrue(engine.processRouteUpdate(neighbor2, clientThreeID
+				+ "=2.3~" + neighbor2 + "=0.0~10.9.0.0/24=1.0~"));
+		ForwardingTable table = engine.getForwardingTable();
+		assertNull(table.getNextHop("10.9.0.7:80"));
+		assertEquals(neighbor2, table.getNextHop("10.9.0.7:80", 24));
+		assertEquals(neighbor1, table.getNextHop("10.1.0.6:80", 24));
+	}
+
+	/*
+	 * All of a Client's timers go on the one scheduler: a single sweep for
+	 * failed links, and a periodic route update per neighbor, which is
+	 * rescheduled rather than duplicated when updates are sent, or when the
+	 * neighbors are set up again.
+	 */
+	@Test
+	public void testTimersShareOneScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+				1);
+		scheduler.setRemoveOnCancelPolicy(true);
+		Client client = new Client(configThreeNeighbors.getAbsolutePath(),
+				true, scheduler);
+		assertEquals(4, scheduler.getQueue().size());
+
+		client.sendRouteUpdates();
+		assertEquals(4, scheduler.getQueue().size());
+
+		// Starting over from the neighbors replaces the timers
+		Map<String, Double> neighbors = new TreeMap<String, Double>();
+		neighbors.put(neighbor1, 1.4);
+		neighbors.put(neighbor2, 2.3);
+		neighbors.put(neighbor3, 10.0);
+		client.createDVFromNeighbors(neighbors);
+		assertEquals(4, scheduler.getQueue().size());
+
+		client.linkdown("74.73.139.228", 3131, true);
+		assertEquals(4, scheduler.getQueue().size());
+		assertFalse(client.getFailureDetector().isWatching(neighbor3));
+
+		client.close();
+		assertTrue(scheduler.isShutdown());
+	}
+
+	/*
+	 * With hellos on, hellos get their own periodic task, and a neighbor that
+	 * has sent hellos is suspected after missing helloMissCount of them. One
+	 * that hasn't still gets 3 timeouts.
+	 */
+	@Test
+	public void testHellosDecoupleFailureDetection() throws IOException {
+		System.setProperty(ClientOptions.HELLO_INTERVAL_MILLIS, "50");
+		System.setProperty(ClientOptions.HELLO_MISS_COUNT, "4");
+		try {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+					1);
+			Client client = new Client(configThreeNeighbors.getAbsolutePath(),
+					true, scheduler);
+			assertEquals(5, scheduler.getQueue().size());
+			client.close();
+
+			VirtualClock clock = new VirtualClock();
+			client = new Client(configThreeNeighbors.getAbsolutePath(), true,
+					clock, new InMemoryNetwork().createTransport(), clock);
+			receiveHello(client, neighbor1);
+
+			FailureDetector detector = client.getFailureDetector();
+			assertFalse(detector.isSuspected(neighbor1, 200));
+			assertTrue(detector.isSuspected(neighbor1, 201));
+			assertFalse(detector.isSuspected(neighbor2, 201));
+			assertTrue(detector.isSuspected(neighbor2, 180001));
+
+			client.close();
+		} finally {
+			System.clearProperty(ClientOptions.HELLO_INTERVAL_MILLIS);
+			System.clearProperty(ClientOptions.HELLO_MISS_COUNT);
+		}
+	}
+
+	/*
+	 * A link taken down because its neighbor went quiet comes back up, at its
+	 * old cost, once the neighbor is heard from again. One taken down on
+	 * purpose stays down.
+	 */
+	@Test
+	public void testSuspectedLinkComesBackUp() throws IOException {
+		System.setProperty(ClientOptions.HELLO_INTERVAL_MILLIS, "50");
+		try {
+			VirtualClock clock = new VirtualClock();
+			Client client = new Client(configThreeNeighbors.getAbsolutePath(),
+					true, clock, new InMemoryNetwork().createTransport(), clock);
+			double linkCost = client.getLinkCost(neighbor1);
+			receiveHello(client, neighbor1);
+			receiveHello(client, neighbor2);
+
+			// Three missed hellos are allowed by default
+			clock.advance(150);
+			assertEquals(linkCost, client.getLinkCost(neighbor1), 0.0);
+			clock.advance(50);
+			assertEquals(Double.POSITIVE_INFINITY,
+					client.getLinkCost(neighbor1), 0.0);
+
+			receiveHello(client, neighbor1);
+			assertEquals(linkCost, client.getLinkCost(neighbor1), 0.0);
+			assertTrue(client.getFailureDetector().isWatching(neighbor1));
+
+			assertTrue(client.linkdown("74.73.139.231", 6661, false));
+			receiveHello(client, neighbor2);
+			assertEquals(Double.POSITIVE_INFINITY,
+					client.getLinkCost(neighbor2), 0.0);
+
+			client.close();
+		} finally {
+			System.clearProperty(ClientOptions.HELLO_INTERVAL_MILLIS);
+		}
+	}
+
+	private void receiveHello(Client client, String neighbor)
+			throws IOException {
+		byte[] hello = ("__HELLO__%" + neighbor + "#").getBytes();
+		client.processPacket(hello, hello.length);
+	}
+
+	/*
+	 * Each neighbor's first update gets its own phase, in the second half of
+	 * the 60 second timeout, and later ones are brought forward by up to the
+	 * default jitter, a tenth of the timeout. Only the link sweep is left a
+	 * whole timeout away.
+	 */
+	@Test
+	public void testRouteUpdatesAreJittered() throws IOException {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+				1);
+		Client client = new Client(configThreeNeighbors.getAbsolutePath(),
+				true, scheduler);
+
+		Set<Long> phases = new HashSet<Long>();
+		for (Runnable task : scheduler.getQueue()) {
+			long delay = ((Delayed) task).getDelay(TimeUnit.MILLISECONDS);
+			assertTrue(delay <= 60000);
+			assertTrue(delay >= 29000);
+			if (delay < 59000) {
+				phases.add(delay);
+			}
+		}
+		assertEquals(3, phases.size());
+		client.close();
+
+		VirtualClock clock = new VirtualClock();
+		InMemoryNetwork network = new InMemoryNetwork();
+		client = new Client(writeConfig(5001, neighbor1 + " 1.0"), true,
+				clock, network.createTransport(), clock);
+		// The first update, then the next a timeout on, less the jitter
+		long first = nextRouteUpdateMillis(clock, network);
+		long second = nextRouteUpdateMillis(clock, network);
+		assertTrue(second - first >= 54000);
+		assertTrue(second - first < 60000);
+		client.close();
+	}
+
+	/**
+	 * @return When the next packet is sent on network, running timers on
+	 *         clock until one is.
+	 */
+	private long nextRouteUpdateMillis(VirtualClock clock,
+			InMemoryNetwork network) {
+		int pending = network.getPending();
+		while (network.getPending() == pending) {
+			assertTrue(clock.runNext(Long.MAX_VALUE));
+		}
+
+		return clock.currentTimeMillis();
+	}
+
+	/*
+	 * Jitter is drawn from a Random seeded with bellhop.updateSeed and the
+	 * Client's IP:Port, so two runs of the same Client on a VirtualClock fire
+	 * their timers at the same times.
+	 */
+	@Test
+	public void testJitterIsReproducible() throws IOException {
+		System.setProperty(ClientOptions.UPDATE_JITTER, "0.5");
+		try {
+			String config = writeConfig(5001, neighbor1 + " 1.0", neighbor2
+					+ " 1.0", neighbor3 + " 1.0");
+			assertEquals(timerTimes(config), timerTimes(config));
+		} finally {
+			System.clearProperty(ClientOptions.UPDATE_JITTER);
+		}
+	}
+
+	/**
+	 * @return When the first few timers of a Client configured from config
+	 *         fire, on a VirtualClock.
+	 */
+	private List<Long> timerTimes(String config) {
+		VirtualClock clock = new VirtualClock();
+		Client client = new Client(config, true, clock,
+				new InMemoryNetwork().createTransport(), clock);
+
+		List<Long> times = new ArrayList<Long>();
+		while (times.size() < 6 && clock.runNext(Long.MAX_VALUE)) {
+			times.add(clock.currentTimeMillis());
+		}
+		client.close();
+
+		return times;
+	}
+
+	/*
+	 * Heartbeats reset a neighbor's timeout. With phi accrual, a neighbor
+	 * heard from every second is suspected well before the timeout once it
+	 * goes quiet for a few seconds, but not after a normal gap.
+	 */
+	@Test
+	public void testFailureDetectorResetsOnHeartbeat() {
+		FailureDetector timeout = new FailureDetector(3000, 0);
+		timeout.watch(neighbor1, 0);
+		timeout.heartbeat(neighbor1, 2500);
+		assertFalse(timeout.isSuspected(neighbor1, 5000));
+		assertTrue(timeout.isSuspected(neighbor1, 5501));
+		assertEquals(neighbor1, timeout.getSuspects(5501).get(0));
+		assertFalse(timeout.isSuspected(neighbor2, 5501));
+
+		FailureDetector phi = new FailureDetector(60000, 8.0);
+		phi.watch(neighbor1, 0);
+		for (long now = 1000; now <= 20000; now += 1000) {
+			phi.heartbeat(neighbor1, now);
+		}
+		assertFalse(phi.isSuspected(neighbor1, 21000));
+		assertTrue(phi.isSuspected(neighbor1, 25000));
+		assertTrue(phi.phi(neighbor1, 25000) > phi.phi(neighbor1, 21000));
+	}
+
+	/*
+	 * A linkdown starts a topology event here, which is stamped on the route
+	 * updates that follow. A route update naming someone else's newer event
+	 * makes that the current event, and the route changes it causes are put
+	 * down to it. An older event is recorded, but doesn't take over.
+	 */
+	@Test
+	public void testConvergenceIsTracked() {
+		ConvergenceTracker convergence = clientThreeNeighbors
+				.getConvergenceTracker();
+		assertNull(convergence.getCurrentEvent());
+		assertFalse(clientThreeNeighbors.createRouteUpdateStringHeader(
+				neighbor1).contains("/"));
+
+		clientThreeNeighbors.linkdown("74.73.139.228", 3131, true);
+		String linkdownEvent = convergence.getCurrentEvent();
+		assertTrue(linkdownEvent.startsWith(clientThreeID + "/"));
+		assertTrue(convergence.getConvergenceMillis(linkdownEvent) >= 0);
+		assertTrue(clientThreeNeighbors.createRouteUpdateStringHeader(
+				neighbor1).endsWith("%" + linkdownEvent + "#"));
+
+		String staleEvent = "10.0.0.2:80/1000/1";
+		String destination = "10.0.0.1:80";
+		String body = neighbor1 + "=0.0~" + clientThreeID + "=1.4~"
+				+ destination + "=1.0";
+		clientThreeNeighbors.processRouteUpdate(neighbor1, body, staleEvent);
+		assertEquals(linkdownEvent, convergence.getCurrentEvent());
+		assertEquals(-1, convergence.getConvergenceMillis(staleEvent));
+
+		// Started at the same time as the linkdown, but later in sequence
+		String remoteEvent = "10.0.0.2:80/"
+				+ ConvergenceTracker.startOf(linkdownEvent) + "/99";
+		body = neighbor1 + "=0.0~" + clientThreeID + "=1.4~" + destination
+				+ "=2.0";
+		clientThreeNeighbors.processRouteUpdate(neighbor1, body, remoteEvent);
+		assertEquals(remoteEvent, convergence.getCurrentEvent());
+		assertTrue(convergence.getConvergenceMillis(remoteEvent) >= 0);
+		assertEquals(3, convergence.getEvents().size());
+
+		assertEquals(-1, ConvergenceTracker.startOf("not an event"));
+	}
+
+	/*
+	 * A captured route update and linkdown command, replayed into a fresh
+	 * Client with no sockets, leave it with the same routes as the original.
+	 */
+	@Test
+	public void testCaptureReplaysIntoFreshClient() throws Exception {
+		String destination = "10.0.0.1:80";
+		byte[] routeUpdate = ("__ROUTEUPDATE__%" + clientThreeID + "%"
+				+ neighbor1 + "#" + neighbor1 + "=0.0~" + clientThreeID
+				+ "=1.4~" + destination + "=1.0").getBytes();
+
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		clientThreeNeighbors.setOffline(true);
+		clientThreeNeighbors.startCapture(captured);
+		clientThreeNeighbors.capturePacket(routeUpdate, routeUpdate.length);
+		clientThreeNeighbors.processPacket(routeUpdate, routeUpdate.length);
+		clientThreeNeighbors.captureCommand("linkdown 74.73.139.228 3131");
+		clientThreeNeighbors.linkdown("74.73.139.228", 3131, false);
+		clientThreeNeighbors.stopCapture();
+
+		Client replayed = new Client(configThreeNeighbors.getAbsolutePath(),
+				true);
+		ReplayDriver driver = new ReplayDriver(replayed, true);
+		assertEquals(2, driver.replay(new ByteArrayInputStream(captured
+				.toByteArray())));
+
+		assertTrue(replayed.isOffline());
+		assertEquals(2.4, replayed.getForwardingTable().getCost(destination),
+				0.0001);
+		assertEquals(Double.POSITIVE_INFINITY,
+				replayed.getLinkCost(neighbor3), 0);
+		assertEquals(clientThreeNeighbors.createShowRtString(),
+				replayed.createShowRtString());
+		assertEquals(0, replayed.getMetrics().getCount("sent.linkdown"));
+		replayed.close();
+	}
+
+	/*
+	 * Replayed into a Client on a VirtualClock, a capture moves the clock on
+	 * to each record's capture time, so a link that timed out during the
+	 * capture times out in the replay too, however fast it runs.
+	 */
+	@Test
+	public void testReplayAdvancesVirtualClock() throws Exception {
+		String local = "0.0.0.0:5001";
+		String neighbor = "0.0.0.0:5002";
+		byte[] routeUpdate = ("__ROUTEUPDATE__%" + neighbor + "%" + local
+				+ "#" + neighbor + "=0.0~" + local + "=1.0").getBytes();
+		byte[] command = "showrt".getBytes();
+
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(captured);
+		out.writeInt(CaptureLog.MAGIC);
+		out.writeInt(CaptureLog.VERSION);
+		out.writeByte(CaptureLog.PACKET);
+		out.writeLong(0);
+		out.writeInt(routeUpdate.length);
+		out.write(routeUpdate);
+		// Five minutes later, past the link's timeout
+		out.writeByte(CaptureLog.COMMAND);
+		out.writeLong(TimeUnit.MINUTES.toNanos(5));
+		out.writeInt(command.length);
+		out.write(command);
+		out.close();
+
+		VirtualClock clock = new VirtualClock(1000);
+		Client replayed = new Client(writeConfig(5001, neighbor + " 1.0"),
+				true, clock, new InMemoryNetwork().createTransport(), clock);
+		ReplayDriver driver = new ReplayDriver(replayed, true, clock);
+		assertEquals(2, driver.replay(new ByteArrayInputStream(captured
+				.toByteArray())));
+
+		assertEquals(1000 + 5 * 60 * 1000, clock.currentTimeMillis());
+		assertEquals(Double.POSITIVE_INFINITY, replayed.getLinkCost(neighbor),
+				0);
+		replayed.close();
+	}
+
+	/*
+	 * Three Clients in a line, a - b - c, on an in-memory network. Once their
+	 * route updates have been delivered, a reaches c through b, without a
+	 * socket being opened. When b takes down its link to c, a hears that c
+	 * is unreachable, and when b brings it back up, that c is reachable
+	 * again.
+	 */
+	@Test
+	public void testClientsRouteOverInMemoryNetwork() throws IOException {
+		String a = "0.0.0.0:5001";
+		String b = "0.0.0.0:5002";
+		String c = "0.0.0.0:5003";
+		InMemoryNetwork network = new InMemoryNetwork();
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+				1);
+
+		Client clientA = new Client(writeConfig(5001, b + " 1.0"), true,
+				scheduler, network.createTransport());
+		Client clientB = new Client(writeConfig(5002, a + " 1.0", c + " 2.0"),
+				true, scheduler, network.createTransport());
+		Client clientC = new Client(writeConfig(5003, b + " 2.0"), true,
+				scheduler, network.createTransport());
+		clientA.start();
+		clientB.start();
+		clientC.start();
+
+		clientA.sendRouteUpdates();
+		clientB.sendRouteUpdates();
+		clientC.sendRouteUpdates();
+		network.deliverAll(10000);
+
+		assertEquals(0, network.getPending());
+		assertEquals(0, network.getDropped());
+		assertEquals(b, clientA.getForwardingTable().getNextHop(c));
+		assertEquals(3.0, clientA.getForwardingTable().getCost(c), 0.0001);
+		assertNull(clientA.getSocket());
+
+		clientB.linkdown("0.0.0.0", 5003, false);
+		network.deliverAll(10000);
+		assertEquals(Double.POSITIVE_INFINITY, clientA.getForwardingTable()
+				.getCost(c), 0);
+
+		// Bringing the link back up is advertised just as promptly
+		assertTrue(clientB.linkup("0.0.0.0", 5003, 2.0, false));
+		network.deliverAll(10000);
+		assertEquals(b, clientA.getForwardingTable().getNextHop(c));
+		assertEquals(3.0, clientA.getForwardingTable().getCost(c), 0.0001);
+
+		clientA.close();
+		clientB.close();
+		clientC.close();
+		scheduler.shutdownNow();
+	}
+
+	/*
+	 * A square, x - a - d - b - x, with every link costing 1. x reaches d
+	 * through a, the lower of two equal-cost next hops, so its route to d is
+	 * poisoned towards a. When a loses its link to d, x switches to b at the
+	 * same cost; nothing in x's distance vector changes, but a must still
+	 * hear that x's route no longer goes through it.
+	 */
+	@Test
+	public void testEqualCostNextHopSwitchIsAdvertised() throws IOException {
+		String x = "0.0.0.0:5001";
+		String a = "0.0.0.0:5002";
+		String b = "0.0.0.0:5003";
+		String d = "0.0.0.0:5004";
+		VirtualClock clock = new VirtualClock();
+		InMemoryNetwork network = new InMemoryNetwork();
+
+		Client clientX = new Client(writeConfig(5001, a + " 1.0", b + " 1.0"),
+				true, clock, network.createTransport(), clock);
+		Client clientA = new Client(writeConfig(5002, x + " 1.0", d + " 1.0"),
+				true, clock, network.createTransport(), clock);
+		Client clientB = new Client(writeConfig(5003, x + " 1.0", d + " 1.0"),
+				true, clock, network.createTransport(), clock);
+		Client clientD = new Client(writeConfig(5004, a + " 1.0", b + " 1.0"),
+				true, clock, network.createTransport(), clock);
+		Client[] clients = { clientX, clientA, clientB, clientD };
+		for (Client client : clients) {
+			client.start();
+		}
+		for (Client client : clients) {
+			client.sendRouteUpdates();
+		}
+		settle(network, clock);
+		assertEquals(a, clientX.getForwardingTable().getNextHop(d));
+		assertEquals(Double.POSITIVE_INFINITY,
+				clientX.poisonReversedDistanceVector(a).get(d), 0);
+
+		clientA.linkdown("0.0.0.0", 5004, false);
+		settle(network, clock);
+
+		assertEquals(b, clientX.getForwardingTable().getNextHop(d));
+		assertEquals(2.0, clientX.getForwardingTable().getCost(d), 0);
+		assertEquals(x, clientA.getForwardingTable().getNextHop(d));
+		assertEquals(3.0, clientA.getForwardingTable().getCost(d), 0);
+
+		for (Client client : clients) {
+			client.close();
+		}
+	}
+
+	/*
+	 * Route updates processed back to back, each changing routes, are
+	 * answered with one triggered update per neighbor, sent once the
+	 * scheduler gets to it, rather than one per neighbor for each.
+	 */
+	@Test
+	public void testTriggeredUpdatesAreCoalesced() throws IOException {
+		VirtualClock clock = new VirtualClock();
+		InMemoryNetwork network = new InMemoryNetwork();
+		Client client = new Client(configThreeNeighbors.getAbsolutePath(),
+				true, clock, network.createTransport(), clock);
+
+		byte[] fromNeighbor1 = ("__ROUTEUPDATE__%" + clientThreeID + "%"
+				+ neighbor1 + "#" + neighbor1 + "=0.0~" + clientThreeID
+				+ "=1.4~10.0.0.1:80=1.0").getBytes();
+		byte[] fromNeighbor2 = ("__ROUTEUPDATE__%" + clientThreeID + "%"
+				+ neighbor2 + "#" + neighbor2 + "=0.0~" + clientThreeID
+				+ "=2.3~10.0.0.2:80=1.0").getBytes();
+		client.processPacket(fromNeighbor1, fromNeighbor1.length);
+		client.processPacket(fromNeighbor2, fromNeighbor2.length);
+		assertEquals(0, network.getPending());
+
+		assertTrue(clock.runNext(clock.currentTimeMillis()));
+		assertFalse(clock.runNext(clock.currentTimeMillis()));
+		assertEquals(3, network.getPending());
+		assertEquals(3, client.getMetrics().getCount("sent.routeupdate"));
+
+		client.close();
+	}
+
+	/*
+	 * Deliver packets, and send the triggered updates they cause, until none
+	 * are left. Only tasks due now are run, so periodic updates never are.
+	 */
+	private void settle(InMemoryNetwork network, VirtualClock clock) {
+		while (network.deliverAll(10000) > 0
+				|| clock.runNext(clock.currentTimeMillis())) {
+		}
+	}
+
+	/*
+	 * Generated topologies have the links their shapes call for, and the
+	 * random ones come out the same from the same seed.
+	 */
+	@Test
+	public void testTopologiesAreGenerated() {
+		assertEquals(10, Topology.ring(10).getLinks().size());
+		assertEquals(3 * 3 + 2 * 4, Topology.parse("grid:3x4", new Random(1))
+				.getLinks().size());
+		// A triangle, then two links for each of the other 7 nodes
+		assertEquals(3 + 7 * 2, Topology.scaleFree(10, 2, new Random(1))
+				.getLinks().size());
+
+		Topology random = Topology.random(50, 4.0, new Random(7));
+		assertEquals(100, random.getLinks().size());
+		assertEquals(random.getLinks().toString(),
+				Topology.random(50, 4.0, new Random(7)).getLinks().toString());
+		assertTrue(random.configFor(0, 10000, 60).startsWith("10000 60\n"));
+	}
+
+	/*
+	 * A simulated network converges on the true shortest paths, and
+	 * converges again after each of a few link failures.
+	 */
+	@Test
+	public void testSimulatedNetworkConverges() throws IOException {
+		Random random = new Random(42);
+		Topology grid = Topology.grid(4, 5);
+		grid.randomizeWeights(5, random);
+		NetworkSimulator simulator = new NetworkSimulator(grid);
+
+		NetworkSimulator.Phase initial = simulator.converge();
+		assertTrue(initial.isConverged());
+		assertEquals(0, initial.getWrongRoutes());
+		assertTrue(initial.getMessages() > 0);
+		assertTrue(initial.getBytes() > initial.getMessages());
+		// Every packet crosses a link of weight 1 to 5, at 1 ms per unit
+		assertTrue(initial.getSimulatedMillis() >= initial.getRounds());
+
+		List<NetworkSimulator.Phase> failures = simulator.failRandomLinks(3,
+				random);
+		assertEquals(3, failures.size());
+		for (NetworkSimulator.Phase failure : failures) {
+			assertTrue(failure.toString(), failure.isConverged());
+			assertEquals(failure.toString(), 0, failure.getWrongRoutes());
+			// At least the far end of the link hears of it a hop later
+			assertTrue(failure.toString(), failure.getConvergenceMillis() > 0);
+		}
+
+		simulator.close();
+	}
+
+	/*
+	 * Injected faults hit the same packets every time from the same seed.
+	 * Per-link profiles override the default one, and delayed packets are
+	 * sent later from the scheduler.
+	 */
+	@Test
+	public void testFaultInjectionIsReproducible() throws Exception {
+		List<String> first = sendThroughFaults(7);
+		assertEquals(first, sendThroughFaults(7));
+		assertFalse(first.equals(sendThroughFaults(8)));
+		assertTrue(first.size() > 500 && first.size() < 1000);
+
+		final List<String> sent = Collections
+				.synchronizedList(new ArrayList<String>());
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+				1);
+		FaultInjectingTransport delaying = new FaultInjectingTransport(
+				recordingTransport(sent), scheduler, 1);
+		delaying.setProfiles("delay=20");
+		assertTrue(delaying.delays());
+		delaying.send("10.0.0.1:80", "late".getBytes());
+		assertTrue(sent.isEmpty());
+		assertEquals(1, delaying.getDelayed());
+		// Delayed sends still run after shutdown
+		scheduler.shutdown();
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("10.0.0.1:80 late"), sent);
+	}
+
+	/*
+	 * A VirtualClock runs tasks in the order they fall due, and only as it is
+	 * advanced, with the time set to when each was due.
+	 */
+	@Test
+	public void testVirtualClockRunsTimersInOrder() {
+		final VirtualClock clock = new VirtualClock(1000);
+		final List<String> ran = new ArrayList<String>();
+
+		clock.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				ran.add("tick@" + clock.currentTimeMillis());
+			}
+		}, 10, 10, TimeUnit.MILLISECONDS);
+		clock.schedule(new Runnable() {
+			public void run() {
+				ran.add("once@" + clock.currentTimeMillis());
+			}
+		}, 15, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> cancelled = clock.schedule(new Runnable() {
+			public void run() {
+				ran.add("cancelled");
+			}
+		}, 5, TimeUnit.MILLISECONDS);
+		cancelled.cancel(false);
+		assertEquals(2, clock.getTaskCount());
+
+		assertEquals(0, clock.advance(9));
+		assertEquals(1009, clock.currentTimeMillis());
+		assertEquals(4, clock.advance(21));
+		assertEquals(Arrays.asList("tick@1010", "once@1015", "tick@1020",
+				"tick@1030"), ran);
+		assertEquals(1030, clock.currentTimeMillis());
+		assertEquals(1040, clock.getNextTaskMillis());
+	}
+
+	/*
+	 * On a VirtualClock, a Client's periodic route updates and link timeouts
+	 * happen as soon as the clock is advanced past them, with no waiting.
+	 */
+	@Test
+	public void testLinkTimesOutOnVirtualClock() throws IOException {
+		String neighbor = "0.0.0.0:5002";
+		VirtualClock clock = new VirtualClock();
+		InMemoryNetwork network = new InMemoryNetwork();
+		Client client = new Client(writeConfig(5001, neighbor + " 1.0"), true,
+				clock, network.createTransport(), clock);
+		client.start();
+
+		// A route update every timeout (60s), to a neighbor that isn't there
+		clock.advance(60 * 1000);
+		assertEquals(1, network.deliverAll(100));
+		assertEquals(1, network.getDropped());
+		assertEquals(1.0, client.getLinkCost(neighbor), 0);
+
+		// Not heard from for over 3 timeouts by the sweep at 4 timeouts
+		clock.advance(2 * 60 * 1000);
+		assertEquals(1.0, client.getLinkCost(neighbor), 0);
+		clock.advance(60 * 1000);
+		assertEquals(Double.POSITIVE_INFINITY, client.getLinkCost(neighbor),
+				0);
+		assertEquals(4 * 60 * 1000, ConvergenceTracker.startOf(client
+				.getConvergenceTracker().getCurrentEvent()));
+
+		client.close();
+	}
+
+	/*
+	 * A packet over a link with a latency only arrives once the clock has
+	 * moved on by that much; other links still deliver straight away.
+	 */
+	@Test
+	public void testInMemoryNetworkLatency() throws IOException {
+		VirtualClock clock = new VirtualClock();
+		InMemoryNetwork network = new InMemoryNetwork(clock);
+		final List<String> received = new ArrayList<String>();
+		Transport.Receiver receiver = new Transport.Receiver() {
+			public void receive(byte[] data, int length) {
+				received.add(new String(data, 0, length));
+			}
+		};
+
+		Transport a = network.createTransport();
+		Transport b = network.createTransport();
+		Transport c = network.createTransport();
+		a.start("a", receiver);
+		b.start("b", receiver);
+		c.start("c", receiver);
+		network.setLatency("a", "b", 10);
+		assertEquals(10, network.getLatency("b", "a"));
+
+		a.send("b", "slow".getBytes());
+		a.send("c", "fast".getBytes());
+		assertEquals(1, network.getInFlight());
+		assertEquals(1, network.deliverAll(100));
+		assertEquals(Arrays.asList("fast"), received);
+
+		clock.advance(9);
+		assertEquals(0, network.getPending());
+		clock.advance(1);
+		assertEquals(0, network.getInFlight());
+		assertEquals(1, network.deliverAll(100));
+		assertEquals(Arrays.asList("fast", "slow"), received);
+	}
+
+	/*
+	 * With injected delays on a VirtualClock, a simulation takes simulated
+	 * time to converge, and is reproducible from its seed.
+	 */
+	@Test
+	public void testSimulationWithDelaysIsDeterministic() throws IOException {
+		NetworkSimulator.Phase first = simulateWithDelays();
+		NetworkSimulator.Phase second = simulateWithDelays();
+
+		assertTrue(first.isConverged());
+		assertEquals(0, first.getWrongRoutes());
+		assertTrue(first.getSimulatedMillis() >= 5);
+		assertEquals(first.getMessages(), second.getMessages());
+		assertEquals(first.getSimulatedMillis(), second.getSimulatedMillis());
+	}
+
+	private NetworkSimulator.Phase simulateWithDelays() throws IOException {
+		NetworkSimulator simulator = new NetworkSimulator(Topology.grid(3, 3),
+				"delay=5,jitter=10,reorder=0.1", 3);
+		NetworkSimulator.Phase phase = simulator.converge();
+		simulator.close();
+
+		return phase;
+	}
+
+	/**
+	 * @return What got through of 1000 packets to one destination that loses
+	 *         30% and duplicates 20%, and 10 to a destination that loses
+	 *         everything.
+	 */
+	private List<String> sendThroughFaults(long seed) {
+		List<String> sent = new ArrayList<String>();
+		FaultInjectingTransport faults = new FaultInjectingTransport(
+				recordingTransport(sent), null, seed);
+		faults.setProfiles("loss=0.3,duplicate=0.2;loss=1@10.0.0.9:80");
+		assertFalse(faults.delays());
+
+		for (int i = 0; i < 1000; i++) {
+			faults.send("10.0.0.1:80", ("packet" + i).getBytes());
+		}
+		for (int i = 0; i < 10; i++) {
+			faults.send("10.0.0.9:80", ("lost" + i).getBytes());
+		}
+
+		assertEquals(1010, faults.getSent());
+		assertEquals(sent.size(), 1010 - faults.getLost()
+				+ faults.getDuplicated());
+		for (String packet : sent) {
+			assertTrue(packet.startsWith("10.0.0.1:80 "));
+		}
+
+		return sent;
+	}
+
+	/**
+	 * @return A Transport that adds "destination data" to sent for each
+	 *         packet sent through it.
+	 */
+	private Transport recordingTransport(final List<String> sent) {
+		return new Transport() {
+			public void start(String localId, Receiver receiver) {
+			}
+
+			public void send(String destination, byte[] data) {
+				sent.add(destination + " " + new String(data));
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Write a config file for a Client listening on port, with the given
+	 * "IP:Port weight" neighbor lines.
+	 */
+	private String writeConfig(int port, String... neighborLines)
+			throws IOException {
+		File config = File.createTempFile("config", null);
+		config.deleteOnExit();
+		FileWriter writer = new FileWriter(config);
+		writer.write(port + " 60\n");
+		for (String neighborLine : neighborLines) {
+			writer.write(neighborLine + "\n");
+		}
+		writer.close();
+
+		return config.getAbsolutePath();
+	}
+
+	/*
+	 * A histogram reads back percentiles to within its ~3% precision, and
+	 * exact values below 32.
+	 */
+	@Test
+	public void testHistogramPercentiles() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500.5, histogram.getMean(), 0.001);
+		assertEquals(500, histogram.getValueAtPercentile(50), 500 * 0.04);
+		assertEquals(990, histogram.getValueAtPercentile(99), 990 * 0.04);
+		assertEquals(1000, histogram.getValueAtPercentile(100));
+		assertEquals(10, histogram.getValueAtPercentile(1));
+	}
+
+	/*
+	 * Metrics has no JMX operations, and says so the way a DynamicMBean
+	 * should.
+	 */
+	@Test
+	public void testMetricsHaveNoOperations() {
+		try {
+			clientThreeNeighbors.getMetrics().invoke("reset", new Object[0],
+					new String[0]);
+			fail();
+		} catch (ReflectionException e) {
+			assertTrue(e.getTargetException() instanceof NoSuchMethodException);
+		}
+	}
+
+	/*
+	 * Sending route updates counts a packet, and its size, per neighbor.
+	 */
+	@Test
+	public void testRouteUpdatesAreCounted() {
+		Metrics metrics = clientThreeNeighbors.getMetrics();
+		long sent = metrics.getCount("sent.routeupdate");
+
+		clientThreeNeighbors.sendRouteUpdates();
+		assertEquals(sent + 3, metrics.getCount("sent.routeupdate"));
+		assertTrue(metrics.histogram("sent.routeupdate.bytes").getMax() > 0);
+		assertTrue(metrics.describe().contains("sent.routeupdate: "));
+		assertFalse(metrics.describe().contains("sent.routeupdate.micros"));
+
+		// Received packets are counted, sized and timed by type
+		metrics.packetReceived("routeupdate", 100, 5000);
+		metrics.packetReceived("routeupdate", 300, 7000);
+		assertEquals(2, metrics.getCount("received.routeupdate"));
+		assertEquals(300, metrics.histogram("received.routeupdate.bytes")
+				.getMax());
+		assertEquals(7, metrics.histogram("received.routeupdate.micros")
+				.getMax());
+	}
+
+	/*
+	 * While a flight recording is running, taking in a distance vector is
+	 * recorded as a RouteRecompute event, with the routes it changed.
+	 */
+	@Test
+	public void testRouteRecomputeIsRecorded() throws IOException {
+		final String destination = "10.0.0.1:80";
+
+		List<RecordedEvent> events = recordRouteRecomputes(new Runnable() {
+			public void run() {
+				clientThreeNeighbors
+						.updateDistanceVectorAndRoutingTableFromOtherDistanceVector(
+								neighbor1,
+								dvWithDestination(neighbor1, 1.4, destination,
+										1.0));
+			}
+		});
+		assertEquals(1, events.size());
+		assertEquals(neighbor1, events.get(0).getString("sender"));
+		// Only the new destination's candidate changed
+		assertEquals(1, events.get(0).getInt("destinationsTouched"));
+		assertTrue(events.get(0).getLong("routesChanged") >= 1);
+		assertTrue(events.get(0).getBoolean("changed"));
+
+		events = recordRouteRecomputes(new Runnable() {
+			public void run() {
+				clientThreeNeighbors.updateLinkCost(neighbor1, 2.0);
+			}
+		});
+		assertEquals(1, events.size());
+		assertEquals(neighbor1, events.get(0).getString("sender"));
+		assertTrue(events.get(0).getInt("destinationsTouched") >= 2);
+		assertTrue(events.get(0).getBoolean("changed"));
+	}
+
+	/*
+	 * The link state engine records a RouteRecompute each time it runs
+	 * Dijkstra, whether for a new LSA or a link cost change.
+	 */
+	@Test
+	public void testLinkStateRouteRecomputeIsRecorded() throws IOException {
+		final String a = "127.0.0.1:5001";
+		final String b = "127.0.0.1:5002";
+		final LinkStateEngine engineA = new LinkStateEngine(a);
+		final LinkStateEngine engineB = new LinkStateEngine(b);
+		engineA.initialize(Collections.singletonMap(b, 2.0));
+		engineB.initialize(Collections.singletonMap(a, 2.0));
+
+		List<RecordedEvent> events = recordRouteRecomputes(new Runnable() {
+			public void run() {
+				engineA.processRouteUpdate(b, engineB.createRouteUpdateBody(a));
+				engineA.updateLinkCost(b, 3.0);
+			}
+		});
+		assertEquals(2, events.size());
+		assertEquals(b, events.get(0).getString("sender"));
+		assertEquals(1, events.get(0).getInt("destinationsTouched"));
+		assertEquals(b, events.get(1).getString("sender"));
+		assertEquals(1, events.get(1).getLong("routesChanged"));
+	}
+
+	/**
+	 * @return The RouteRecompute events recorded while running action.
+	 */
+	private List<RecordedEvent> recordRouteRecomputes(Runnable action)
+			throws IOException {
+		File dump = File.createTempFile("bellhop", ".jfr");
+		dump.deleteOnExit();
+
+		Recording recording = new Recording();
+		recording.enable("bellhop.RouteRecompute");
+		recording.start();
+		action.run();
+		recording.stop();
+		recording.dump(dump.toPath());
+		recording.close();
+
+		return RecordingFile.readAllEvents(dump.toPath());
+	}
+
+	/*
+	 * Messages below the log level are dropped without their arguments ever
+	 * being turned into strings; messages at it are formatted once, by the
+	 * writer.
+	 */
+	@Test
+	public void testLogFormatsLazily() {
+		final int[] formatted = new int[1];
+		Object argument = new Object() {
+			public String toString() {
+				formatted[0]++;
+				return "argument";
+			}
+		};
+
+		Log.Level level = Log.getLevel();
+		try {
+			Log.setLevel(Log.Level.INFO);
+			Log.debug("Not logged: {}", argument);
+			Log.flush();
+			assertEquals(0, formatted[0]);
+
+			Log.setLevel(Log.Level.DEBUG);
+			Log.debug("Logged: {}", argument);
+			Log.flush();
+			assertEquals(1, formatted[0]);
+		} finally {
+			Log.setLevel(level);
+		}
+	}
+
+	/*
+	 * Three link state engines in a line, a - b - c. Once their LSAs have been
+	 * flooded, a reaches c through b. When the b - c link goes down, a hears
+	 * about it from b's new LSA, and c becomes unreachable.
+	 */
+	@Test
+	public void testLinkStateEngineRoutesAroundLinkDown() {
+		String a = "127.0.0.1:5001";
+		String b = "127.0.0.1:5002";
+		String c = "127.0.0.1:5003";
+		LinkStateEngine engineA = new LinkStateEngine(a);
+		LinkStateEngine engineB = new LinkStateEngine(b);
+		LinkStateEngine engineC = new LinkStateEngine(c);
+
+		Map<String, Double> linksA = new TreeMap<String, Double>();
+		linksA.put(b, 2.0);
+		Map<String, Double> linksB = new TreeMap<String, Double>();
+		linksB.put(a, 2.0);
+		linksB.put(c, 3.0);
+		Map<String, Double> linksC = new TreeMap<String, Double>();
+		linksC.put(b, 3.0);
+		engineA.initialize(linksA);
+		engineB.initialize(linksB);
+		engineC.initialize(linksC);
+
+		assertEquals(Double.POSITIVE_INFINITY, engineA.getForwardingTable()
+				.getCost(c), 0);
+
+		assertTrue(engineB.processRouteUpdate(a,
+				engineA.createRouteUpdateBody(b)));
+		assertTrue(engineB.processRouteUpdate(c,
+				engineC.createRouteUpdateBody(b)));
+		assertTrue(engineA.processRouteUpdate(b,
+				engineB.createRouteUpdateBody(a)));
+		assertTrue(engineC.processRouteUpdate(b,
+				engineB.createRouteUpdateBody(c)));
+		// Nothing new, so nothing more to flood
+		assertFalse(engineA.processRouteUpdate(b,
+				engineB.createRouteUpdateBody(a)));
+
+		assertEquals(b, engineA.getNextHop(c));
+		assertEquals(5.0, engineA.getForwardingTable().getCost(c), 0);
+		assertEquals(b, engineC.getNextHop(a));
+		assertEquals(5.0, engineC.getForwardingTable().getCost(a), 0);
+
+		engineB.updateLinkCost(c, Double.POSITIVE_INFINITY);
+		assertTrue(engineA.processRouteUpdate(b,
+				engineB.createRouteUpdateBody(a)));
+		assertEquals(Double.POSITIVE_INFINITY, engineA.getForwardingTable()
+				.getCost(c), 0);
+		assertEquals(2.0, engineA.getForwardingTable().getCost(b), 0);
+	}
+
 	/*
 	 * Client normal's:
 	 * 
@@ -734,4 +2170,12 @@ public class ClientTest {
 
 		return new TreeMap<String, Double>(otherDV);
 	}
+
+	/*
+	 * Name of the next hop in a routing entry taken from client's routing
+	 * table.
+	 */
+	private String nextHop(Client client, RouteEntry routingEntry) {
+		return client.getNodeIds().getName(routingEntry.getNextHop());
+	}
 }